@@ -0,0 +1,79 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy.benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Utilities shared by benchmarks.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param directory directory
+     * @throws IOException if something goes wrong
+     */
+    static void delete(final Path directory) throws IOException {
+        if (!Files.exists(directory)) return;
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Sets the system properties {@link com.tagtraum.coxy.CoxyServlet} reads, when it is loaded.
+     * Must be called before the servlet class is initialized, i.e. once per JVM fork.
+     *
+     * @param cacheBase cache base
+     * @param targetBase target base
+     * @param resolver resolver
+     */
+    static void configure(final Path cacheBase, final String targetBase, final String resolver) {
+        System.setProperty("cache.base", cacheBase.toString());
+        System.setProperty("target.base", targetBase);
+        System.setProperty("resolver", resolver);
+        if (System.getProperty("http.agent") == null) {
+            System.setProperty("http.agent", "coxy-benchmark/1.0");
+        }
+    }
+
+    /**
+     * Creates pseudo-random content.
+     *
+     * @param length length
+     * @return content
+     */
+    static byte[] content(final int length) {
+        final byte[] content = new byte[length];
+        for (int i=0; i<length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+}
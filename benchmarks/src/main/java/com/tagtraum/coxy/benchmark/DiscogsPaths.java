@@ -0,0 +1,78 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates realistic Discogs image request paths like
+ * {@code /Mkq8l7_aFIXDsTdRT07pQoubjB4=/600x600/smart/filters:strip_icc():format(jpeg):mode_rgb():quality(96)/discogs-images/R-1507297-1370212405-8548.jpeg.jpg}.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class DiscogsPaths {
+
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    private static final String[] TYPES = {"R", "R", "R", "R", "A", "L"};
+    private static final String[] SIZES = {"600x600", "150x150", "500x500"};
+
+    private DiscogsPaths() {
+    }
+
+    /**
+     * Creates a corpus of paths. The same seed always leads to the same corpus.
+     *
+     * @param size number of paths
+     * @param seed random seed
+     * @return paths
+     */
+    public static String[] create(final int size, final long seed) {
+        final Random random = new Random(seed);
+        final String[] paths = new String[size];
+        for (int i=0; i<size; i++) {
+            paths[i] = create(random);
+        }
+        return paths;
+    }
+
+    /**
+     * Creates a skewed sequence of corpus indices, so that few paths are requested often
+     * and most paths are requested rarely.
+     *
+     * @param corpusSize corpus size
+     * @param length sequence length
+     * @param seed random seed
+     * @return indices into the corpus
+     */
+    public static int[] skewedSequence(final int corpusSize, final int length, final long seed) {
+        final Random random = new Random(seed);
+        final int[] sequence = new int[length];
+        for (int i=0; i<length; i++) {
+            final double d = random.nextDouble();
+            sequence[i] = (int) (corpusSize * d * d * d);
+        }
+        return sequence;
+    }
+
+    private static String create(final Random random) {
+        final StringBuilder sb = new StringBuilder(160);
+        sb.append('/');
+        for (int i=0; i<27; i++) {
+            sb.append(BASE64.charAt(random.nextInt(BASE64.length())));
+        }
+        sb.append("=/").append(SIZES[random.nextInt(SIZES.length)])
+                .append("/smart/filters:strip_icc():format(jpeg):mode_rgb():quality(96)/discogs-images/")
+                .append(TYPES[random.nextInt(TYPES.length)]).append('-')
+                .append(1 + random.nextInt(9999999)).append('-')
+                .append(1100000000 + random.nextInt(400000000));
+        if (random.nextBoolean()) {
+            sb.append('-').append(1000 + random.nextInt(9000));
+        }
+        sb.append(".jpeg.jpg");
+        return sb.toString();
+    }
+}
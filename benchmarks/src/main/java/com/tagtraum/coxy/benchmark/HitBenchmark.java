@@ -0,0 +1,104 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy.benchmark;
+
+import com.tagtraum.coxy.CacheResolver;
+import com.tagtraum.coxy.CoxyServlet;
+import com.tagtraum.coxy.DiscogsImageCacheResolver;
+import com.tagtraum.coxy.StraightCacheResolver;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency of {@link CoxyServlet} requests for resources that are already cached.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitBenchmark {
+
+    @Param({"straight", "discogs"})
+    public String resolver;
+
+    /**
+     * Value for the system property {@code memory.cache.size}.
+     */
+    @Param({"0", "67108864"})
+    public long memoryCacheSize;
+
+    @Param({"10000"})
+    public int corpusSize;
+
+    @Param({"20000"})
+    public int fileSize;
+
+    private Path cacheBase;
+    private CoxyServlet servlet;
+    private String[] paths;
+    private int[] sequence;
+    private int index;
+    private Mocks.Request requestState;
+    private Mocks.Response responseState;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setUp() throws IOException, ServletException {
+        cacheBase = Files.createTempDirectory("coxy-benchmark").toRealPath();
+        Benchmarks.configure(cacheBase, "http://127.0.0.1:1", resolver);
+        System.setProperty("memory.cache.size", Long.toString(memoryCacheSize));
+
+        paths = DiscogsPaths.create(corpusSize, 0);
+        sequence = DiscogsPaths.skewedSequence(corpusSize, 1 << 20, 0);
+        final CacheResolver cacheResolver = "discogs".equals(resolver) ? new DiscogsImageCacheResolver() : new StraightCacheResolver();
+        cacheResolver.setCacheBase(cacheBase.toFile());
+        final byte[] content = Benchmarks.content(fileSize);
+        for (final String path : paths) {
+            final File file = cacheResolver.resolve(path);
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), content);
+        }
+
+        servlet = new CoxyServlet();
+        servlet.init(Mocks.servletConfig());
+        requestState = new Mocks.Request();
+        responseState = new Mocks.Response();
+        request = Mocks.request(requestState);
+        response = Mocks.response(responseState);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        servlet.destroy();
+        Benchmarks.delete(cacheBase);
+    }
+
+    @Benchmark
+    public long hit() throws IOException, ServletException {
+        requestState.pathInfo = paths[sequence[index]];
+        index = (index + 1) & (sequence.length - 1);
+        responseState.reset();
+        servlet.service(request, response);
+        if (responseState.status != HttpServletResponse.SC_OK) {
+            throw new IllegalStateException("Unexpected status " + responseState.status + " for " + requestState.pathInfo);
+        }
+        return responseState.bytes;
+    }
+}
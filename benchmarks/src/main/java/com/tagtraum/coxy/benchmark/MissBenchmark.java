@@ -0,0 +1,111 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tagtraum.coxy.CoxyServlet;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency of {@link CoxyServlet} requests for resources that are not cached yet
+ * and must be fetched from a local stub upstream server.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MissBenchmark {
+
+    @Param({"straight", "discogs"})
+    public String resolver;
+
+    @Param({"20000"})
+    public int fileSize;
+
+    private Path cacheBase;
+    private HttpServer upstream;
+    private ExecutorService upstreamExecutor;
+    private CoxyServlet servlet;
+    private long counter;
+    private Mocks.Request requestState;
+    private Mocks.Response responseState;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setUp() throws IOException, ServletException {
+        final byte[] content = Benchmarks.content(fileSize);
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstreamExecutor = Executors.newFixedThreadPool(4);
+        upstream.setExecutor(upstreamExecutor);
+        upstream.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+                exchange.sendResponseHeaders(200, content.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        upstream.start();
+
+        cacheBase = Files.createTempDirectory("coxy-benchmark").toRealPath();
+        Benchmarks.configure(cacheBase, "http://127.0.0.1:" + upstream.getAddress().getPort(), resolver);
+        servlet = new CoxyServlet();
+        servlet.init(Mocks.servletConfig());
+        requestState = new Mocks.Request();
+        responseState = new Mocks.Response();
+        request = Mocks.request(requestState);
+        response = Mocks.response(responseState);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearCache() throws IOException {
+        Benchmarks.delete(cacheBase.resolve("images"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        servlet.destroy();
+        upstream.stop(0);
+        upstreamExecutor.shutdown();
+        Benchmarks.delete(cacheBase);
+    }
+
+    @Benchmark
+    public long miss() throws IOException, ServletException {
+        // a new path every time, so that we always miss
+        counter++;
+        requestState.pathInfo = "/Mkq8l7_aFIXDsTdRT07pQoubjB4=/600x600/smart/filters:strip_icc():format(jpeg):mode_rgb():quality(96)/discogs-images/R-"
+                + counter + "-1370212405-8548.jpeg.jpg";
+        responseState.reset();
+        servlet.service(request, response);
+        if (responseState.status != HttpServletResponse.SC_OK) {
+            throw new IllegalStateException("Unexpected status " + responseState.status + " for " + requestState.pathInfo);
+        }
+        return responseState.bytes;
+    }
+}
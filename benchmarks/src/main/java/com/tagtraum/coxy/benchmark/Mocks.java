@@ -0,0 +1,153 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy.benchmark;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Minimal servlet API mocks based on dynamic proxies, so that they don't depend on
+ * the exact version of the servlet API. Methods that aren't explicitly handled return
+ * {@code null}, {@code false}, {@code 0} or {@code -1} (for date and int headers).
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class Mocks {
+
+    private Mocks() {
+    }
+
+    /**
+     * Servlet config with a context that swallows all log messages.
+     *
+     * @return config
+     */
+    public static ServletConfig servletConfig() {
+        final ServletContext context = proxy(ServletContext.class, Collections.<String, Object>emptyMap());
+        return proxy(ServletConfig.class, Collections.<String, Object>singletonMap("getServletContext", context));
+    }
+
+    /**
+     * Request.
+     *
+     * @param request mutable request state, so that the same proxy can be re-used
+     * @return request
+     */
+    public static HttpServletRequest request(final Request request) {
+        return (HttpServletRequest) Proxy.newProxyInstance(Mocks.class.getClassLoader(), new Class[]{HttpServletRequest.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getPathInfo": return request.pathInfo;
+                            case "getRemoteAddr": return "127.0.0.1";
+                            case "getMethod": return "GET";
+                            default: return defaultValue(method);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Response that discards everything written to it.
+     *
+     * @param response mutable response state, so that the same proxy can be re-used
+     * @return response
+     */
+    public static HttpServletResponse response(final Response response) {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                response.bytes++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                response.bytes += len;
+            }
+        };
+        final PrintWriter writer = new PrintWriter(new Writer() {
+            @Override
+            public void write(final char[] cbuf, final int off, final int len) {
+                response.bytes += len;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return (HttpServletResponse) Proxy.newProxyInstance(Mocks.class.getClassLoader(), new Class[]{HttpServletResponse.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getOutputStream": return out;
+                            case "getWriter": return writer;
+                            case "setStatus": response.status = (Integer) args[0]; return null;
+                            case "sendError": response.status = (Integer) args[0]; return null;
+                            default: return defaultValue(method);
+                        }
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final Map<String, Object> values) {
+        return (T) Proxy.newProxyInstance(Mocks.class.getClassLoader(), new Class[]{type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if (values.containsKey(method.getName())) return values.get(method.getName());
+                        return defaultValue(method);
+                    }
+                });
+    }
+
+    private static Object defaultValue(final Method method) {
+        final Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == long.class) return method.getName().endsWith("Header") ? -1L : 0L;
+        if (type == int.class) return method.getName().endsWith("Header") ? -1 : 0;
+        if (type.isPrimitive() && type != void.class) return 0;
+        if (type == java.util.Enumeration.class) return Collections.enumeration(Collections.emptyList());
+        return null;
+    }
+
+    /**
+     * Mutable request state.
+     */
+    public static class Request {
+        public String pathInfo;
+    }
+
+    /**
+     * Mutable response state.
+     */
+    public static class Response {
+        public int status = HttpServletResponse.SC_OK;
+        public long bytes;
+
+        public void reset() {
+            status = HttpServletResponse.SC_OK;
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy.benchmark;
+
+import com.tagtraum.coxy.CacheResolver;
+import com.tagtraum.coxy.DiscogsImageCacheResolver;
+import com.tagtraum.coxy.MemoizingCacheResolver;
+import com.tagtraum.coxy.StraightCacheResolver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link CacheResolver#resolve(String)} over a corpus of realistic Discogs paths.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+
+    @Param({"straight", "discogs"})
+    public String resolver;
+
+    /**
+     * Number of distinct paths. Paths are requested with a skewed distribution,
+     * i.e. some paths are resolved much more often than others.
+     */
+    @Param({"100000"})
+    public int corpusSize;
+
+    /**
+     * Max entries of a {@link MemoizingCacheResolver}, {@code 0} for none.
+     */
+    @Param({"0", "10000"})
+    public int memoize;
+
+    private CacheResolver cacheResolver;
+    private String[] paths;
+    private int[] sequence;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        cacheResolver = "discogs".equals(resolver) ? new DiscogsImageCacheResolver() : new StraightCacheResolver();
+        if (memoize > 0) {
+            cacheResolver = new MemoizingCacheResolver(cacheResolver, memoize);
+        }
+        cacheResolver.setCacheBase(new File("/var/www/coxy"));
+        paths = DiscogsPaths.create(corpusSize, 0);
+        sequence = DiscogsPaths.skewedSequence(corpusSize, 1 << 20, 0);
+    }
+
+    @Benchmark
+    public File resolve() throws IOException {
+        final String path = paths[sequence[index]];
+        index = (index + 1) & (sequence.length - 1);
+        return cacheResolver.resolve(path);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+
+/**
+ * <p>
+ * Base class for resolvers, which map paths to files below the cache base.
+ * </p>
+ * <p>
+ * Resolved files are normalized <em>lexically</em>, i.e. {@code .} and {@code ..} segments
+ * are removed without asking the filesystem. This avoids a system call per request, but means
+ * that symbolic links within the cache base are not resolved.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public abstract class AbstractCacheResolver implements CacheResolver {
+
+    private File cacheBase;
+
+    @Override
+    public void setCacheBase(final File cacheBase) {
+        this.cacheBase = cacheBase;
+    }
+
+    @Override
+    public File getCacheBase() {
+        return cacheBase;
+    }
+
+    /**
+     * Creates a normalized file for the given path relative to the cache base.
+     *
+     * @param path path relative to the cache base
+     * @return absolute, normalized file
+     */
+    protected File toFile(final String path) {
+        final File file = new File(cacheBase, path);
+        if (needsNormalization(path)) {
+            return file.toPath().normalize().toFile();
+        }
+        return file;
+    }
+
+    /**
+     * Indicates whether the given path contains {@code .} or {@code ..} segments
+     * or a trailing separator.
+     *
+     * @param path path
+     * @return true, if the path needs to be normalized
+     */
+    static boolean needsNormalization(final String path) {
+        final int length = path.length();
+        if (length > 0 && (path.charAt(length - 1) == '/' || path.charAt(length - 1) == File.separatorChar)) {
+            return true;
+        }
+        int segmentStart = 0;
+        for (int i=0; i<=length; i++) {
+            if (i == length || path.charAt(i) == '/' || path.charAt(i) == File.separatorChar) {
+                final int segmentLength = i - segmentStart;
+                if (segmentLength == 1 && path.charAt(segmentStart) == '.'
+                        || segmentLength == 2 && path.charAt(segmentStart) == '.' && path.charAt(segmentStart + 1) == '.') {
+                    return true;
+                }
+                segmentStart = i + 1;
+            }
+        }
+        return false;
+    }
+}
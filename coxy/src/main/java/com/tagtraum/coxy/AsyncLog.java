@@ -0,0 +1,355 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Leveled log that does not format anything on the calling thread.
+ * </p>
+ * <p>
+ * Log calls store the message format and its arguments (or, for access log records, the raw values)
+ * in a preallocated slot of a bounded ring buffer. A background thread formats them,
+ * replacing each {@code {}} in the format with the next argument, and hands the result to a {@link Sink}.
+ * Calls for disabled levels return right away, so nothing is computed for them, as long as
+ * the arguments are passed as they are. Arguments are formatted later, so they should not change
+ * after they were logged. When the buffer is full, records are dropped rather than blocking the caller.
+ * </p>
+ * <p>
+ * Access log records are sampled: only about one in {@code accessSample} requests is logged.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class AsyncLog implements AutoCloseable {
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Log levels.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private final Level level;
+    private final int accessSample;
+    private final Sink sink;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long head;
+    private long reportedDropped;
+    private volatile boolean closed;
+    private Thread writer;
+
+    /**
+     * Creates a log.
+     *
+     * @param level minimum level to log
+     * @param bufferSize number of records to buffer, rounded up to a power of two
+     * @param accessSample log one in this many requests, {@code 0} turns the access log off
+     * @param sink sink to write formatted records to
+     */
+    public AsyncLog(final Level level, final int bufferSize, final int accessSample, final Sink sink) {
+        this.level = level;
+        this.accessSample = accessSample;
+        this.sink = sink;
+        int capacity = 1;
+        while (capacity < bufferSize) capacity <<= 1;
+        this.slots = new Slot[capacity];
+        for (int i=0; i<capacity; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Starts the background thread that writes the buffered records.
+     */
+    public synchronized void start() {
+        if (writer != null) return;
+        writer = new Thread("coxy-log") {
+            @Override
+            public void run() {
+                while (!closed) {
+                    if (drain() == 0) LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isEnabled(final Level level) {
+        return level.compareTo(this.level) >= 0 && level != Level.OFF;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    /**
+     * Decides, whether the current request should be logged to the access log.
+     *
+     * @return true, if {@link #access(String, String, int, long)} should be called for this request
+     */
+    public boolean isAccessSampled() {
+        return accessSample > 0 && (accessSample == 1 || ThreadLocalRandom.current().nextInt(accessSample) == 0);
+    }
+
+    public void debug(final String format, final Object arg0) {
+        if (isEnabled(Level.DEBUG)) append(Level.DEBUG, format, 1, arg0, null, null, null);
+    }
+
+    public void debug(final String format, final Object arg0, final Object arg1) {
+        if (isEnabled(Level.DEBUG)) append(Level.DEBUG, format, 2, arg0, arg1, null, null);
+    }
+
+    public void debug(final String format, final Object arg0, final Object arg1, final Object arg2) {
+        if (isEnabled(Level.DEBUG)) append(Level.DEBUG, format, 3, arg0, arg1, arg2, null);
+    }
+
+    public void info(final String message) {
+        if (isEnabled(Level.INFO)) append(Level.INFO, message, 0, null, null, null, null);
+    }
+
+    public void info(final String format, final Object arg0) {
+        if (isEnabled(Level.INFO)) append(Level.INFO, format, 1, arg0, null, null, null);
+    }
+
+    public void info(final String format, final Object arg0, final Object arg1) {
+        if (isEnabled(Level.INFO)) append(Level.INFO, format, 2, arg0, arg1, null, null);
+    }
+
+    public void info(final String format, final Object arg0, final Object arg1, final Object arg2) {
+        if (isEnabled(Level.INFO)) append(Level.INFO, format, 3, arg0, arg1, arg2, null);
+    }
+
+    public void warn(final String format, final Object arg0) {
+        if (isEnabled(Level.WARN)) append(Level.WARN, format, 1, arg0, null, null, null);
+    }
+
+    public void warn(final String format, final Object arg0, final Object arg1) {
+        if (isEnabled(Level.WARN)) append(Level.WARN, format, 2, arg0, arg1, null, null);
+    }
+
+    public void warn(final String format, final Object arg0, final Object arg1, final Object arg2) {
+        if (isEnabled(Level.WARN)) append(Level.WARN, format, 3, arg0, arg1, arg2, null);
+    }
+
+    public void warn(final String format, final Object arg0, final Throwable thrown) {
+        if (isEnabled(Level.WARN)) append(Level.WARN, format, 1, arg0, null, null, thrown);
+    }
+
+    public void error(final String format, final Object arg0, final Throwable thrown) {
+        if (isEnabled(Level.ERROR)) append(Level.ERROR, format, 1, arg0, null, null, thrown);
+    }
+
+    /**
+     * Logs a request to the access log. Call only, if {@link #isAccessSampled()} returned true.
+     *
+     * @param remoteAddress client address
+     * @param path requested path
+     * @param statusCode response status code
+     * @param nanos time it took to answer the request
+     */
+    public void access(final String remoteAddress, final String path, final int statusCode, final long nanos) {
+        final Slot slot = claim();
+        if (slot == null) return;
+        slot.level = null;
+        slot.format = path;
+        slot.arg0 = remoteAddress;
+        slot.statusCode = statusCode;
+        slot.nanos = nanos;
+        slot.publish();
+    }
+
+    /**
+     * Number of records dropped, because the buffer was full.
+     *
+     * @return dropped records
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes all buffered records to the sink. Called by the background thread,
+     * and must only be called directly, if the log was not {@link #start() started}.
+     *
+     * @return number of records written
+     */
+    synchronized int drain() {
+        int count = 0;
+        final StringBuilder sb = new StringBuilder();
+        while (true) {
+            final Slot slot = slots[(int) (head & mask)];
+            if (slot.sequence != head + 1) break;
+            sb.setLength(0);
+            Throwable thrown = null;
+            if (slot.level == null) {
+                sb.append("ACCESS ").append(slot.arg0).append(' ').append(slot.format).append(' ')
+                        .append(slot.statusCode).append(' ').append(TimeUnit.NANOSECONDS.toMicros(slot.nanos)).append("us");
+            } else {
+                sb.append(slot.level).append(' ');
+                format(sb, slot);
+                thrown = slot.thrown;
+            }
+            slot.clear();
+            // hand slot back to the producers
+            slot.sequence = head + slots.length;
+            head++;
+            count++;
+            write(sb.toString(), thrown);
+        }
+        final long dropped = this.dropped.get();
+        if (dropped != reportedDropped) {
+            write(Level.WARN + " Dropped " + (dropped - reportedDropped) + " log records, because the buffer was full.", null);
+            reportedDropped = dropped;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final Thread writer;
+        synchronized (this) {
+            writer = this.writer;
+        }
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncLog{" +
+                "level=" + level +
+                ", accessSample=" + accessSample +
+                ", bufferSize=" + slots.length +
+                ", dropped=" + getDropped() +
+                '}';
+    }
+
+    private void append(final Level level, final String format, final int argCount,
+                        final Object arg0, final Object arg1, final Object arg2, final Throwable thrown) {
+        final Slot slot = claim();
+        if (slot == null) return;
+        slot.level = level;
+        slot.format = format;
+        slot.argCount = argCount;
+        slot.arg0 = arg0;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        slot.thrown = thrown;
+        slot.publish();
+    }
+
+    /**
+     * Claims the next free slot.
+     *
+     * @return slot or {@code null}, if the buffer is full
+     */
+    private Slot claim() {
+        while (true) {
+            final long position = tail.get();
+            final Slot slot = slots[(int) (position & mask)];
+            final long sequence = slot.sequence;
+            if (sequence < position) {
+                // not consumed yet
+                dropped.incrementAndGet();
+                return null;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                slot.claimed = position;
+                return slot;
+            }
+        }
+    }
+
+    private void write(final String message, final Throwable thrown) {
+        try {
+            sink.write(message, thrown);
+        } catch (RuntimeException e) {
+            // nothing we can do about it
+        }
+    }
+
+    private static void format(final StringBuilder sb, final Slot slot) {
+        final String format = slot.format;
+        int start = 0;
+        for (int i=0; i<slot.argCount; i++) {
+            final int placeholder = format.indexOf("{}", start);
+            if (placeholder < 0) break;
+            sb.append(format, start, placeholder);
+            sb.append(i == 0 ? slot.arg0 : i == 1 ? slot.arg1 : slot.arg2);
+            start = placeholder + 2;
+        }
+        sb.append(format, start, format.length());
+    }
+
+    /**
+     * Receives formatted records.
+     */
+    public interface Sink {
+
+        /**
+         * Writes a record.
+         *
+         * @param message formatted message, starting with the level
+         * @param thrown throwable or {@code null}
+         */
+        void write(String message, Throwable thrown);
+    }
+
+    /**
+     * Preallocated record. {@link #sequence} tells who owns it: equal to the producer's
+     * position means it's free, position + 1 means it has been published.
+     */
+    private static class Slot {
+        private volatile long sequence;
+        private long claimed;
+        private Level level;
+        private String format;
+        private int argCount;
+        private Object arg0;
+        private Object arg1;
+        private Object arg2;
+        private Throwable thrown;
+        private int statusCode;
+        private long nanos;
+
+        private Slot(final long sequence) {
+            this.sequence = sequence;
+        }
+
+        private void publish() {
+            sequence = claimed + 1;
+        }
+
+        private void clear() {
+            format = null;
+            arg0 = null;
+            arg1 = null;
+            arg2 = null;
+            thrown = null;
+        }
+    }
+}
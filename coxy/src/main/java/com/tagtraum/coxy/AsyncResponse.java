@@ -0,0 +1,255 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * <p>
+ * Response of an asynchronous request, which may be finished by two parties: the worker
+ * handling the request and the container, e.g. when the request times out.
+ * </p>
+ * <p>
+ * Whoever calls {@link #finish()} first owns the response from then on. Afterwards, everything
+ * the other party writes to this wrapper is dropped: writes to the output stream fail with an
+ * {@link IOException} (so that e.g. the {@link TeeWriter} stops sending, but still caches the
+ * resource), header and status changes are ignored. This way, a late worker never touches a
+ * response the container has already completed and recycled.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class AsyncResponse extends HttpServletResponseWrapper {
+
+    private final Object lock = new Object();
+    private boolean finished;
+    private ServletOutputStream out;
+    private PrintWriter writer;
+
+    /**
+     * Wraps a response.
+     *
+     * @param response response of the asynchronous request
+     */
+    public AsyncResponse(final HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Claims the response. Waits for a write in progress to finish.
+     *
+     * @return true, if the caller is the first to finish the response and must complete the request
+     */
+    public boolean finish() {
+        synchronized (lock) {
+            if (finished) return false;
+            finished = true;
+            return true;
+        }
+    }
+
+    /**
+     * Indicates whether the response has been {@link #finish() finished}.
+     *
+     * @return true, if finished
+     */
+    public boolean isFinished() {
+        synchronized (lock) {
+            return finished;
+        }
+    }
+
+    private void checkNotFinished() throws IOException {
+        if (finished) throw new IOException("Response has already been finished");
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        synchronized (lock) {
+            if (out == null) {
+                final ServletOutputStream delegate = finished ? null : super.getOutputStream();
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        synchronized (lock) {
+                            checkNotFinished();
+                            delegate.write(b);
+                        }
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        synchronized (lock) {
+                            checkNotFinished();
+                            delegate.write(b, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        synchronized (lock) {
+                            if (!finished) delegate.flush();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        synchronized (lock) {
+                            if (!finished) delegate.close();
+                        }
+                    }
+                };
+            }
+            return out;
+        }
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        synchronized (lock) {
+            if (writer == null) {
+                final PrintWriter delegate = finished ? null : super.getWriter();
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+                        synchronized (lock) {
+                            checkNotFinished();
+                            delegate.write(cbuf, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() {
+                        synchronized (lock) {
+                            if (!finished) delegate.flush();
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        synchronized (lock) {
+                            if (!finished) delegate.close();
+                        }
+                    }
+                });
+            }
+            return writer;
+        }
+    }
+
+    @Override
+    public boolean isCommitted() {
+        synchronized (lock) {
+            return finished || super.isCommitted();
+        }
+    }
+
+    @Override
+    public void reset() {
+        synchronized (lock) {
+            if (!finished) super.reset();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        synchronized (lock) {
+            if (!finished) super.resetBuffer();
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        synchronized (lock) {
+            if (!finished) super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        synchronized (lock) {
+            if (!finished) super.setStatus(sc);
+        }
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+        synchronized (lock) {
+            checkNotFinished();
+            super.sendError(sc);
+        }
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+        synchronized (lock) {
+            checkNotFinished();
+            super.sendError(sc, msg);
+        }
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        synchronized (lock) {
+            if (!finished) super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        synchronized (lock) {
+            if (!finished) super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setDateHeader(final String name, final long date) {
+        synchronized (lock) {
+            if (!finished) super.setDateHeader(name, date);
+        }
+    }
+
+    @Override
+    public void addDateHeader(final String name, final long date) {
+        synchronized (lock) {
+            if (!finished) super.addDateHeader(name, date);
+        }
+    }
+
+    @Override
+    public void setIntHeader(final String name, final int value) {
+        synchronized (lock) {
+            if (!finished) super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(final String name, final int value) {
+        synchronized (lock) {
+            if (!finished) super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setContentType(final String type) {
+        synchronized (lock) {
+            if (!finished) super.setContentType(type);
+        }
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+        synchronized (lock) {
+            if (!finished) super.setContentLength(len);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Byte range of a resource as requested via the HTTP {@code Range} header,
+ * see <a href="https://www.rfc-editor.org/rfc/rfc7233">RFC 7233</a>.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long first;
+    private final long last;
+
+    /**
+     * Creates a range.
+     *
+     * @param first position of the first byte
+     * @param last position of the last byte (inclusive)
+     */
+    public ByteRange(final long first, final long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses a {@code Range} header, e.g. {@code bytes=0-99,200-,-50}.
+     *
+     * @param header header value
+     * @param size size of the resource
+     * @param maxRanges max number of ranges we are willing to serve
+     * @return satisfiable ranges, an empty list, if none is satisfiable, or {@code null},
+     * if the header is malformed, not in bytes or asks for more than {@code maxRanges} ranges,
+     * i.e. should be ignored
+     */
+    public static List<ByteRange> parse(final String header, final long size, final int maxRanges) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) return null;
+        final List<ByteRange> ranges = new ArrayList<>();
+        int start = BYTES_UNIT.length();
+        int count = 0;
+        while (start <= header.length()) {
+            int end = header.indexOf(',', start);
+            if (end < 0) end = header.length();
+            final String spec = header.substring(start, end).trim();
+            start = end + 1;
+            if (spec.isEmpty()) continue;
+            if (++count > maxRanges) return null;
+            final int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                if (dash == 0) {
+                    // suffix range, i.e. the last n bytes
+                    final long suffixLength = Long.parseLong(spec.substring(1));
+                    if (suffixLength < 0) return null;
+                    if (suffixLength > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffixLength), size - 1));
+                    }
+                } else {
+                    final long first = Long.parseLong(spec.substring(0, dash));
+                    final long last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (first < 0 || last < first) return null;
+                    if (first < size) {
+                        ranges.add(new ByteRange(first, Math.min(last, size - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (count == 0) return null;
+        return ranges.isEmpty() ? Collections.<ByteRange>emptyList() : ranges;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * Value for the {@code Content-Range} header.
+     *
+     * @param size size of the whole resource
+     * @return e.g. {@code bytes 0-99/1000}
+     */
+    public String toContentRange(final long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ByteRange that = (ByteRange) o;
+        return first == that.first && last == that.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (first ^ (first >>> 32)) + (int) (last ^ (last >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+}
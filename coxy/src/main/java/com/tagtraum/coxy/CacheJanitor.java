@@ -0,0 +1,419 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Keeps the cache directory within a byte and a file count quota by deleting
+ * the least recently used files.
+ * </p>
+ * <p>
+ * To avoid load spikes, the cache directory is scanned incrementally by a single low-priority
+ * background thread: Every {@code interval} ms, at most {@code batchSize} directory entries are
+ * looked at. While scanning, the least recently used files are collected as eviction candidates.
+ * When a complete pass is over quota, candidates are deleted (again, at most {@code batchSize}
+ * per interval), until the cache is 10% below the quota.
+ * </p>
+ * <p>
+ * A file's last access is the later one of its last modified time (i.e. the time it was fetched)
+ * and the last time it was served, as reported via {@link #touch(File)}. Access times are only
+ * kept for a bounded number of files.
+ * </p>
+ * <p>
+ * Hidden files are not counted and hidden directories are not scanned. Abandoned temp files written by {@link TeeWriter} and expired
+ * markers written by a {@link NegativeCache} are deleted along the way.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class CacheJanitor implements AutoCloseable {
+
+    private static final int MAX_CANDIDATES = 10000;
+    private static final long ABANDONED_TEMP_FILE_AGE = 1000L * 60L * 60L * 24L;
+    private static final Comparator<Candidate> MOST_RECENT_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(final Candidate c1, final Candidate c2) {
+            return Long.compare(c2.lastAccess, c1.lastAccess);
+        }
+    };
+
+    private final Path cacheBase;
+    private final long maxBytes;
+    private final long maxFiles;
+    private final int batchSize;
+    private final int maxTracked;
+    private volatile MetadataIndex metadataIndex;
+    private volatile MemoryCache memoryCache;
+    private final Map<Path, Long> accessTimes = new ConcurrentHashMap<>();
+    private final Deque<Directory> directories = new ArrayDeque<>();
+    private final PriorityQueue<Candidate> candidates = new PriorityQueue<>(64, MOST_RECENT_FIRST);
+    private final Deque<Candidate> evictions = new ArrayDeque<>();
+    private final AtomicLong evictedFiles = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private ScheduledExecutorService executor;
+    private volatile long passStart;
+    private long passBytes;
+    private long passFiles;
+    private volatile long bytes = -1;
+    private volatile long files = -1;
+
+    /**
+     * Creates a janitor. Call {@link #start(long)} to actually start it.
+     *
+     * @param cacheBase cache directory
+     * @param maxBytes max number of bytes, {@code 0} for no limit
+     * @param maxFiles max number of files, {@code 0} for no limit
+     * @param batchSize max number of directory entries to look at or files to delete per batch
+     * @param maxTracked max number of files to track access times for
+     */
+    public CacheJanitor(final File cacheBase, final long maxBytes, final long maxFiles, final int batchSize,
+                        final int maxTracked) {
+        this.cacheBase = cacheBase.toPath();
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxTracked = maxTracked;
+    }
+
+    /**
+     * Starts the background thread.
+     *
+     * @param interval delay between two batches in ms
+     */
+    public synchronized void start(final long interval) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-janitor");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runBatch();
+                } catch (RuntimeException e) {
+                    // don't let the executor cancel us
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Index to remove evicted files from.
+     *
+     * @param metadataIndex index or {@code null}
+     */
+    public void setMetadataIndex(final MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+    }
+
+    /**
+     * Memory cache to remove evicted files from, so that it does not keep serving them.
+     *
+     * @param memoryCache memory cache or {@code null}
+     */
+    public void setMemoryCache(final MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Records that a cached file was just served.
+     *
+     * @param file file
+     */
+    public void touch(final File file) {
+        final Path path = file.toPath();
+        final long now = System.currentTimeMillis();
+        if (accessTimes.size() >= maxTracked && !accessTimes.containsKey(path)) {
+            forgetAccessesBefore(passStart);
+            if (accessTimes.size() >= maxTracked) return;
+        }
+        accessTimes.put(path, now);
+    }
+
+    /**
+     * Drops access times older than the given time. Frequently served files are
+     * touched again soon anyway.
+     */
+    private void forgetAccessesBefore(final long time) {
+        final Iterator<Long> iterator = accessTimes.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < time) iterator.remove();
+        }
+    }
+
+    /**
+     * Runs a single batch, i.e. either deletes up to {@code batchSize} files or
+     * looks at up to {@code batchSize} directory entries.
+     */
+    synchronized void runBatch() {
+        if (!evictions.isEmpty()) {
+            evict();
+            return;
+        }
+        if (directories.isEmpty()) {
+            startPass();
+        }
+        int visited = 0;
+        while (visited < batchSize && !directories.isEmpty()) {
+            final Directory directory = directories.peek();
+            try {
+                if (!directory.iterator.hasNext()) {
+                    directories.pop().close();
+                    continue;
+                }
+                visit(directory.iterator.next());
+            } catch (DirectoryIteratorException e) {
+                // unreadable, skip the rest of the directory
+                directories.pop().close();
+            } catch (IOException e) {
+                // vanished or unreadable, move on
+            }
+            visited++;
+        }
+        if (directories.isEmpty()) {
+            finishPass();
+        }
+    }
+
+    private void startPass() {
+        passStart = System.currentTimeMillis();
+        passBytes = 0;
+        passFiles = 0;
+        candidates.clear();
+        open(cacheBase);
+    }
+
+    private void open(final Path dir) {
+        try {
+            directories.push(new Directory(Files.newDirectoryStream(dir)));
+        } catch (IOException e) {
+            // vanished or unreadable, skip
+        }
+    }
+
+    private void visit(final Path path) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attributes.isDirectory()) {
+            // hidden directories belong to coxy itself, e.g. content blobs
+            if (!path.getFileName().toString().startsWith(".")) {
+                open(path);
+            }
+            return;
+        }
+        if (!attributes.isRegularFile()) return;
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        if (path.getFileName().toString().startsWith(".")) {
+            final boolean expiredMarker = NegativeCache.isMarker(path) && lastModified <= passStart;
+            final boolean abandonedTempFile = path.getFileName().toString().endsWith(".tmp")
+                    && lastModified < passStart - ABANDONED_TEMP_FILE_AGE;
+            if (expiredMarker || abandonedTempFile) {
+                Files.deleteIfExists(path);
+            }
+            return;
+        }
+        passBytes += attributes.size();
+        passFiles++;
+        final Candidate candidate = new Candidate(path, getLastAccess(path, lastModified));
+        if (candidates.size() < MAX_CANDIDATES) {
+            candidates.add(candidate);
+        } else if (candidate.lastAccess < candidates.peek().lastAccess) {
+            candidates.poll();
+            candidates.add(candidate);
+        }
+    }
+
+    private void finishPass() {
+        bytes = passBytes;
+        files = passFiles;
+        passes.incrementAndGet();
+        if (isOverQuota(1.0)) {
+            final List<Candidate> sorted = new ArrayList<>(candidates);
+            Collections.sort(sorted, Collections.reverseOrder(MOST_RECENT_FIRST));
+            evictions.addAll(sorted);
+        }
+        candidates.clear();
+    }
+
+    private void evict() {
+        final List<File> deletedFiles = new ArrayList<>();
+        int deleted = 0;
+        while (deleted < batchSize && !evictions.isEmpty() && isOverQuota(0.9)) {
+            final Candidate candidate = evictions.poll();
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(candidate.path, BasicFileAttributes.class);
+                // skip it, if it was served or re-fetched since we looked at it
+                if (getLastAccess(candidate.path, attributes.lastModifiedTime().toMillis()) > candidate.lastAccess) continue;
+                Files.delete(candidate.path);
+                accessTimes.remove(candidate.path);
+                final MetadataIndex index = metadataIndex;
+                if (index != null) index.remove(candidate.path.toFile());
+                deletedFiles.add(candidate.path.toFile());
+                bytes -= attributes.size();
+                files--;
+                evictedBytes.addAndGet(attributes.size());
+                evictedFiles.incrementAndGet();
+                deleted++;
+            } catch (NoSuchFileException e) {
+                // already gone
+            } catch (IOException e) {
+                // try the next one
+            }
+        }
+        final MemoryCache cache = memoryCache;
+        if (cache != null) cache.removeFiles(new HashSet<>(deletedFiles));
+        if (!isOverQuota(0.9)) {
+            evictions.clear();
+        }
+    }
+
+    private boolean isOverQuota(final double fraction) {
+        return maxBytes > 0 && bytes > maxBytes * fraction
+                || maxFiles > 0 && files > maxFiles * fraction;
+    }
+
+    private long getLastAccess(final Path path, final long lastModified) {
+        final Long lastAccess = accessTimes.get(path);
+        return lastAccess == null ? lastModified : Math.max(lastAccess, lastModified);
+    }
+
+    /**
+     * Number of bytes in the cache, as of the last complete pass minus what was evicted since.
+     *
+     * @return bytes or {@code -1}, if no pass has been completed yet
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of files in the cache, as of the last complete pass minus what was evicted since.
+     *
+     * @return files or {@code -1}, if no pass has been completed yet
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    public long getEvictedFiles() {
+        return evictedFiles.get();
+    }
+
+    /**
+     * Number of complete passes over the cache directory.
+     *
+     * @return passes
+     */
+    public long getPasses() {
+        return passes.get();
+    }
+
+    @Override
+    public void close() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            while (!directories.isEmpty()) {
+                directories.pop().close();
+            }
+            evictions.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CacheJanitor{" +
+                "maxBytes=" + maxBytes +
+                ", maxFiles=" + maxFiles +
+                ", bytes=" + getBytes() +
+                ", files=" + getFiles() +
+                ", evictedBytes=" + getEvictedBytes() +
+                ", evictedFiles=" + getEvictedFiles() +
+                ", passes=" + getPasses() +
+                '}';
+    }
+
+    /**
+     * Directory that is currently being scanned.
+     */
+    private static class Directory {
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path> iterator;
+
+        private Directory(final DirectoryStream<Path> stream) {
+            this.stream = stream;
+            this.iterator = stream.iterator();
+        }
+
+        private void close() {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * File that may be evicted.
+     */
+    private static class Candidate {
+        private final Path path;
+        private final long lastAccess;
+
+        private Candidate(final Path path, final long lastAccess) {
+            this.path = path;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * <p>
+ * Moves cached Discogs images from the layout of one resolver to the layout of another one,
+ * e.g. when switching from {@code straight} to {@code discogs}. Target files are computed by
+ * the resolvers themselves, so the result is exactly what Coxy expects.
+ * </p>
+ * <p>
+ * The cache directory is walked in parallel by a {@link ForkJoinPool}, large directories are
+ * split into batches. Each file is moved with a single atomic rename, so Coxy (or NGINX)
+ * may keep serving while the migration runs, unless Coxy uses a {@link MetadataIndex}, which
+ * would keep pointing to the old paths. Files that are already in place are left alone,
+ * files whose target exists already are reported as conflicts and left alone as well.
+ * Image variants and alternative encodings are stored next to their master, so they move with it.
+ * </p>
+ * <p>
+ * Directories are appended to a checkpoint file, once they and all their subdirectories have
+ * been migrated. If the migration is interrupted, running it again skips them. Optionally, a
+ * {@link MetadataIndex} log is written along the way, so that Coxy does not need to scan the
+ * cache directory on its first start with {@code -Dmetadata.index=true}.
+ * </p>
+ * <p>
+ * Usage:
+ * </p>
+ * <pre>
+ * java -cp WEB-INF/classes com.tagtraum.coxy.CacheMigrator [-verify] [-index] [-threads n] cache.base from to
+ * </pre>
+ * <p>
+ * {@code from} and {@code to} are resolver names, i.e. {@code straight} or {@code discogs}.
+ * {@code -verify} only reports what would be moved.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class CacheMigrator {
+
+    private static final String CHECKPOINT = ".coxy-migration";
+    private static final String INDEX = ".coxy-index";
+    private static final String INDEX_IN_PROGRESS = ".coxy-index.migrating";
+    private static final int BATCH_SIZE = 1000;
+
+    private final File cacheBase;
+    private final CacheResolver from;
+    private final CacheResolver to;
+    private final boolean verify;
+    private final boolean writeIndex;
+    private final Set<String> checkpoint = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong inPlace = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private PrintWriter checkpointWriter;
+    private MetadataIndex index;
+
+    /**
+     * Creates a migrator.
+     *
+     * @param cacheBase cache directory
+     * @param from resolver that determined the current layout
+     * @param to resolver that determines the new layout
+     * @param verify only count what would be moved, don't move anything
+     * @param writeIndex write a metadata index log for the new layout
+     * @throws IOException if the cache directory cannot be resolved
+     */
+    public CacheMigrator(final File cacheBase, final CacheResolver from, final CacheResolver to,
+                         final boolean verify, final boolean writeIndex) throws IOException {
+        this.cacheBase = cacheBase.getCanonicalFile();
+        this.from = from;
+        this.to = to;
+        this.verify = verify;
+        this.writeIndex = writeIndex && !verify;
+        this.from.setCacheBase(this.cacheBase);
+        this.to.setCacheBase(this.cacheBase);
+    }
+
+    /**
+     * Runs the migration.
+     *
+     * @param threads parallelism
+     * @return true, if all files were migrated (or verified), false if some could not be moved
+     * @throws IOException if the checkpoint or index cannot be written
+     */
+    public boolean run(final int threads) throws IOException {
+        final File checkpointFile = new File(cacheBase, CHECKPOINT);
+        final File indexFile = new File(cacheBase, INDEX_IN_PROGRESS);
+        final boolean resume = checkpointFile.exists();
+        if (resume) {
+            checkpoint.addAll(Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8));
+        }
+        if (!verify) {
+            checkpointWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(checkpointFile, true), StandardCharsets.UTF_8));
+        }
+        if (writeIndex) {
+            index = new MetadataIndex(cacheBase, indexFile);
+            index.openForWriting(resume);
+        }
+        final boolean complete;
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            complete = pool.invoke(new DirectoryTask(cacheBase.toPath()));
+        } finally {
+            pool.shutdown();
+            if (checkpointWriter != null) checkpointWriter.close();
+            if (index != null) index.close();
+        }
+        if (complete && !verify) {
+            if (index != null) {
+                Files.move(indexFile.toPath(), new File(cacheBase, INDEX).toPath(), ATOMIC_MOVE);
+            } else {
+                // paths changed, the old index would be wrong
+                Files.deleteIfExists(new File(cacheBase, INDEX).toPath());
+            }
+            Files.deleteIfExists(checkpointFile.toPath());
+        }
+        return complete;
+    }
+
+    /**
+     * Migrates a single file.
+     *
+     * @param path file
+     * @return false, if the file could not be moved
+     */
+    private boolean migrate(final Path path) {
+        final File file = path.toFile();
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            final String name = file.getName();
+            final String masterName = toMasterName(name);
+            final String requestPath = toRequestPath(new File(file.getParentFile(), masterName));
+            if (requestPath == null) {
+                unknown.incrementAndGet();
+                return true;
+            }
+            final File masterTarget = to.resolve(requestPath);
+            final File target = masterName.equals(name) ? masterTarget : new File(masterTarget.getParentFile(), name);
+            if (target.equals(file)) {
+                inPlace.incrementAndGet();
+                if (index != null) {
+                    index.put(file, attributes.size(), attributes.lastModifiedTime().toMillis(), null, null, null);
+                }
+                return true;
+            }
+            if (!target.getPath().startsWith(cacheBase.getPath() + File.separator)) {
+                unknown.incrementAndGet();
+                return true;
+            }
+            if (Files.exists(target.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                conflicts.incrementAndGet();
+                return true;
+            }
+            if (verify) {
+                moved.incrementAndGet();
+                return true;
+            }
+            Files.createDirectories(target.getParentFile().toPath());
+            // index first, a missing file is noticed by Coxy, a missing index entry is not
+            if (index != null) {
+                index.put(target, attributes.size(), attributes.lastModifiedTime().toMillis(), null, null, null);
+            }
+            try {
+                Files.move(path, target.toPath(), ATOMIC_MOVE);
+            } catch (IOException e) {
+                if (index != null) index.remove(target);
+                throw e;
+            }
+            moved.incrementAndGet();
+            return true;
+        } catch (NoSuchFileException e) {
+            // moved or deleted by someone else
+            return true;
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            System.err.println("Failed to migrate " + file + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Reconstructs a path info for the given file, i.e. a path that either the old or the new
+     * resolver resolves to the file.
+     *
+     * @param file file
+     * @return path info or {@code null}, if the file is not a Discogs image in either layout
+     */
+    private String toRequestPath(final File file) {
+        // the resolvers only look at what follows /discogs-images/, the signature doesn't matter
+        final String path = "/migration/discogs-images/" + file.getName();
+        if (DiscogsImageCacheResolver.toHashedPath(path) == null) return null;
+        return resolvesTo(to, path, file) || resolvesTo(from, path, file) ? path : null;
+    }
+
+    /**
+     * Name of the master an image variant or alternative encoding was derived from,
+     * e.g. {@code R-1-2.jpeg} for {@code R-1-2@600x600.jpeg.gz}. As a variant may have
+     * a different format than its master, the extension may be wrong, but that doesn't
+     * change where the resolvers put the master.
+     *
+     * @param name file name
+     * @return name of the master or {@code name}, if it isn't derived
+     */
+    static String toMasterName(final String name) {
+        String masterName = name;
+        for (final ContentNegotiator.Alternative alternative : ContentNegotiator.Alternative.values()) {
+            final String suffix = alternative.getSuffix();
+            if (masterName.endsWith(suffix) && masterName.lastIndexOf('.', masterName.length() - suffix.length() - 1) > 0) {
+                masterName = masterName.substring(0, masterName.length() - suffix.length());
+                break;
+            }
+        }
+        final int at = masterName.indexOf('@');
+        final int dot = masterName.lastIndexOf('.');
+        return at > 0 && dot > at ? masterName.substring(0, at) + masterName.substring(dot) : masterName;
+    }
+
+    private static boolean resolvesTo(final CacheResolver resolver, final String path, final File file) {
+        try {
+            return resolver.resolve(path).equals(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String toRelativePath(final Path path) {
+        final String relativePath = cacheBase.toPath().relativize(path).toString();
+        return File.separatorChar == '/' ? relativePath : relativePath.replace(File.separatorChar, '/');
+    }
+
+    private void checkpoint(final String relativePath) {
+        if (checkpointWriter == null) return;
+        synchronized (checkpointWriter) {
+            checkpointWriter.println(relativePath);
+            checkpointWriter.flush();
+        }
+    }
+
+    /**
+     * Number of files moved (or to move, when verifying).
+     *
+     * @return moved files
+     */
+    public long getMoved() {
+        return moved.get();
+    }
+
+    /**
+     * Number of files that already were in the right place.
+     *
+     * @return files in place
+     */
+    public long getInPlace() {
+        return inPlace.get();
+    }
+
+    /**
+     * Number of files that were not moved, because their target exists already.
+     *
+     * @return conflicts
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * Number of files that belong to neither layout.
+     *
+     * @return unknown files
+     */
+    public long getUnknown() {
+        return unknown.get();
+    }
+
+    /**
+     * Number of files or directories that could not be migrated.
+     *
+     * @return failures
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheMigrator{" +
+                (verify ? "toMove=" : "moved=") + moved +
+                ", inPlace=" + inPlace +
+                ", conflicts=" + conflicts +
+                ", unknown=" + unknown +
+                ", failed=" + failed +
+                '}';
+    }
+
+    /**
+     * Migrates a directory and all its subdirectories.
+     */
+    private class DirectoryTask extends RecursiveTask<Boolean> {
+
+        private final Path directory;
+
+        private DirectoryTask(final Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected Boolean compute() {
+            final String relativePath = toRelativePath(directory);
+            if (checkpoint.contains(relativePath)) return true;
+            final List<RecursiveTask<Boolean>> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>();
+            try (final DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (final Path entry : entries) {
+                    // our own files, temp files, negative markers
+                    if (entry.getFileName().toString().startsWith(".")) continue;
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(fork(new DirectoryTask(entry)));
+                    } else {
+                        batch.add(entry);
+                        if (batch.size() == BATCH_SIZE) {
+                            tasks.add(fork(new BatchTask(batch)));
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                System.err.println("Failed to list " + directory + ": " + e);
+                return false;
+            }
+            boolean complete = new BatchTask(batch).compute();
+            for (final RecursiveTask<Boolean> task : tasks) {
+                complete &= task.join();
+            }
+            if (complete) {
+                if (!verify && !directory.equals(cacheBase.toPath())) {
+                    deleteIfEmpty(directory);
+                }
+                checkpoint(relativePath);
+            }
+            return complete;
+        }
+
+        private RecursiveTask<Boolean> fork(final RecursiveTask<Boolean> task) {
+            task.fork();
+            return task;
+        }
+
+        private void deleteIfEmpty(final Path directory) {
+            try {
+                Files.deleteIfExists(directory);
+            } catch (DirectoryNotEmptyException e) {
+                // still in use
+            } catch (IOException e) {
+                // doesn't matter
+            }
+        }
+    }
+
+    /**
+     * Migrates a batch of files in the same directory.
+     */
+    private class BatchTask extends RecursiveTask<Boolean> {
+
+        private final List<Path> files;
+
+        private BatchTask(final List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected Boolean compute() {
+            boolean complete = true;
+            for (final Path file : files) {
+                complete &= migrate(file);
+            }
+            return complete;
+        }
+    }
+
+    private static CacheResolver createResolver(final String name) {
+        switch (name) {
+            case "discogs": return new DiscogsImageCacheResolver();
+            case "straight": return new StraightCacheResolver();
+            default: throw new IllegalArgumentException("Unknown resolver: " + name);
+        }
+    }
+
+    /**
+     * Runs the migrator from the command line.
+     *
+     * @param args arguments, see class comment
+     * @throws IOException if the migration fails
+     */
+    public static void main(final String[] args) throws IOException {
+        boolean verify = false;
+        boolean writeIndex = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-verify": verify = true; break;
+                case "-index": writeIndex = true; break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                default: arguments.add(args[i]);
+            }
+        }
+        if (arguments.size() != 3) {
+            System.err.println("Usage: java " + CacheMigrator.class.getName()
+                    + " [-verify] [-index] [-threads n] cache.base (straight|discogs) (straight|discogs)");
+            System.exit(2);
+        }
+        final CacheMigrator migrator = new CacheMigrator(new File(arguments.get(0)),
+                createResolver(arguments.get(1)), createResolver(arguments.get(2)), verify, writeIndex);
+        final ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-migrator-progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        progress.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println(migrator);
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+        final boolean complete = migrator.run(threads);
+        progress.shutdownNow();
+        System.out.println(migrator);
+        if (!complete) {
+            System.out.println("Incomplete. Run again to resume.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * <p>
+ * Stores cached resources. Resources are identified by the files a {@link CacheResolver}
+ * resolved their paths to, so the resolver defines the layout and the storage defines,
+ * whether the resources actually end up in these files ({@link FileCacheStorage}) or
+ * somewhere else ({@link SegmentCacheStorage}).
+ * </p>
+ * <p>
+ * Implementations must be thread-safe.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public interface CacheStorage extends AutoCloseable {
+
+    /**
+     * Reads the size and last modified time of a stored resource.
+     *
+     * @param file resolved file
+     * @return attributes or {@code null}, if not stored
+     * @throws IOException if we fail to read the attributes
+     */
+    BasicFileAttributes readAttributes(File file) throws IOException;
+
+    /**
+     * Sends (a part of) a stored resource.
+     *
+     * @param file resolved file
+     * @param attributes attributes previously read
+     * @param out output
+     * @param position position of the first byte to send
+     * @param length number of bytes to send
+     * @throws java.nio.file.NoSuchFileException if the resource is not stored anymore
+     * @throws IOException if something goes wrong
+     */
+    void send(File file, BasicFileAttributes attributes, OutputStream out, long position, long length) throws IOException;
+
+    /**
+     * Reads a stored resource into memory.
+     *
+     * @param file resolved file
+     * @param attributes attributes previously read
+     * @return content
+     * @throws java.nio.file.NoSuchFileException if the resource is not stored anymore
+     * @throws IOException if something goes wrong
+     */
+    byte[] read(File file, BasicFileAttributes attributes) throws IOException;
+
+    /**
+     * Stores a resource, while optionally also sending it to a client. The resource only becomes
+     * visible, once it is complete.
+     *
+     * @param file resolved file
+     * @param in input, typically from the target server
+     * @param expectedLength expected number of bytes or {@code -1}, if unknown
+     * @param lastModified last modified time
+     * @param client client output or {@code null}
+     * @return number of bytes stored
+     * @throws IOException if we fail to read the input or fail to store it
+     */
+    long store(File file, InputStream in, long expectedLength, long lastModified, OutputStream client) throws IOException;
+
+    /**
+     * Changes the last modified time of a stored resource.
+     *
+     * @param file resolved file
+     * @param lastModified last modified time
+     * @throws IOException if something goes wrong
+     */
+    void setLastModified(File file, long lastModified) throws IOException;
+
+    /**
+     * Deletes a stored resource.
+     *
+     * @param file resolved file
+     * @return true, if it was deleted, false if it wasn't stored
+     * @throws IOException if something goes wrong
+     */
+    boolean delete(File file) throws IOException;
+
+    @Override
+    void close();
+}
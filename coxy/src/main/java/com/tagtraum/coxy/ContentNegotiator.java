@@ -0,0 +1,462 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Keeps alternative representations of cached files, so that clients that accept them can be
+ * sent fewer bytes: gzip-compressed copies of compressible types for clients sending
+ * {@code Accept-Encoding: gzip} and WebP copies of images for clients sending
+ * {@code Accept: image/webp}.
+ * </p>
+ * <p>
+ * Alternatives are encoded from the cached file in the background, never on the request path,
+ * and stored next to it, e.g. {@code R-1-2.jpeg.webp} for {@code R-1-2.jpeg}. They carry the
+ * last modified time of the file they were encoded from, so that they are ignored
+ * once that file has been replaced. If the file is merely revalidated, they are
+ * {@link #refresh(File, BasicFileAttributes, long) carried over}.
+ * Alternatives that turn out not to be smaller are not stored.
+ * </p>
+ * <p>
+ * WebP is only offered, if an {@link ImageIO} writer for it is installed, as the JDK does not
+ * come with one.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class ContentNegotiator implements AutoCloseable {
+
+    /**
+     * Files smaller than this are not worth compressing.
+     */
+    private static final long MIN_SIZE = 1024L;
+    /**
+     * Files larger than this are not encoded, as they are held in memory while encoding.
+     */
+    private static final long MAX_SIZE = 8L * 1024L * 1024L;
+    private static final float WEBP_QUALITY = 0.8f;
+    private static final int MAX_REJECTED = 10000;
+
+    private final CacheStorage storage;
+    private final boolean gzip;
+    private final boolean webp;
+    private final ThreadPoolExecutor executor;
+    private final Set<File> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final Map<File, Long> rejected = new LinkedHashMap<File, Long>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<File, Long> eldest) {
+            return size() > MAX_REJECTED;
+        }
+    };
+    private final AtomicLong encoded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile MetadataIndex metadataIndex;
+
+    /**
+     * Creates a negotiator.
+     *
+     * @param storage storage the cached files and their alternatives are kept in
+     * @param gzip offer gzip-compressed alternatives
+     * @param webp offer WebP alternatives, if a writer is available
+     * @param threads number of encoding threads
+     * @param queueSize max number of alternatives waiting to be encoded
+     */
+    public ContentNegotiator(final CacheStorage storage, final boolean gzip, final boolean webp,
+                             final int threads, final int queueSize) {
+        this.storage = storage;
+        this.gzip = gzip;
+        this.webp = webp && ImageIO.getImageWritersByMIMEType(Alternative.WEBP.getContentType()).hasNext();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-encoder-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Index to record stored alternatives in.
+     *
+     * @param metadataIndex index or {@code null}
+     */
+    public void setMetadataIndex(final MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+    }
+
+    /**
+     * Indicates whether gzip-compressed alternatives are offered.
+     *
+     * @return true, if offered
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Indicates whether WebP alternatives are offered, i.e. they were asked for and a writer is available.
+     *
+     * @return true, if offered
+     */
+    public boolean isWebp() {
+        return webp;
+    }
+
+    /**
+     * Alternative we offer for the given content type.
+     *
+     * @param contentType content type or {@code null}
+     * @return alternative or {@code null}, if there is none
+     */
+    public Alternative getAlternative(final String contentType) {
+        if (contentType == null) return null;
+        final String mimeType = getMimeType(contentType);
+        if (gzip && isCompressible(mimeType)) return Alternative.GZIP;
+        // GIFs may be animated, which we would lose
+        if (webp && ("image/jpeg".equals(mimeType) || "image/png".equals(mimeType))) {
+            return Alternative.WEBP;
+        }
+        return null;
+    }
+
+    private static String getMimeType(final String contentType) {
+        final int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim().toLowerCase();
+    }
+
+    private static boolean isCompressible(final String mimeType) {
+        return mimeType.startsWith("text/")
+                || mimeType.endsWith("+xml") || mimeType.endsWith("+json")
+                || "application/json".equals(mimeType)
+                || "application/xml".equals(mimeType)
+                || "application/javascript".equals(mimeType)
+                || "application/postscript".equals(mimeType)
+                || "image/bmp".equals(mimeType)
+                || "image/tiff".equals(mimeType);
+    }
+
+    /**
+     * Quality with which a header like {@code Accept-Encoding: br, gzip;q=0.8} accepts the given value.
+     * Only explicitly listed values count, wildcards are ignored.
+     *
+     * @param header header value or {@code null}
+     * @param value value, e.g. {@code gzip}
+     * @return quality between 0 and 1, 0 if not accepted
+     */
+    static double getQuality(final String header, final String value) {
+        if (header == null) return 0;
+        int start = 0;
+        while (start < header.length()) {
+            int end = header.indexOf(',', start);
+            if (end < 0) end = header.length();
+            final String element = header.substring(start, end);
+            start = end + 1;
+            final int semicolon = element.indexOf(';');
+            if (!(semicolon >= 0 ? element.substring(0, semicolon) : element).trim().equalsIgnoreCase(value)) continue;
+            if (semicolon < 0) return 1;
+            for (final String parameter : element.substring(semicolon + 1).split(";")) {
+                final String p = parameter.trim();
+                if (p.startsWith("q=") || p.startsWith("Q=")) {
+                    try {
+                        return Math.max(0, Math.min(1, Double.parseDouble(p.substring(2))));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * File an alternative is stored in. This is a sibling of the file it is encoded from.
+     *
+     * @param file cached file
+     * @param alternative alternative
+     * @return alternative's file
+     */
+    public static File toFile(final File file, final Alternative alternative) {
+        return new File(file.getParentFile(), file.getName() + alternative.getSuffix());
+    }
+
+    /**
+     * Looks up a stored alternative that was encoded from the current version of the given file.
+     *
+     * @param file cached file
+     * @param attributes attributes of the cached file
+     * @param alternative alternative
+     * @return attributes of the alternative or {@code null}, if there is no current one
+     * @throws IOException if something goes wrong
+     */
+    public BasicFileAttributes lookup(final File file, final BasicFileAttributes attributes,
+                                      final Alternative alternative) throws IOException {
+        final BasicFileAttributes alternativeAttributes = storage.readAttributes(toFile(file, alternative));
+        if (alternativeAttributes == null || !alternativeAttributes.isRegularFile()) return null;
+        return alternativeAttributes.lastModifiedTime().toMillis() == attributes.lastModifiedTime().toMillis()
+                ? alternativeAttributes : null;
+    }
+
+    /**
+     * Carries the alternatives of a file over to its new last modified time, e.g. because the
+     * target server confirmed that the file is still up-to-date, so that they don't have to be encoded again.
+     *
+     * @param file cached file
+     * @param attributes attributes of the cached file before its last modified time was changed
+     * @param lastModified new last modified time of the cached file
+     * @throws IOException if something goes wrong
+     */
+    public void refresh(final File file, final BasicFileAttributes attributes, final long lastModified) throws IOException {
+        final long previousLastModified = attributes.lastModifiedTime().toMillis();
+        for (final Alternative alternative : Alternative.values()) {
+            final File alternativeFile = toFile(file, alternative);
+            synchronized (rejected) {
+                final Long rejectedLastModified = rejected.get(alternativeFile);
+                if (rejectedLastModified != null && rejectedLastModified == previousLastModified) {
+                    rejected.put(alternativeFile, lastModified);
+                }
+            }
+            final BasicFileAttributes alternativeAttributes = lookup(file, attributes, alternative);
+            if (alternativeAttributes == null) continue;
+            try {
+                storage.setLastModified(alternativeFile, lastModified);
+            } catch (NoSuchFileException e) {
+                // evicted since we looked it up
+                continue;
+            }
+            final MetadataIndex metadataIndex = this.metadataIndex;
+            if (metadataIndex != null) {
+                metadataIndex.put(alternativeFile, alternativeAttributes.size(), lastModified, alternative.getContentType(), null, null);
+            }
+        }
+    }
+
+    /**
+     * Encodes and stores an alternative on the encoding pool, unless it's busy, already encoding it,
+     * or the alternative for this version of the file turned out not to be worth it.
+     *
+     * @param file cached file
+     * @param attributes attributes of the cached file
+     * @param alternative alternative
+     * @return true, if the alternative will be encoded
+     */
+    public boolean encodeInBackground(final File file, final BasicFileAttributes attributes, final Alternative alternative) {
+        final long size = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        if (size < MIN_SIZE || size > MAX_SIZE) return false;
+        final File alternativeFile = toFile(file, alternative);
+        synchronized (rejected) {
+            final Long rejectedLastModified = rejected.get(alternativeFile);
+            if (rejectedLastModified != null && rejectedLastModified == lastModified) return false;
+        }
+        if (!inFlight.add(alternativeFile)) return false;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!encode(file, attributes, alternative)) {
+                            synchronized (rejected) {
+                                rejected.put(alternativeFile, lastModified);
+                            }
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        // gone or unreadable, try again next time
+                        failed.incrementAndGet();
+                    } finally {
+                        inFlight.remove(alternativeFile);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(alternativeFile);
+            return false;
+        }
+    }
+
+    /**
+     * Encodes and stores an alternative.
+     *
+     * @param file cached file
+     * @param attributes attributes of the cached file
+     * @param alternative alternative
+     * @return false, if the alternative is not smaller than the file or cannot be encoded
+     * @throws IOException if reading or storing fails
+     */
+    boolean encode(final File file, final BasicFileAttributes attributes, final Alternative alternative) throws IOException {
+        final byte[] content = storage.read(file, attributes);
+        final byte[] bytes = encode(content, alternative);
+        if (bytes == null || bytes.length >= content.length) return false;
+        final File alternativeFile = toFile(file, alternative);
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        storage.store(alternativeFile, new ByteArrayInputStream(bytes), bytes.length, lastModified, null);
+        final MetadataIndex metadataIndex = this.metadataIndex;
+        if (metadataIndex != null) {
+            metadataIndex.put(alternativeFile, bytes.length, lastModified, alternative.getContentType(), null, null);
+        }
+        encoded.incrementAndGet();
+        return true;
+    }
+
+    private static byte[] encode(final byte[] content, final Alternative alternative) throws IOException {
+        switch (alternative) {
+            case GZIP:
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2);
+                try (final GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                    gzipOut.write(content);
+                }
+                return out.toByteArray();
+            case WEBP:
+                return ImageVariants.transcode(content, "webp", WEBP_QUALITY);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Number of alternatives encoded and stored since start.
+     *
+     * @return encoded alternatives
+     */
+    public long getEncoded() {
+        return encoded.get();
+    }
+
+    /**
+     * Number of alternatives that could not be encoded or were not worth it since start.
+     *
+     * @return failures
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContentNegotiator{" +
+                "gzip=" + gzip +
+                ", webp=" + webp +
+                ", threads=" + executor.getMaximumPoolSize() +
+                ", encoded=" + encoded +
+                ", failed=" + failed +
+                '}';
+    }
+
+    /**
+     * Alternative representation of a cached file.
+     */
+    public enum Alternative {
+
+        /**
+         * Same content type, compressed with gzip.
+         */
+        GZIP(".gz", null, "gzip", "Accept-Encoding", "gzip"),
+        /**
+         * Image re-encoded as WebP.
+         */
+        WEBP(".webp", "image/webp", null, "Accept", "image/webp");
+
+        private final String suffix;
+        private final String contentType;
+        private final String contentEncoding;
+        private final String requestHeader;
+        private final String token;
+
+        Alternative(final String suffix, final String contentType, final String contentEncoding,
+                    final String requestHeader, final String token) {
+            this.suffix = suffix;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.requestHeader = requestHeader;
+            this.token = token;
+        }
+
+        /**
+         * Suffix appended to the name of the file the alternative is encoded from.
+         *
+         * @return suffix
+         */
+        public String getSuffix() {
+            return suffix;
+        }
+
+        /**
+         * Content type of the alternative.
+         *
+         * @return content type or {@code null}, if it's the same as the original's
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Content encoding of the alternative.
+         *
+         * @return content encoding or {@code null}, if none
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * Request header the choice depends on, i.e. the value for {@code Vary}.
+         *
+         * @return header name
+         */
+        public String getRequestHeader() {
+            return requestHeader;
+        }
+
+        /**
+         * Indicates whether a client sending the given {@link #getRequestHeader() request header}
+         * accepts this alternative.
+         *
+         * @param header header value or {@code null}
+         * @return true, if accepted
+         */
+        public boolean isAcceptedBy(final String header) {
+            return getQuality(header, token) > 0;
+        }
+    }
+}
@@ -0,0 +1,1997 @@
+/*
+ * =================================================
+ * Copyright 2014 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static javax.servlet.http.HttpServletResponse.*;
+
+/**
+ * CoxyServlet.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class CoxyServlet extends HttpServlet {
+
+    private static final ResourceBundle MIME_TYPES = ResourceBundle.getBundle("mime");
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    private static final String CACHE_BASE = System.getProperty("cache.base");
+    private static final String USER_AGENT = System.getProperty("http.agent");
+    private static final String TARGET_BASE = stripTrailingSlash(System.getProperty("target.base"));
+    private static final String RESOLVER = System.getProperty("resolver", "straight");
+    private static final String UPSTREAM_CLIENT = System.getProperty("upstream.client", HttpUpstreamClient.class.getName());
+    private static final long MAPPED_CACHE_SIZE = Long.getLong("mapped.cache.size", 0L);
+    private static final long MAPPED_MAX_FILE_SIZE = Long.getLong("mapped.max.file.size", 256L * 1024L);
+    private static final long MEMORY_CACHE_SIZE = Long.getLong("memory.cache.size", 0L);
+    private static final long MEMORY_MAX_OBJECT_SIZE = Long.getLong("memory.max.object.size", 64L * 1024L);
+    private static final long COALESCE_TIMEOUT = Long.getLong("coalesce.timeout", 10000L);
+    private static final int RESOLVER_CACHE_SIZE = Integer.getInteger("resolver.cache.size", 10000);
+    private static final long ONE_YEAR = 1000L * 60L * 60L * 24L * 365L;
+    private static final double RATELIMIT_RESERVE = Double.parseDouble(System.getProperty("ratelimit.reserve", "0.1"));
+    private static final int RATELIMIT_BURST = Integer.getInteger("ratelimit.burst", 10);
+    private static final String RATELIMIT_PRIORITY_PATTERN = System.getProperty("ratelimit.priority.pattern");
+    private static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("async", "true"));
+    private static final boolean ASYNC_VIRTUAL = Boolean.parseBoolean(System.getProperty("async.virtual", "true"));
+    private static final int ASYNC_THREADS = Integer.getInteger("async.threads", 64);
+    private static final long ASYNC_TIMEOUT = Long.getLong("async.timeout", 30000L);
+    private static final int NEGATIVE_CACHE_SIZE = Integer.getInteger("negative.cache.size", 10000);
+    private static final long NEGATIVE_TTL_NOTFOUND = Long.getLong("negative.ttl.notfound", 1000L * 60L * 60L * 24L);
+    private static final long NEGATIVE_TTL_ERROR = Long.getLong("negative.ttl.error", 1000L * 60L);
+    private static final boolean NEGATIVE_PERSISTENT = Boolean.parseBoolean(System.getProperty("negative.persistent", "false"));
+    private static final boolean METADATA_INDEX = Boolean.parseBoolean(System.getProperty("metadata.index", "false"));
+    private static final long CACHE_MAX_BYTES = Long.getLong("cache.max.bytes", 0L);
+    private static final long CACHE_MAX_FILES = Long.getLong("cache.max.files", 0L);
+    private static final long JANITOR_INTERVAL = Long.getLong("janitor.interval", 1000L);
+    private static final int JANITOR_BATCH_SIZE = Integer.getInteger("janitor.batch.size", 1000);
+    private static final int JANITOR_MAX_TRACKED = Integer.getInteger("janitor.max.tracked", 100000);
+    private static final boolean STALE_WHILE_REVALIDATE = Boolean.parseBoolean(System.getProperty("stale.while.revalidate", "true"));
+    private static final int REVALIDATE_THREADS = Integer.getInteger("revalidate.threads", 2);
+    private static final int REVALIDATE_QUEUE_SIZE = Integer.getInteger("revalidate.queue.size", 1000);
+    private static final boolean PREFETCH = Boolean.parseBoolean(System.getProperty("prefetch", "true"));
+    private static final int PREFETCH_THREADS = Integer.getInteger("prefetch.threads", 1);
+    private static final int PREFETCH_MAX_INFLIGHT = Integer.getInteger("prefetch.max.inflight", 1);
+    private static final int PREFETCH_QUEUE_SIZE = Integer.getInteger("prefetch.queue.size", 1000000);
+    private static final double RATELIMIT_PREFETCH_RESERVE = Double.parseDouble(System.getProperty("ratelimit.prefetch.reserve", "0.5"));
+    private static final long PREFETCH_BACKOFF = 100L;
+    private static final AsyncLog.Level LOG_LEVEL = AsyncLog.Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+    private static final int LOG_BUFFER_SIZE = Integer.getInteger("log.buffer.size", 8192);
+    private static final int LOG_ACCESS_SAMPLE = Integer.getInteger("log.access.sample", 0);
+    private static final String STORAGE = System.getProperty("storage", "file");
+    private static final long SEGMENT_SIZE = Long.getLong("segment.size", 256L * 1024L * 1024L);
+    private static final long SEGMENT_MAX_OBJECT_SIZE = Long.getLong("segment.max.object.size", 1024L * 1024L);
+    private static final boolean SEGMENT_MAPPED = Boolean.parseBoolean(System.getProperty("segment.mapped", "true"));
+    private static final double SEGMENT_COMPACT_THRESHOLD = Double.parseDouble(System.getProperty("segment.compact.threshold", "0.5"));
+    private static final long SEGMENT_COMPACT_INTERVAL = Long.getLong("segment.compact.interval", 60000L);
+    private static final long DEDUP_COLLECT_INTERVAL = Long.getLong("dedup.collect.interval", 60L * 60L * 1000L);
+    private static final boolean VARIANTS = Boolean.parseBoolean(System.getProperty("variants", "false"));
+    private static final int VARIANT_THREADS = Integer.getInteger("variant.threads", 2);
+    private static final int VARIANT_QUEUE_SIZE = Integer.getInteger("variant.queue.size", 100);
+    private static final long VARIANT_TIMEOUT = Long.getLong("variant.timeout", 5000L);
+    private static final boolean PRECOMPRESS = Boolean.parseBoolean(System.getProperty("precompress", "false"));
+    private static final boolean WEBP = Boolean.parseBoolean(System.getProperty("webp", "false"));
+    private static final int ENCODER_THREADS = Integer.getInteger("encoder.threads", 1);
+    private static final int ENCODER_QUEUE_SIZE = Integer.getInteger("encoder.queue.size", 1000);
+    private static final String PEERS = System.getProperty("peers");
+    private static final String PEER_SELF = System.getProperty("peer.self");
+    private static final int PEER_VIRTUAL_NODES = Integer.getInteger("peer.virtual.nodes", 100);
+    private static final long PEER_HEALTH_INTERVAL = Long.getLong("peer.health.interval", 5000L);
+    private static final int PEER_TIMEOUT = Integer.getInteger("peer.timeout", 3000);
+    private static final int PEER_MAX_INFLIGHT = Integer.getInteger("peer.max.inflight", 32);
+    private static final boolean METRICS_JMX = Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"));
+    private static final int MAX_RANGES = 16;
+    private static final String MULTIPART_BOUNDARY = "COXY_MIME_BOUNDARY";
+    private static final byte[] MULTIPART_END = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final FetchResult FETCH_FAILED = new FetchResult(SC_BAD_GATEWAY, "Bad Gateway");
+    private static final FetchResult CACHED = new FetchResult(SC_OK, "OK");
+    private final SingleFlight<File, FetchResult> inFlight = new SingleFlight<>();
+    private File cacheBase;
+    private AsyncLog logger;
+    private RateLimitGovernor rateLimitGovernor;
+    private Pattern priorityPattern;
+    private CacheResolver cacheResolver;
+    private UpstreamClient upstreamClient;
+    private CacheStorage storage;
+    private MemoryCache memoryCache;
+    private NegativeCache negativeCache;
+    private CacheJanitor cacheJanitor;
+    private MetadataIndex metadataIndex;
+    private ExecutorService asyncExecutor;
+    private ExecutorService revalidationExecutor;
+    private Prefetcher prefetcher;
+    private ImageVariants imageVariants;
+    private ContentNegotiator contentNegotiator;
+    private PeerCache peerCache;
+    private Metrics metrics;
+    private ObjectName metricsName;
+
+    private static String stripTrailingSlash(String s) {
+        if (s == null) return null;
+        else while (s.endsWith("/")) { s = s.substring(0, s.length()-1); }
+        return s;
+    }
+
+    @Override
+    public void init() throws ServletException {
+        this.logger = new AsyncLog(LOG_LEVEL, LOG_BUFFER_SIZE, LOG_ACCESS_SAMPLE, new AsyncLog.Sink() {
+            @Override
+            public void write(final String message, final Throwable thrown) {
+                if (thrown == null) log(message);
+                else log(message, thrown);
+            }
+        });
+        this.logger.start();
+        if (USER_AGENT == null) {
+            throw new ServletException("Configuration error. System property http.agent=... must be set.");
+        }
+        if (CACHE_BASE == null) {
+            throw new ServletException("Configuration error. System property cache.base must be set.");
+        }
+        if (TARGET_BASE == null) {
+            throw new ServletException("Configuration error. System property target.base must be set.");
+        }
+        switch (RESOLVER) {
+            case "discogs": cacheResolver = new DiscogsImageCacheResolver(); break;
+            case "straight":
+            default: cacheResolver = new StraightCacheResolver();
+        }
+        logger.info("Using " + cacheResolver.getClass().getSimpleName() + " as cache resolver. To change this, set the System property -Dresolver=(straight|discogs).");
+        try {
+            upstreamClient = (UpstreamClient) Class.forName(UPSTREAM_CLIENT).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new ServletException("Configuration error. Failed to create upstream.client " + UPSTREAM_CLIENT, e);
+        }
+        upstreamClient.setTargetBase(TARGET_BASE);
+        logger.info("Using " + upstreamClient + " to fetch resources. To change this, set the System property -Dupstream.client=...");
+
+        if (RESOLVER_CACHE_SIZE > 0) {
+            cacheResolver = new MemoizingCacheResolver(cacheResolver, RESOLVER_CACHE_SIZE);
+        }
+
+        final FileSender fileSender = new FileSender(MAPPED_CACHE_SIZE, MAPPED_MAX_FILE_SIZE);
+        if (MAPPED_CACHE_SIZE > 0) {
+            logger.info("Memory-mapping files up to " + MAPPED_MAX_FILE_SIZE + " bytes, using at most " + MAPPED_CACHE_SIZE + " bytes.");
+        }
+
+        this.rateLimitGovernor = new RateLimitGovernor(RATELIMIT_RESERVE, RATELIMIT_PREFETCH_RESERVE, RATELIMIT_BURST);
+        if (RATELIMIT_PRIORITY_PATTERN != null) {
+            this.priorityPattern = Pattern.compile(RATELIMIT_PRIORITY_PATTERN);
+        }
+
+        this.metrics = new Metrics(RESOLVER, upstreamClient, rateLimitGovernor);
+        getServletContext().setAttribute(Metrics.class.getName(), metrics);
+        if (METRICS_JMX) {
+            try {
+                final ObjectName name = new ObjectName("com.tagtraum.coxy:type=Metrics,name="
+                        + ObjectName.quote(getServletName() != null ? getServletName() : "coxy"));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+                this.metricsName = name;
+                logger.info("Registered metrics as MBean {}", name);
+            } catch (JMException e) {
+                logger.warn("Failed to register metrics MBean: {}", e.toString());
+            }
+        }
+
+        if (ASYNC) {
+            this.asyncExecutor = createAsyncExecutor();
+        }
+
+        if (isStaleWhileRevalidate()) {
+            this.revalidationExecutor = new ThreadPoolExecutor(REVALIDATE_THREADS, REVALIDATE_THREADS, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(REVALIDATE_QUEUE_SIZE), createThreadFactory("coxy-revalidate-"));
+            logger.info("Serving stale files while revalidating them in the background using " + REVALIDATE_THREADS + " threads.");
+        }
+
+        if (MEMORY_CACHE_SIZE > 0) {
+            this.memoryCache = new MemoryCache(MEMORY_CACHE_SIZE);
+            logger.info("Keeping files up to " + MEMORY_MAX_OBJECT_SIZE + " bytes in memory, using at most " + MEMORY_CACHE_SIZE + " bytes.");
+        }
+
+        if (NEGATIVE_CACHE_SIZE > 0) {
+            this.negativeCache = new NegativeCache(NEGATIVE_CACHE_SIZE, NEGATIVE_TTL_NOTFOUND, NEGATIVE_TTL_ERROR, NEGATIVE_PERSISTENT);
+            logger.info("Remembering up to " + NEGATIVE_CACHE_SIZE + " failed fetches" + (NEGATIVE_PERSISTENT ? " (persistent)" : "") + ".");
+        }
+
+        try {
+            this.cacheBase = new File(CACHE_BASE).getCanonicalFile();
+            this.cacheResolver.setCacheBase(cacheBase);
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+
+        switch (STORAGE) {
+            case "segment":
+                final SegmentCacheStorage segmentStorage = new SegmentCacheStorage(cacheBase, new File(cacheBase, ".coxy-segments"),
+                        SEGMENT_SIZE, SEGMENT_MAX_OBJECT_SIZE, SEGMENT_MAPPED, SEGMENT_COMPACT_THRESHOLD,
+                        fileSender, new FileCacheStorage(fileSender));
+                try {
+                    segmentStorage.open();
+                } catch (IOException e) {
+                    throw new ServletException("Failed to open segments in " + cacheBase, e);
+                }
+                segmentStorage.start(SEGMENT_COMPACT_INTERVAL);
+                this.storage = segmentStorage;
+                break;
+            case "dedup":
+                final DedupCacheStorage dedupStorage = new DedupCacheStorage(fileSender, new File(cacheBase, ".coxy-blobs"));
+                try {
+                    dedupStorage.open();
+                } catch (IOException e) {
+                    throw new ServletException("Failed to open blobs in " + cacheBase, e);
+                }
+                dedupStorage.start(DEDUP_COLLECT_INTERVAL);
+                this.storage = dedupStorage;
+                break;
+            case "file":
+            default: this.storage = new FileCacheStorage(fileSender);
+        }
+        logger.info("Using {}. To change this, set the System property -Dstorage=(file|segment|dedup).", storage);
+        // every resource is a regular file in cache.base
+        final boolean fileStorage = storage instanceof FileCacheStorage;
+        // ... that does not share its disk space with others
+        final boolean plainFileStorage = storage.getClass() == FileCacheStorage.class;
+        if (!fileStorage && METADATA_INDEX) {
+            logger.warn("metadata.index is ignored for storage={}.", STORAGE);
+        }
+        if (!plainFileStorage && (CACHE_MAX_BYTES > 0 || CACHE_MAX_FILES > 0)) {
+            logger.warn("cache.max.bytes and cache.max.files are ignored for storage={}.", STORAGE);
+        }
+
+        if (METADATA_INDEX && fileStorage) {
+            this.metadataIndex = new MetadataIndex(cacheBase, new File(cacheBase, ".coxy-index"));
+            this.metadataIndex.start();
+            logger.info("Loading metadata index for " + cacheBase + " in the background.");
+        }
+
+        if ((CACHE_MAX_BYTES > 0 || CACHE_MAX_FILES > 0) && plainFileStorage) {
+            this.cacheJanitor = new CacheJanitor(cacheBase, CACHE_MAX_BYTES, CACHE_MAX_FILES, JANITOR_BATCH_SIZE, JANITOR_MAX_TRACKED);
+            this.cacheJanitor.setMetadataIndex(metadataIndex);
+            this.cacheJanitor.setMemoryCache(memoryCache);
+            this.cacheJanitor.start(JANITOR_INTERVAL);
+            logger.info("Limiting " + cacheBase + " to " + (CACHE_MAX_BYTES > 0 ? CACHE_MAX_BYTES + " bytes" : "unlimited bytes")
+                    + " and " + (CACHE_MAX_FILES > 0 ? CACHE_MAX_FILES + " files" : "unlimited files") + ".");
+        }
+
+        if (VARIANTS) {
+            this.imageVariants = new ImageVariants(VARIANT_THREADS, VARIANT_QUEUE_SIZE);
+            logger.info("Deriving image variants from cached masters using " + VARIANT_THREADS + " threads.");
+        }
+
+        if (PRECOMPRESS || WEBP) {
+            this.contentNegotiator = new ContentNegotiator(storage, PRECOMPRESS, WEBP, ENCODER_THREADS, ENCODER_QUEUE_SIZE);
+            this.contentNegotiator.setMetadataIndex(metadataIndex);
+            if (WEBP && !contentNegotiator.isWebp()) {
+                logger.warn("No ImageIO writer for {} installed. Not offering WebP.", ContentNegotiator.Alternative.WEBP.getContentType());
+            }
+            logger.info("Negotiating alternative representations using " + ENCODER_THREADS + " threads. " + contentNegotiator);
+        }
+
+        if (PEERS != null && !PEERS.trim().isEmpty()) {
+            if (PEER_SELF == null) {
+                throw new ServletException("Configuration error. System property peer.self must be set, when using peers.");
+            }
+            final List<String> peers = new ArrayList<>();
+            final List<UpstreamClient> peerClients = new ArrayList<>();
+            for (final String peer : PEERS.split(",")) {
+                if (peer.trim().isEmpty()) continue;
+                final UpstreamClient peerClient = new HttpUpstreamClient(PEER_TIMEOUT, PEER_TIMEOUT, PEER_MAX_INFLIGHT, 0L);
+                peerClient.setTargetBase(stripTrailingSlash(peer.trim()));
+                peers.add(peerClient.getTargetBase());
+                peerClients.add(peerClient);
+            }
+            this.peerCache = new PeerCache(stripTrailingSlash(PEER_SELF.trim()), peers, PEER_VIRTUAL_NODES, peerClients);
+            this.peerCache.start(PEER_HEALTH_INTERVAL);
+            logger.info("Asking peers " + peers + " before fetching from target. " + peerCache);
+        }
+
+        if (PREFETCH) {
+            final PrefetchQueue prefetchQueue = new PrefetchQueue(new File(cacheBase, ".coxy-prefetch"), PREFETCH_QUEUE_SIZE);
+            try {
+                prefetchQueue.load();
+            } catch (IOException e) {
+                throw new ServletException("Failed to load prefetch queue.", e);
+            }
+            this.prefetcher = new Prefetcher(prefetchQueue, new Prefetcher.Fetcher() {
+                @Override
+                public boolean isNeeded(final String path) throws IOException {
+                    return toPrefetchFile(path) != null;
+                }
+
+                @Override
+                public long tryAcquire() {
+                    // live misses go first
+                    if (upstreamClient.getInFlight() >= PREFETCH_MAX_INFLIGHT) return PREFETCH_BACKOFF;
+                    if (!rateLimitGovernor.tryAcquire(RateLimitGovernor.Priority.LOW)) {
+                        return Math.max(PREFETCH_BACKOFF, rateLimitGovernor.getWaitMillis(RateLimitGovernor.Priority.LOW));
+                    }
+                    return 0;
+                }
+
+                @Override
+                public boolean prefetchWithoutPermit(final String path) throws IOException {
+                    return CoxyServlet.this.prefetchWithoutPermit(path);
+                }
+
+                @Override
+                public void prefetch(final String path) throws IOException {
+                    CoxyServlet.this.prefetch(path);
+                }
+            });
+            this.prefetcher.start(PREFETCH_THREADS);
+            getServletContext().setAttribute(Prefetcher.class.getName(), prefetcher);
+            logger.info("Prefetching using " + PREFETCH_THREADS + " threads. " + prefetcher);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (prefetcher != null) {
+            logger.info("Shutting down " + prefetcher);
+            getServletContext().removeAttribute(Prefetcher.class.getName());
+            prefetcher.close();
+        }
+        if (memoryCache != null) {
+            logger.info("Shutting down " + memoryCache);
+        }
+        if (negativeCache != null) {
+            logger.info("Shutting down " + negativeCache);
+        }
+        if (cacheJanitor != null) {
+            logger.info("Shutting down " + cacheJanitor);
+            cacheJanitor.close();
+        }
+        if (metadataIndex != null) {
+            logger.info("Shutting down " + metadataIndex);
+            metadataIndex.close();
+        }
+        if (revalidationExecutor != null) {
+            revalidationExecutor.shutdownNow();
+        }
+        if (imageVariants != null) {
+            logger.info("Shutting down " + imageVariants);
+            imageVariants.close();
+        }
+        if (contentNegotiator != null) {
+            logger.info("Shutting down " + contentNegotiator);
+            contentNegotiator.close();
+        }
+        if (peerCache != null) {
+            logger.info("Shutting down " + peerCache);
+            peerCache.close();
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            try {
+                asyncExecutor.awaitTermination(ASYNC_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (metrics != null) {
+            logger.info("Shutting down {}", metrics);
+            getServletContext().removeAttribute(Metrics.class.getName());
+        }
+        if (storage != null) {
+            logger.info("Shutting down {}", storage);
+            storage.close();
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        if (upstreamClient != null) {
+            upstreamClient.close();
+        }
+        if (logger != null) {
+            logger.close();
+        }
+        super.destroy();
+    }
+
+    /**
+     * In-memory cache in front of the filesystem cache.
+     *
+     * @return memory cache or {@code null}, if not enabled
+     */
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Janitor keeping {@code cache.base} within its quota.
+     *
+     * @return janitor or {@code null}, if no quota is set
+     */
+    public CacheJanitor getCacheJanitor() {
+        return cacheJanitor;
+    }
+
+    /**
+     * Index of the files in {@code cache.base}.
+     *
+     * @return index or {@code null}, if not enabled
+     */
+    public MetadataIndex getMetadataIndex() {
+        return metadataIndex;
+    }
+
+    /**
+     * Prefetcher filling the cache in the background.
+     *
+     * @return prefetcher or {@code null}, if not enabled
+     */
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Cache for failed fetches.
+     *
+     * @return negative cache or {@code null}, if not enabled
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Peers asked before fetching from the target server.
+     *
+     * @return peer cache or {@code null}, if there are no peers
+     */
+    public PeerCache getPeerCache() {
+        return peerCache;
+    }
+
+    /**
+     * Renders image variants.
+     *
+     * @return image variants or {@code null}, if variants are not derived locally
+     */
+    public ImageVariants getImageVariants() {
+        return imageVariants;
+    }
+
+    /**
+     * Encodes and selects alternative representations of cached files.
+     *
+     * @return content negotiator or {@code null}, if only the cached files themselves are sent
+     */
+    public ContentNegotiator getContentNegotiator() {
+        return contentNegotiator;
+    }
+
+    /**
+     * Storage for cached resources.
+     *
+     * @return storage
+     */
+    public CacheStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Counters and histograms.
+     *
+     * @return metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Log.
+     *
+     * @return log
+     */
+    public AsyncLog getLogger() {
+        return logger;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        if (peerCache != null && PeerCache.HEALTH_PATH.equals(req.getPathInfo())) {
+            resp.setStatus(SC_NO_CONTENT);
+            return;
+        }
+        final long start = System.nanoTime();
+        final boolean sampled = logger.isAccessSampled();
+        Metrics.Outcome outcome = Metrics.Outcome.ERROR;
+        try {
+            outcome = serve(req, resp, start, sampled);
+        } finally {
+            // asynchronously handled requests are recorded, once they are done
+            if (outcome != null) {
+                final long nanos = System.nanoTime() - start;
+                metrics.recordRequest(outcome, nanos);
+                if (sampled) {
+                    logger.access(req.getRemoteAddr(), req.getPathInfo(), resp.getStatus(), nanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a {@code GET} request.
+     *
+     * @param req request
+     * @param resp response
+     * @param start {@link System#nanoTime()} at which the request arrived
+     * @param sampled whether the request is logged to the access log
+     * @return outcome or {@code null}, if the request is handled asynchronously
+     * @throws IOException if something goes wrong
+     */
+    private Metrics.Outcome serve(final HttpServletRequest req, final HttpServletResponse resp, final long start,
+                                  final boolean sampled) throws IOException {
+        final String path = req.getPathInfo();
+        if (path == null || path.length()==0 || path.contains("..")) {
+            resp.setStatus(SC_BAD_REQUEST);
+            return Metrics.Outcome.ERROR;
+        }
+        if (memoryCache != null) {
+            final MemoryCache.Entry entry = memoryCache.get(path);
+            if (entry != null && !isStale(entry.getLastModified()) && !isAlternativeAccepted(req, entry.getContentType())) {
+                if (cacheJanitor != null && entry.getFile() != null) {
+                    cacheJanitor.touch(entry.getFile());
+                }
+                addVary(resp, entry.getContentType());
+                sendEntry(req, resp, entry);
+                return Metrics.Outcome.HIT;
+            }
+        }
+        final File file = resolve(path);
+        final BasicFileAttributes attributes = lookupAttributes(file);
+        logger.debug("Request {} mapped to file {}, exists={}.", path, file, attributes != null);
+        if (!isInside(file, cacheBase) || isHidden(file, cacheBase)) {
+            resp.setStatus(SC_FORBIDDEN);
+            logger.warn("Attempt to access resource outside of cache.base {} or hidden file by {}: {}", cacheBase, req.getRemoteAddr(), file);
+            return Metrics.Outcome.ERROR;
+        }
+        final boolean fresh = attributes != null && attributes.isRegularFile() && !isStale(attributes.lastModifiedTime().toMillis());
+        if (fresh && sendCachedFile(req, resp, path, file, attributes)) {
+            return Metrics.Outcome.HIT;
+        }
+        final boolean stale = attributes != null && attributes.isRegularFile() && !fresh;
+        if (stale && revalidationExecutor != null) {
+            resp.addHeader("Warning", "110 - \"Response is Stale\"");
+            if (sendCachedFile(req, resp, path, file, attributes)) {
+                revalidateInBackground(path, file, attributes);
+                return Metrics.Outcome.STALE;
+            }
+        }
+        if (sendNegative(resp, file)) {
+            logger.debug("Request {} answered from negative cache.", path);
+            return Metrics.Outcome.ERROR;
+        } else if (isRateLimitHit() && !isDerivable(path, file) && !isOwnedByPeer(req, path)) {
+            if (sendStaleIfError(req, resp, path, file)) return Metrics.Outcome.STALE;
+            sendServiceUnavailable(resp, rateLimitGovernor.getResetTimeMillis() - System.currentTimeMillis());
+            return Metrics.Outcome.ERROR;
+        } else if (asyncExecutor != null && req.isAsyncSupported()) {
+            handleMissAsync(req, path, file, start, sampled);
+            return null;
+        } else {
+            handleMiss(req, path, file, resp);
+        }
+        return resp.getStatus() >= SC_BAD_REQUEST ? Metrics.Outcome.ERROR : Metrics.Outcome.MISS;
+    }
+
+    /**
+     * Handles a cache miss without blocking the container thread. The request is suspended
+     * and resumed, once the resource has been fetched on the {@link #asyncExecutor}.
+     * Its outcome is recorded, once the request is done.
+     *
+     * @param req servlet request
+     * @param path path info
+     * @param file file the resource is cached in
+     * @param start {@link System#nanoTime()} at which the request arrived
+     * @param sampled whether the request is logged to the access log
+     */
+    private void handleMissAsync(final HttpServletRequest req, final String path, final File file, final long start,
+                                 final boolean sampled) {
+        final AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(ASYNC_TIMEOUT);
+        final AsyncResponse resp = new AsyncResponse((HttpServletResponse) asyncContext.getResponse());
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(final AsyncEvent event) throws IOException {
+                if (!resp.finish()) return;
+                metrics.recordRequest(Metrics.Outcome.ERROR, System.nanoTime() - start);
+                logger.warn("Timed out handling request for {} after {} ms.", path, ASYNC_TIMEOUT);
+                final HttpServletResponse response = (HttpServletResponse) resp.getResponse();
+                if (!response.isCommitted()) {
+                    response.reset();
+                    sendErrorPage(response, SC_GATEWAY_TIMEOUT, "Gateway Timeout");
+                }
+                event.getAsyncContext().complete();
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                if (!resp.finish()) return;
+                metrics.recordRequest(Metrics.Outcome.ERROR, System.nanoTime() - start);
+                try {
+                    event.getAsyncContext().complete();
+                } catch (IllegalStateException e) {
+                    // already completed by the container
+                }
+            }
+
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                // a late worker must not touch the recycled response
+                resp.finish();
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+            }
+        });
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                final HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+                boolean failed = true;
+                try {
+                    handleMiss(request, path, file, resp);
+                    failed = false;
+                } catch (Exception e) {
+                    if (resp.isFinished()) {
+                        logger.debug("Request for {} finished before we were done: {}", path, e.toString());
+                    } else {
+                        logger.error("Failed to handle request for {}", path, e);
+                    }
+                    if (!resp.isCommitted()) {
+                        resp.reset();
+                        resp.setStatus(SC_BAD_GATEWAY);
+                    }
+                } finally {
+                    // unless the container got there first, e.g. because we timed out
+                    if (resp.finish()) {
+                        final long nanos = System.nanoTime() - start;
+                        metrics.recordRequest(failed || resp.getStatus() >= SC_BAD_REQUEST
+                                ? Metrics.Outcome.ERROR : Metrics.Outcome.MISS, nanos);
+                        if (sampled) {
+                            logger.access(request.getRemoteAddr(), path, resp.getStatus(), nanos);
+                        }
+                        asyncContext.complete();
+                    }
+                }
+            }
+        };
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shutting down, do it ourselves
+            task.run();
+        }
+    }
+
+    /**
+     * Handles a cache miss by fetching the resource from the target server, unless
+     * another request for the same file is already doing so. In that case we wait for it
+     * to finish.
+     *
+     * @param req servlet request
+     * @param path path info
+     * @param file file the resource is cached in
+     * @param resp servlet response
+     * @throws IOException if something goes wrong
+     */
+    private void handleMiss(final HttpServletRequest req, final String path, final File file,
+                            final HttpServletResponse resp) throws IOException {
+        final SingleFlight<File, FetchResult>.Flight flight = inFlight.join(file);
+        if (flight.isLeader()) {
+            FetchResult result = FETCH_FAILED;
+            try {
+                result = derive(req, path, file, resp);
+                if (result == null) {
+                    result = fetch(req, path, file, resp);
+                }
+            } finally {
+                flight.land(result);
+            }
+        } else {
+            final FetchResult result = awaitFetch(flight);
+            final BasicFileAttributes fetchedAttributes;
+            if (result == null) {
+                logger.warn("Timed out waiting for concurrent fetch of resource {} or it gave up. Fetching it ourselves.", path);
+                fetch(req, path, file, resp);
+            } else if (result.statusCode == SC_OK && (fetchedAttributes = lookupAttributes(file)) != null) {
+                sendFile(req, resp, path, file, fetchedAttributes);
+            } else {
+                sendErrorPage(resp, result.statusCode, result.message);
+            }
+        }
+    }
+
+    /**
+     * Resolves the path to the file the resource is cached in. If {@link #imageVariants} are
+     * derived locally and the path asks for a specific size, this is the variant's file next to
+     * the master.
+     *
+     * @param path path info
+     * @return file
+     * @throws IOException if we cannot resolve the path
+     */
+    private File resolve(final String path) throws IOException {
+        final File master = cacheResolver.resolve(path);
+        if (imageVariants == null) return master;
+        final ImageVariants.Variant variant = ImageVariants.parse(path);
+        return variant != null ? ImageVariants.toFile(master, variant) : master;
+    }
+
+    /**
+     * Indicates whether the given file is a variant that we may be able to derive
+     * from a cached master, i.e. without asking the target server.
+     *
+     * @param path path info
+     * @param file file the variant is cached in
+     * @return true, if a master exists
+     * @throws IOException if something goes wrong
+     */
+    private boolean isDerivable(final String path, final File file) throws IOException {
+        if (imageVariants == null) return false;
+        final File master = cacheResolver.resolve(path);
+        return !master.equals(file) && lookupAttributes(master) != null;
+    }
+
+    /**
+     * Indicates whether a miss for the given path would first be fetched from another peer.
+     *
+     * @param req servlet request or {@code null}, when prefetching
+     * @param path path info
+     * @return true, if another peer owns the path
+     */
+    private boolean isOwnedByPeer(final HttpServletRequest req, final String path) {
+        return peerCache != null && (req == null || req.getHeader(PeerCache.PEER_HEADER) == null) && peerCache.getOwner(path) != null;
+    }
+
+    /**
+     * Derives the requested variant from a cached master, stores it and sends it to the client.
+     *
+     * @param req servlet request
+     * @param path path info
+     * @param file file to store the variant in
+     * @param resp servlet response
+     * @return result or {@code null}, if the variant cannot be derived and must be fetched
+     * @throws IOException if something goes wrong
+     */
+    private FetchResult derive(final HttpServletRequest req, final String path, final File file,
+                               final HttpServletResponse resp) throws IOException {
+        final BasicFileAttributes attributes = deriveAndStore(path, file);
+        if (attributes == null) return null;
+        sendFile(req, resp, path, file, attributes);
+        return CACHED;
+    }
+
+    /**
+     * Derives the requested variant from a cached master and stores it.
+     *
+     * @param path path info
+     * @param file file to store the variant in
+     * @return attributes of the stored variant or {@code null}, if the variant cannot be derived and must be fetched
+     * @throws IOException if something goes wrong
+     */
+    private BasicFileAttributes deriveAndStore(final String path, final File file) throws IOException {
+        if (imageVariants == null) return null;
+        final File master = cacheResolver.resolve(path);
+        if (master.equals(file)) return null;
+        final ImageVariants.Variant variant = ImageVariants.parse(path);
+        final BasicFileAttributes masterAttributes = lookupAttributes(master);
+        if (variant == null || masterAttributes == null || !masterAttributes.isRegularFile()) return null;
+        final byte[] bytes;
+        try {
+            bytes = imageVariants.derive(storage.read(master, masterAttributes), getExtension(master), variant, VARIANT_TIMEOUT);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (bytes == null) {
+            logger.debug("Failed to derive {} from {}", file, master);
+            return null;
+        }
+        logger.debug("Derived {} from {}", file, master);
+        // a variant is as fresh as its master
+        final long lastModified = masterAttributes.lastModifiedTime().toMillis();
+        storage.store(file, new ByteArrayInputStream(bytes), bytes.length, lastModified, null);
+        if (metadataIndex != null) {
+            metadataIndex.put(file, bytes.length, lastModified, null, null, null);
+        }
+        if (negativeCache != null) {
+            negativeCache.remove(file);
+        }
+        return storage.readAttributes(file);
+    }
+
+    /**
+     * Makes a variant fetched from the target server the master for other variants,
+     * if there is no master yet or the variant is larger than the current master.
+     * Only uncropped variants in the master's format qualify, as the master is also
+     * served as is.
+     *
+     * @param path path info
+     * @param file file the variant was stored in
+     * @throws IOException if something goes wrong
+     */
+    private void promoteInBackground(final String path, final File file) throws IOException {
+        if (imageVariants == null) return;
+        final File master = cacheResolver.resolve(path);
+        if (master.equals(file)) return;
+        final ImageVariants.Variant variant = ImageVariants.parse(path);
+        if (variant == null || variant.isCropped()
+                || variant.getFormat() != null && !ImageVariants.isSameFormat(variant.getFormat(), getExtension(master))) {
+            return;
+        }
+        imageVariants.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final BasicFileAttributes attributes = storage.readAttributes(file);
+                    if (attributes == null) return;
+                    final byte[] bytes = storage.read(file, attributes);
+                    final BasicFileAttributes masterAttributes = storage.readAttributes(master);
+                    if (masterAttributes != null
+                            && ImageVariants.getPixels(bytes) <= ImageVariants.getPixels(storage.read(master, masterAttributes))) {
+                        return;
+                    }
+                    final long lastModified = attributes.lastModifiedTime().toMillis();
+                    storage.store(master, new ByteArrayInputStream(bytes), bytes.length, lastModified, null);
+                    if (metadataIndex != null) {
+                        metadataIndex.put(master, bytes.length, lastModified, null, null, null);
+                    }
+                    logger.debug("Promoted {} to master {}", file, master);
+                } catch (IOException e) {
+                    logger.warn("Failed to promote {} to master: {}", file, e.toString());
+                }
+            }
+        });
+    }
+
+    private static String getExtension(final File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase() : null;
+    }
+
+    /**
+     * Creates the executor for asynchronous request handling. Uses virtual threads, if
+     * available and not disabled via {@code -Dasync.virtual=false}, and a fixed
+     * pool of {@code async.threads} threads otherwise.
+     *
+     * @return executor
+     */
+    private ExecutorService createAsyncExecutor() {
+        if (ASYNC_VIRTUAL) {
+            try {
+                final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.info("Handling cache misses asynchronously using virtual threads.");
+                return executor;
+            } catch (Exception e) {
+                // not available
+            }
+        }
+        logger.info("Handling cache misses asynchronously using " + ASYNC_THREADS + " threads.");
+        return Executors.newFixedThreadPool(ASYNC_THREADS, createThreadFactory("coxy-async-"));
+    }
+
+    /**
+     * Creates a factory for numbered daemon threads.
+     *
+     * @param prefix thread name prefix
+     * @return thread factory
+     */
+    private static ThreadFactory createThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Indicates whether the given file or one of its parent directories below the given directory
+     * is hidden, i.e. its name starts with a dot. We keep our own data in such files, e.g. the
+     * metadata index or segments.
+     *
+     * @param file file inside the directory
+     * @param directory directory
+     * @return true, if hidden
+     */
+    private static boolean isHidden(final File file, final File directory) {
+        return file.getPath().indexOf(File.separatorChar + ".", Math.max(0, directory.getPath().length() - 1)) >= 0;
+    }
+
+    /**
+     * Indicates whether the given file is located inside the given directory.
+     * Both must be absolute and normalized.
+     *
+     * @param file file
+     * @param directory directory
+     * @return true, if the file is inside the directory
+     */
+    private static boolean isInside(final File file, final File directory) {
+        final String filePath = file.getPath();
+        final String directoryPath = directory.getPath();
+        if (!filePath.startsWith(directoryPath)) return false;
+        // make sure that /cache/base2/... is not considered to be inside of /cache/base
+        return directoryPath.endsWith(File.separator)
+                || filePath.length() > directoryPath.length() && filePath.charAt(directoryPath.length()) == File.separatorChar;
+    }
+
+    /**
+     * Waits for another request to finish fetching the same resource.
+     *
+     * @param flight flight we are following
+     * @return the leader's result or {@code null}, if we timed out
+     */
+    private FetchResult awaitFetch(final SingleFlight<File, FetchResult>.Flight flight) {
+        try {
+            return flight.await(COALESCE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the resource from the peer owning it or the target server, stores it in the cache
+     * and sends it to the client.
+     *
+     * @param req servlet request
+     * @param path path info
+     * @param file file to store the resource in
+     * @param resp servlet response
+     * @return result of the fetch
+     * @throws IOException if something goes wrong
+     */
+    private FetchResult fetch(final HttpServletRequest req, final String path, final File file,
+                              final HttpServletResponse resp) throws IOException {
+        if (isOwnedByPeer(req, path)) {
+            final UpstreamResponse response = peerCache.fetch(path);
+            if (response != null) {
+                logger.debug("Fetched resource {} from peer.", path);
+                return handleResponse(req, path, file, resp, response);
+            }
+        }
+        final RateLimitGovernor.Priority priority = getPriority(path);
+        if (!rateLimitGovernor.tryAcquire(priority)) {
+            if (sendStaleIfError(req, resp, path, file)) return CACHED;
+            sendServiceUnavailable(resp, rateLimitGovernor.getWaitMillis(priority));
+            return new FetchResult(SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+        }
+        final UpstreamResponse response;
+        try {
+            response = getAuthProtectedResource(path);
+        } catch (UpstreamBusyException e) {
+            logger.warn("Target server busy: {}", e.getMessage());
+            if (sendStaleIfError(req, resp, path, file)) return CACHED;
+            resp.addHeader("Retry-After", "1");
+            sendErrorPage(resp, SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+            return new FetchResult(SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+        } catch (IOException e) {
+            logger.warn("Failed to fetch resource {} from target", path, e);
+            if (sendStaleIfError(req, resp, path, file)) return CACHED;
+            throw e;
+        }
+        return handleResponse(req, path, file, resp, response);
+    }
+
+    /**
+     * Stores a resource fetched from the target server (or a peer) in the cache and sends it
+     * to the client. Failures are sent to the client as well.
+     *
+     * @param req servlet request
+     * @param path path info
+     * @param file file to store the resource in
+     * @param resp servlet response
+     * @param response response, is closed
+     * @return result of the fetch
+     * @throws IOException if something goes wrong
+     */
+    private FetchResult handleResponse(final HttpServletRequest req, final String path, final File file,
+                                       final HttpServletResponse resp, final UpstreamResponse response) throws IOException {
+        try {
+            copyRateLimitHeaders(response, resp);
+            updateRateLimit(response);
+            final int statusCode = response.getStatusCode();
+            if (statusCode == SC_OK) {
+                logger.debug("Copying resource {} to {} and client", path, file);
+                final long lastModified = System.currentTimeMillis();
+                final long contentLength = response.getContentLength();
+                addCacheHeaders(resp, lastModified);
+                if (contentLength >= 0) {
+                    setContentLength(resp, contentLength);
+                    resp.setHeader("ETag", createETag(contentLength, lastModified));
+                }
+                final String upstreamContentType = response.getHeader("Content-Type");
+                final String contentType = upstreamContentType != null ? upstreamContentType : getContentType(file);
+                setContentType(resp, contentType);
+                addVary(resp, contentType);
+                final ServletOutputStream out = resp.getOutputStream();
+                final long length = store(response, file, lastModified, out);
+                metrics.addBytesServed(length);
+                out.close();
+                if (metadataIndex != null) {
+                    metadataIndex.put(file, length, lastModified, upstreamContentType,
+                            response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                }
+                if (negativeCache != null) {
+                    negativeCache.remove(file);
+                }
+                promoteInBackground(path, file);
+                encodeInBackground(req, file, contentType);
+            } else {
+                logger.info("Failed to fetch resource {} from target: {}, {}", path, statusCode, rateLimitGovernor);
+                if (statusCode >= SC_INTERNAL_SERVER_ERROR && sendStaleIfError(req, resp, path, file)) return CACHED;
+                if (negativeCache != null) {
+                    negativeCache.put(file, statusCode, response.getStatusMessage());
+                }
+                sendErrorPage(resp, statusCode, response.getStatusMessage());
+            }
+            return new FetchResult(statusCode, response.getStatusMessage());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Revalidates a stale file in the background, unless it's already being revalidated or fetched.
+     *
+     * @param path path info
+     * @param file stale file
+     * @param attributes attributes of the stale file
+     */
+    private void revalidateInBackground(final String path, final File file, final BasicFileAttributes attributes) {
+        final SingleFlight<File, FetchResult>.Flight flight = inFlight.join(file);
+        if (!flight.isLeader()) return;
+        try {
+            revalidationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FetchResult result = CACHED;
+                    try {
+                        result = revalidate(path, file, attributes);
+                    } catch (Exception e) {
+                        logger.warn("Failed to revalidate {}", path, e);
+                    } finally {
+                        flight.land(result);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too much to do, next request will try again
+            flight.land(CACHED);
+        }
+    }
+
+    /**
+     * Asks the target server, whether a stale file is still up-to-date using a conditional request.
+     * If it is ({@code 304 Not Modified}), only the last modified time of the file and its
+     * alternatives is updated.
+     * If it isn't, the file is replaced. If the resource is gone, the file is deleted.
+     *
+     * @param path path info
+     * @param file stale file
+     * @param attributes attributes of the stale file
+     * @return result
+     * @throws IOException if something goes wrong
+     */
+    private FetchResult revalidate(final String path, final File file, final BasicFileAttributes attributes) throws IOException {
+        if (!rateLimitGovernor.tryAcquire(RateLimitGovernor.Priority.NORMAL)) return CACHED;
+        final MetadataIndex.Entry indexEntry = attributes instanceof MetadataIndex.Entry ? (MetadataIndex.Entry) attributes : null;
+        final Map<String, String> headers = new HashMap<>();
+        if (indexEntry != null && indexEntry.getETag() != null) {
+            headers.put("If-None-Match", indexEntry.getETag());
+        }
+        headers.put("If-Modified-Since", indexEntry != null && indexEntry.getUpstreamLastModified() != null
+                ? indexEntry.getUpstreamLastModified()
+                : formatHttpDate(attributes.lastModifiedTime().toMillis()));
+        try (final UpstreamResponse response = fetchUpstream(path, headers)) {
+            updateRateLimit(response);
+            final int statusCode = response.getStatusCode();
+            final long now = System.currentTimeMillis();
+            if (statusCode == SC_NOT_MODIFIED) {
+                logger.debug("Revalidated {}, not modified.", path);
+                storage.setLastModified(file, now);
+                if (contentNegotiator != null) {
+                    contentNegotiator.refresh(file, attributes, now);
+                }
+                if (metadataIndex != null) {
+                    final String eTag = response.getHeader("ETag");
+                    metadataIndex.put(file, attributes.size(), now,
+                            indexEntry != null ? indexEntry.getContentType() : null,
+                            eTag != null ? eTag : indexEntry != null ? indexEntry.getETag() : null,
+                            indexEntry != null ? indexEntry.getUpstreamLastModified() : null);
+                }
+            } else if (statusCode == SC_OK) {
+                logger.debug("Revalidated {}, modified.", path);
+                final long length = store(response, file, now, null);
+                if (metadataIndex != null) {
+                    metadataIndex.put(file, length, now, response.getHeader("Content-Type"),
+                            response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                }
+            } else if (statusCode == SC_NOT_FOUND || statusCode == SC_GONE) {
+                logger.info("Revalidated {}, {}. Deleting {}", path, statusCode, file);
+                storage.delete(file);
+                if (metadataIndex != null) {
+                    metadataIndex.remove(file);
+                }
+                if (negativeCache != null) {
+                    negativeCache.put(file, statusCode, response.getStatusMessage());
+                }
+                if (memoryCache != null) {
+                    memoryCache.remove(path);
+                }
+                return new FetchResult(statusCode, response.getStatusMessage());
+            } else {
+                logger.info("Failed to revalidate {}: {}, {}", path, statusCode, rateLimitGovernor);
+                return CACHED;
+            }
+            if (memoryCache != null) {
+                memoryCache.remove(path);
+            }
+            return CACHED;
+        } catch (UpstreamBusyException e) {
+            return CACHED;
+        }
+    }
+
+    /**
+     * Resolves the file a resource should be prefetched to, unless it's cached already
+     * or known to be missing.
+     *
+     * @param path path info
+     * @return file or {@code null}, if there is nothing to prefetch
+     * @throws IOException if something goes wrong
+     */
+    private File toPrefetchFile(final String path) throws IOException {
+        if (path.length() == 0 || path.contains("..")) return null;
+        final File file = resolve(path);
+        if (!isInside(file, cacheBase) || isHidden(file, cacheBase)) {
+            logger.warn("Refusing to prefetch {} to {}", path, file);
+            return null;
+        }
+        final BasicFileAttributes attributes = lookupAttributes(file);
+        if (attributes != null && attributes.isRegularFile() && !isStale(attributes.lastModifiedTime().toMillis())) return null;
+        if (negativeCache != null && negativeCache.get(file) != null) return null;
+        return file;
+    }
+
+    /**
+     * Prefetches a resource like a live miss would, if that's possible without the target server:
+     * A variant is derived from its cached master, a resource owned by another peer is fetched from it.
+     * Called by the {@link #prefetcher} before it asks for a permit.
+     *
+     * @param path path info
+     * @return true, if there is nothing left to do, false, if the resource must be fetched from the target server
+     * @throws IOException if something goes wrong
+     */
+    private boolean prefetchWithoutPermit(final String path) throws IOException {
+        final File file = toPrefetchFile(path);
+        if (file == null) return true;
+        final boolean derivable = isDerivable(path, file);
+        if (!derivable && !isOwnedByPeer(null, path)) return false;
+        final SingleFlight<File, FetchResult>.Flight flight = inFlight.join(file);
+        if (!flight.isLeader()) return true;
+        // without a result, requests waiting for us fetch it themselves
+        FetchResult result = null;
+        try {
+            if (derivable && deriveAndStore(path, file) != null) {
+                result = CACHED;
+            } else if (isOwnedByPeer(null, path)) {
+                final UpstreamResponse response = peerCache.fetch(path);
+                if (response != null) {
+                    logger.debug("Prefetching resource {} from peer.", path);
+                    result = storePrefetched(path, file, response);
+                }
+            }
+            return result != null;
+        } finally {
+            flight.land(result);
+        }
+    }
+
+    /**
+     * Fetches a resource into the cache without sending it to anybody, unless it's
+     * cached already, known to be missing or currently being fetched.
+     * Called by the {@link #prefetcher}, after it acquired a permit from the {@link #rateLimitGovernor},
+     * which it only asks for resources we {@link #toPrefetchFile(String) need}
+     * and cannot {@link #prefetchWithoutPermit(String) get otherwise}.
+     *
+     * @param path path info
+     * @throws IOException if something goes wrong
+     */
+    private void prefetch(final String path) throws IOException {
+        // check again, somebody may have fetched it while we were waiting for the permit
+        final File file = toPrefetchFile(path);
+        if (file == null) return;
+        final SingleFlight<File, FetchResult>.Flight flight = inFlight.join(file);
+        if (!flight.isLeader()) return;
+        FetchResult result = FETCH_FAILED;
+        try {
+            result = storePrefetched(path, file, getAuthProtectedResource(path));
+        } finally {
+            flight.land(result);
+        }
+    }
+
+    /**
+     * Stores a prefetched resource in the cache or, if it's missing, remembers that.
+     *
+     * @param path path info
+     * @param file file to store the resource in
+     * @param response response from the target server or a peer, is closed
+     * @return result of the fetch
+     * @throws IOException if something goes wrong
+     */
+    private FetchResult storePrefetched(final String path, final File file, final UpstreamResponse response) throws IOException {
+        try {
+            updateRateLimit(response);
+            final int statusCode = response.getStatusCode();
+            if (statusCode == SC_OK) {
+                logger.debug("Prefetching resource {} to {}", path, file);
+                final long lastModified = System.currentTimeMillis();
+                final long length = store(response, file, lastModified, null);
+                if (metadataIndex != null) {
+                    metadataIndex.put(file, length, lastModified, response.getHeader("Content-Type"),
+                            response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                }
+                if (negativeCache != null) {
+                    negativeCache.remove(file);
+                }
+                if (memoryCache != null) {
+                    memoryCache.remove(path);
+                }
+                promoteInBackground(path, file);
+            } else {
+                logger.info("Failed to prefetch resource {} from target: {}, {}", path, statusCode, rateLimitGovernor);
+                if (negativeCache != null) {
+                    negativeCache.put(file, statusCode, response.getStatusMessage());
+                }
+            }
+            return new FetchResult(statusCode, response.getStatusMessage());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Serves a stale copy, if we have one, because we cannot get a fresh one from the target server.
+     *
+     * @param request request
+     * @param response response
+     * @param path path info
+     * @param file file
+     * @return true, if a stale copy was sent
+     * @throws IOException if something goes wrong
+     */
+    private boolean sendStaleIfError(final HttpServletRequest request, final HttpServletResponse response,
+                                     final String path, final File file) throws IOException {
+        if (response.isCommitted()) return false;
+        final BasicFileAttributes attributes = lookupAttributes(file);
+        if (attributes == null || !attributes.isRegularFile()) return false;
+        logger.info("Serving stale copy of {}, because the target server is not available.", path);
+        response.reset();
+        response.addHeader("Warning", "111 - \"Revalidation Failed\"");
+        return sendCachedFile(request, response, path, file, attributes);
+    }
+
+    /**
+     * Updates the {@link #rateLimitGovernor} with the rate limit headers of a response from the target server.
+     *
+     * @param response response
+     */
+    private void updateRateLimit(final UpstreamResponse response) {
+        final int limit = getLimit(response);
+        final int reset = getReset(response);
+        final int remaining = getRemaining(response);
+        rateLimitGovernor.update(limit, remaining, reset);
+        if (remaining == 0 && reset > 0) {
+            logger.warn("Rate limit of {} hit. Next request possible at {}.", limit, new Date(rateLimitGovernor.getResetTimeMillis()));
+        }
+    }
+
+    /**
+     * Formats a date as required by HTTP, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+     *
+     * @param millis ms since 1970
+     * @return formatted date
+     */
+    private static String formatHttpDate(final long millis) {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * Sends a simple HTML error page.
+     *
+     * @param response response
+     * @param statusCode HTTP status code
+     * @param message status message
+     * @throws IOException if something goes wrong
+     */
+    private void sendErrorPage(final HttpServletResponse response, final int statusCode, final String message) throws IOException {
+        response.setStatus(statusCode);
+        final PrintWriter writer = response.getWriter();
+        writer.print("<html><head><title>"
+                + statusCode + " " + message + "</title></head><body><h1>"
+                + statusCode + " " + message + "</h1></body></html>");
+        writer.close();
+    }
+
+    /**
+     * Sends the error page for a recently failed fetch, if the {@link #negativeCache} knows about one.
+     *
+     * @param response response
+     * @param file file the resource would be cached in
+     * @return true, if an error page was sent
+     * @throws IOException if something goes wrong
+     */
+    private boolean sendNegative(final HttpServletResponse response, final File file) throws IOException {
+        if (negativeCache == null) return false;
+        final NegativeCache.Entry entry = negativeCache.get(file);
+        if (entry == null) return false;
+        final long maxAge = Math.max(0, entry.getExpires() - System.currentTimeMillis()) / 1000L;
+        response.addHeader("Cache-Control", "max-age=" + maxAge);
+        sendErrorPage(response, entry.getStatusCode(), entry.getMessage());
+        return true;
+    }
+
+    /**
+     * Indicate to client that the resource is currently unavailable, but will
+     * be available again after a certain time has passed.
+     *
+     * @param response response
+     * @param millisecondsUntilAvailable time until the client may try again
+     */
+    private void sendServiceUnavailable(final HttpServletResponse response, final long millisecondsUntilAvailable) {
+        final long retryAfterMillis = Math.max(1000L, millisecondsUntilAvailable);
+        logger.warn("Proxy service unavailable. Next request possible in {} ms. {}", retryAfterMillis, rateLimitGovernor);
+        final String secondsUntilAvailable = Long.toString((retryAfterMillis + 999L) / 1000L);
+        if (rateLimitGovernor.isExhausted()) {
+            response.addHeader("X-RateLimit-Reset", secondsUntilAvailable);
+            response.addHeader("X-RateLimit-Remaining", "0");
+        }
+        response.addHeader("Retry-After", secondsUntilAvailable);
+        response.setStatus(SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Determines the priority of a request to the target server. Paths matching the
+     * pattern given via {@code -Dratelimit.priority.pattern=...} have high priority.
+     *
+     * @param path path info
+     * @return priority
+     */
+    private RateLimitGovernor.Priority getPriority(final String path) {
+        return priorityPattern != null && priorityPattern.matcher(path).matches()
+                ? RateLimitGovernor.Priority.HIGH
+                : RateLimitGovernor.Priority.NORMAL;
+    }
+
+    /**
+     * Governor for the target server's rate limit.
+     *
+     * @return rate limit governor
+     */
+    public RateLimitGovernor getRateLimitGovernor() {
+        return rateLimitGovernor;
+    }
+
+    /**
+     * Indicates whether we already hit the rate limit or not.
+     *
+     * @return true or false
+     */
+    private boolean isRateLimitHit() {
+        return rateLimitGovernor.isExhausted();
+    }
+
+    /**
+     * Copy those special rate limit headers, so that the client is informed, should he care.
+     *
+     * @param targetResponse targetResponse
+     * @param servletResponse servletResponse
+     */
+    private void copyRateLimitHeaders(final UpstreamResponse targetResponse, final HttpServletResponse servletResponse) {
+        for (final Map.Entry<String, List<String>> e : targetResponse.getHeaderFields().entrySet()) {
+            if (e != null && e.getKey() != null && e.getKey().toLowerCase().startsWith("x-ratelimit-")) {
+                for (final String value : e.getValue()) {
+                    servletResponse.addHeader(e.getKey(), value);
+                }
+            }
+        }
+    }
+
+    /**
+     * An integer representing the number of requests it’s possible to make on this type of resource in a 24 hour period.
+     *
+     * @param response response
+     *
+     * @return limit
+     */
+    private int getLimit(final UpstreamResponse response) {
+        return response.getHeaderInt("X-RateLimit-Limit", -1);
+    }
+
+    /**
+     * An integer representing the number of requests you have remaining.
+     *
+     * @param response response
+     *
+     * @return limit
+     */
+    private int getRemaining(final UpstreamResponse response) {
+        return response.getHeaderInt("X-RateLimit-Remaining", -1);
+    }
+
+    /**
+     * An integer representing the number of seconds left until your "remaining" meter resets.
+     *
+     * @param response response
+     *
+     * @return limit
+     */
+    private int getReset(final UpstreamResponse response) {
+        return response.getHeaderInt("X-RateLimit-Reset", -1);
+    }
+
+    /**
+     * Indicates whether a cached file is considered stale.
+     *
+     * @param lastModified last modified time of the cached file
+     * @return true, if stale
+     */
+    protected boolean isStale(final long lastModified) {
+        return System.currentTimeMillis() - lastModified > ONE_YEAR;
+    }
+
+    /**
+     * Indicates whether stale files are served right away and revalidated in the background.
+     * Otherwise, they are only served, if the target server fails.
+     *
+     * @return true, if stale files are revalidated in the background
+     */
+    protected boolean isStaleWhileRevalidate() {
+        return STALE_WHILE_REVALIDATE;
+    }
+
+    /**
+     * Looks up the attributes of a cached file in the {@link #metadataIndex}, if it's ready,
+     * or else asks the {@link #storage}.
+     *
+     * @param file file
+     * @return attributes or {@code null}, if the file does not exist
+     * @throws IOException if we fail to read the attributes
+     */
+    private BasicFileAttributes lookupAttributes(final File file) throws IOException {
+        if (metadataIndex != null && metadataIndex.isReady()) {
+            return metadataIndex.get(file);
+        }
+        return storage.readAttributes(file);
+    }
+
+    /**
+     * Sends a cached file, unless it turns out that the {@link #metadataIndex} is out of date
+     * or the file was deleted or compacted since we looked it up.
+     *
+     * @param request request
+     * @param response response
+     * @param path path info
+     * @param file file
+     * @param attributes file attributes
+     * @return true, if the file was sent
+     * @throws IOException if something goes wrong
+     */
+    private boolean sendCachedFile(final HttpServletRequest request, final HttpServletResponse response,
+                                   final String path, final File file,
+                                   final BasicFileAttributes attributes) throws IOException {
+        try {
+            sendFile(request, response, path, file, attributes);
+            return true;
+        } catch (NoSuchFileException e) {
+            if (response.isCommitted()) throw e;
+            if (attributes instanceof MetadataIndex.Entry) {
+                logger.info("File {} was deleted behind our back. Removing it from the index.", file);
+                metadataIndex.remove(file);
+            }
+            response.reset();
+            return false;
+        }
+    }
+
+    /**
+     * Fetches the protected resource using the {@link #upstreamClient}, which is configured
+     * with the {@link #TARGET_BASE}. The {@link #USER_AGENT} is set globally.
+     *
+     * @param path path
+     * @return response, must be closed
+     * @throws UpstreamBusyException if too many requests to the target server are in flight
+     */
+    private UpstreamResponse getAuthProtectedResource(final String path) throws IOException {
+        return fetchUpstream(path, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Fetches a resource from the target server and waits for its status code,
+     * recording how long that took.
+     *
+     * @param path path
+     * @param headers additional request headers
+     * @return response, must be closed
+     * @throws UpstreamBusyException if too many requests to the target server are in flight
+     */
+    private UpstreamResponse fetchUpstream(final String path, final Map<String, String> headers) throws IOException {
+        final long start = System.nanoTime();
+        final UpstreamResponse response = upstreamClient.fetch(path, headers);
+        try {
+            response.getStatusCode();
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+        metrics.recordUpstream(System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Writes the body of a response from the target server to the cache,
+     * recording how long that took.
+     *
+     * @param response response
+     * @param file file to write to
+     * @param lastModified last modified time to set
+     * @param client client to also send the body to or {@code null}
+     * @return number of bytes written
+     * @throws IOException if something goes wrong
+     */
+    private long store(final UpstreamResponse response, final File file, final long lastModified,
+                       final OutputStream client) throws IOException {
+        final long start = System.nanoTime();
+        final long length = storage.store(file, response.getInputStream(), response.getContentLength(), lastModified, client);
+        metrics.recordStore(length, System.nanoTime() - start);
+        return length;
+    }
+
+    /**
+     * Sends a cached file, possibly via the {@link #memoryCache}.
+     *
+     * @param request request
+     * @param response response
+     * @param path path info
+     * @param file file
+     * @param attributes file attributes
+     * @throws IOException if something goes wrong
+     */
+    private void sendFile(final HttpServletRequest request, final HttpServletResponse response, final String path,
+                          final File file, final BasicFileAttributes attributes) throws IOException {
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final String contentType = attributes instanceof MetadataIndex.Entry && ((MetadataIndex.Entry) attributes).getContentType() != null
+                ? ((MetadataIndex.Entry) attributes).getContentType()
+                : getContentType(file);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending file {}, size={}, lastModified={}", file, attributes.size(), new Date(lastModified));
+        }
+        if (cacheJanitor != null) {
+            cacheJanitor.touch(file);
+        }
+        if (sendAlternative(request, response, file, attributes, contentType)) {
+            return;
+        }
+        if (memoryCache != null && attributes.size() <= MEMORY_MAX_OBJECT_SIZE) {
+            final MemoryCache.Entry entry = new MemoryCache.Entry(storage.read(file, attributes), contentType, lastModified, file);
+            memoryCache.put(path, entry);
+            sendEntry(request, response, entry);
+            return;
+        }
+        sendContent(request, response, attributes.size(), lastModified, contentType, new Content() {
+            @Override
+            public void write(final OutputStream out, final long position, final long length) throws IOException {
+                storage.send(file, attributes, out, position, length);
+            }
+        });
+    }
+
+    /**
+     * Sends a stored alternative representation of a cached file, if the client accepts it.
+     * If the client accepts it, but there is none yet, it is encoded in the background
+     * for the next request.
+     *
+     * @param request request
+     * @param response response
+     * @param file cached file
+     * @param attributes attributes of the cached file
+     * @param contentType content type of the cached file
+     * @return true, if an alternative was sent
+     * @throws IOException if something goes wrong
+     */
+    private boolean sendAlternative(final HttpServletRequest request, final HttpServletResponse response, final File file,
+                                    final BasicFileAttributes attributes, final String contentType) throws IOException {
+        if (contentNegotiator == null) return false;
+        final ContentNegotiator.Alternative alternative = contentNegotiator.getAlternative(contentType);
+        if (alternative == null) return false;
+        response.addHeader("Vary", alternative.getRequestHeader());
+        if (!alternative.isAcceptedBy(request.getHeader(alternative.getRequestHeader()))) return false;
+        final BasicFileAttributes alternativeAttributes = contentNegotiator.lookup(file, attributes, alternative);
+        if (alternativeAttributes == null) {
+            contentNegotiator.encodeInBackground(file, attributes, alternative);
+            return false;
+        }
+        final File alternativeFile = ContentNegotiator.toFile(file, alternative);
+        if (cacheJanitor != null) {
+            cacheJanitor.touch(alternativeFile);
+        }
+        if (alternative.getContentEncoding() != null) {
+            response.setHeader("Content-Encoding", alternative.getContentEncoding());
+        }
+        try {
+            sendContent(request, response, alternativeAttributes.size(), alternativeAttributes.lastModifiedTime().toMillis(),
+                    alternative.getContentType() != null ? alternative.getContentType() : contentType, new Content() {
+                @Override
+                public void write(final OutputStream out, final long position, final long length) throws IOException {
+                    storage.send(alternativeFile, alternativeAttributes, out, position, length);
+                }
+            });
+            return true;
+        } catch (NoSuchFileException e) {
+            if (response.isCommitted()) throw e;
+            // evicted since we looked it up, send the original instead
+            response.reset();
+            response.addHeader("Vary", alternative.getRequestHeader());
+            return false;
+        }
+    }
+
+    /**
+     * Indicates whether the client accepts an alternative representation we offer
+     * for the given content type.
+     *
+     * @param request request
+     * @param contentType content type or {@code null}
+     * @return true, if there is an acceptable alternative
+     */
+    private boolean isAlternativeAccepted(final HttpServletRequest request, final String contentType) {
+        if (contentNegotiator == null) return false;
+        final ContentNegotiator.Alternative alternative = contentNegotiator.getAlternative(contentType);
+        return alternative != null && alternative.isAcceptedBy(request.getHeader(alternative.getRequestHeader()));
+    }
+
+    /**
+     * Lets caches know that the response depends on a request header,
+     * if we offer an alternative representation for the given content type.
+     *
+     * @param response response
+     * @param contentType content type or {@code null}
+     */
+    private void addVary(final HttpServletResponse response, final String contentType) {
+        if (contentNegotiator == null) return;
+        final ContentNegotiator.Alternative alternative = contentNegotiator.getAlternative(contentType);
+        if (alternative != null) {
+            response.addHeader("Vary", alternative.getRequestHeader());
+        }
+    }
+
+    /**
+     * Encodes an alternative representation of a freshly stored file in the background,
+     * if the client would have accepted it.
+     *
+     * @param request request
+     * @param file stored file
+     * @param contentType content type or {@code null}
+     * @throws IOException if something goes wrong
+     */
+    private void encodeInBackground(final HttpServletRequest request, final File file, final String contentType) throws IOException {
+        if (!isAlternativeAccepted(request, contentType)) return;
+        final BasicFileAttributes attributes = storage.readAttributes(file);
+        if (attributes != null) {
+            contentNegotiator.encodeInBackground(file, attributes, contentNegotiator.getAlternative(contentType));
+        }
+    }
+
+    /**
+     * Sends a resource held in memory.
+     *
+     * @param request request
+     * @param response response
+     * @param entry cached resource
+     * @throws IOException if something goes wrong
+     */
+    private void sendEntry(final HttpServletRequest request, final HttpServletResponse response,
+                           final MemoryCache.Entry entry) throws IOException {
+        sendContent(request, response, entry.getContentLength(), entry.getLastModified(), entry.getContentType(), new Content() {
+            @Override
+            public void write(final OutputStream out, final long position, final long length) throws IOException {
+                out.write(entry.getContent(), (int) position, (int) length);
+            }
+        });
+    }
+
+    /**
+     * Sends a cached resource. Conditional requests ({@code If-None-Match}, {@code If-Modified-Since})
+     * are answered with {@code 304 Not Modified}, range requests ({@code Range}, {@code If-Range})
+     * with {@code 206 Partial Content}.
+     *
+     * @param request request
+     * @param response response
+     * @param size size of the resource
+     * @param lastModified last modified time of the resource
+     * @param contentType content type or {@code null}
+     * @param content content
+     * @throws IOException if something goes wrong
+     */
+    private void sendContent(final HttpServletRequest request, final HttpServletResponse response, final long size,
+                             final long lastModified, final String contentType, final Content content) throws IOException {
+        final String eTag = createETag(size, lastModified);
+        addCacheHeaders(response, lastModified);
+        response.setHeader("ETag", eTag);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (isNotModified(request, eTag, lastModified)) {
+            response.setStatus(SC_NOT_MODIFIED);
+            return;
+        }
+        final List<ByteRange> ranges = getRanges(request, eTag, lastModified, size);
+        if (ranges != null && ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + size);
+            response.setStatus(SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        final ServletOutputStream out;
+        if (ranges == null) {
+            setContentLength(response, size);
+            setContentType(response, contentType);
+            out = response.getOutputStream();
+            content.write(out, 0, size);
+            metrics.addBytesServed(size);
+        } else if (ranges.size() == 1) {
+            final ByteRange range = ranges.get(0);
+            response.setStatus(SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", range.toContentRange(size));
+            setContentLength(response, range.getLength());
+            setContentType(response, contentType);
+            out = response.getOutputStream();
+            content.write(out, range.getFirst(), range.getLength());
+            metrics.addBytesServed(range.getLength());
+        } else {
+            final byte[][] partHeaders = new byte[ranges.size()][];
+            long length = MULTIPART_END.length;
+            for (int i=0; i<partHeaders.length; i++) {
+                final ByteRange range = ranges.get(i);
+                partHeaders[i] = ("\r\n--" + MULTIPART_BOUNDARY + "\r\n"
+                        + (contentType != null ? "Content-Type: " + contentType + "\r\n" : "")
+                        + "Content-Range: " + range.toContentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                length += partHeaders[i].length + range.getLength();
+            }
+            response.setStatus(SC_PARTIAL_CONTENT);
+            setContentLength(response, length);
+            response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+            out = response.getOutputStream();
+            for (int i=0; i<partHeaders.length; i++) {
+                final ByteRange range = ranges.get(i);
+                out.write(partHeaders[i]);
+                content.write(out, range.getFirst(), range.getLength());
+            }
+            out.write(MULTIPART_END);
+            metrics.addBytesServed(length);
+        }
+        out.close();
+    }
+
+    /**
+     * Evaluates {@code If-None-Match} and, if not present, {@code If-Modified-Since}.
+     *
+     * @param request request
+     * @param eTag current ETag
+     * @param lastModified current last modified time
+     * @return true, if the client's copy is still up-to-date
+     */
+    private static boolean isNotModified(final HttpServletRequest request, final String eTag, final long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, eTag, false);
+        }
+        final long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        return ifModifiedSince >= 0 && lastModified / 1000L <= ifModifiedSince / 1000L;
+    }
+
+    /**
+     * Determines the requested ranges, taking {@code If-Range} into account.
+     *
+     * @param request request
+     * @param eTag current ETag
+     * @param lastModified current last modified time
+     * @param size size of the resource
+     * @return ranges, an empty list, if none is satisfiable, or {@code null}, if the whole resource should be sent
+     */
+    private static List<ByteRange> getRanges(final HttpServletRequest request, final String eTag,
+                                             final long lastModified, final long size) {
+        final String range = request.getHeader("Range");
+        if (range == null) return null;
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            final String value = ifRange.trim();
+            if (value.startsWith("\"") || value.startsWith("W/")) {
+                if (!matchesETag(value, eTag, true)) return null;
+            } else if (getDateHeader(request, "If-Range") / 1000L != lastModified / 1000L) {
+                return null;
+            }
+        }
+        return ByteRange.parse(range, size, MAX_RANGES);
+    }
+
+    /**
+     * Checks whether a list of ETags like {@code "a", W/"b"} matches the given ETag.
+     *
+     * @param header header value
+     * @param eTag our (strong) ETag
+     * @param strong if true, use strong comparison, i.e. weak ETags never match
+     * @return true, if it matches
+     */
+    private static boolean matchesETag(final String header, final String eTag, final boolean strong) {
+        int start = 0;
+        while (start < header.length()) {
+            int end = header.indexOf(',', start);
+            if (end < 0) end = header.length();
+            String candidate = header.substring(start, end).trim();
+            start = end + 1;
+            if ("*".equals(candidate)) return true;
+            if (candidate.startsWith("W/")) {
+                if (strong) continue;
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(eTag)) return true;
+        }
+        return false;
+    }
+
+    private static long getDateHeader(final HttpServletRequest request, final String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // malformed
+            return -1;
+        }
+    }
+
+    /**
+     * Strong ETag derived from size and last modified time. Files are always replaced atomically,
+     * so these two identify the content.
+     *
+     * @param size size
+     * @param lastModified last modified time
+     * @return ETag
+     */
+    private static String createETag(final long size, final long lastModified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * Sets the content length, even if it does not fit into an {@code int}.
+     *
+     * @param response response
+     * @param length content length
+     */
+    private static void setContentLength(final HttpServletResponse response, final long length) {
+        if (length <= Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else {
+            response.setHeader("Content-Length", Long.toString(length));
+        }
+    }
+
+    /**
+     * Make sure clients know that they should cache these files.
+     *
+     * @param response response
+     * @param lastModified last modified time of the resource
+     */
+    private void addCacheHeaders(final HttpServletResponse response, final long lastModified) {
+        response.addDateHeader("Last-Modified", lastModified);
+        response.addDateHeader("Expires", System.currentTimeMillis() + ONE_YEAR);
+        response.addHeader("Cache-Control", "max-age=" + ONE_YEAR / 1000L);
+    }
+
+    /**
+     * Sets the content type, if known.
+     *
+     * @param response response
+     * @param mimeType content type or {@code null}
+     */
+    private static void setContentType(final HttpServletResponse response, final String mimeType) {
+        if (mimeType != null) {
+            response.setContentType(mimeType);
+        }
+    }
+
+    /**
+     * Determines the content type based on the file's extension.
+     *
+     * @param file file
+     * @return content type or {@code null}, if the file has no extension
+     */
+    private static String getContentType(final File file) {
+        final String filePath = file.toString();
+        final int i = filePath.lastIndexOf('.');
+        if (i>0) {
+            final String extension = filePath.substring(i+1).toLowerCase();
+            return MIME_TYPES.containsKey(extension) ? MIME_TYPES.getString(extension) : DEFAULT_MIME_TYPE;
+        }
+        return null;
+    }
+
+    /**
+     * Content of a cached resource.
+     */
+    private interface Content {
+
+        /**
+         * Writes a part of the content.
+         *
+         * @param out output
+         * @param position position of the first byte to write
+         * @param length number of bytes to write
+         * @throws IOException if something goes wrong
+         */
+        void write(OutputStream out, long position, long length) throws IOException;
+    }
+
+    /**
+     * Outcome of a fetch from the target server, handed from the fetching request
+     * to all concurrent requests for the same resource.
+     */
+    private static class FetchResult {
+        private final int statusCode;
+        private final String message;
+
+        private FetchResult(final int statusCode, final String message) {
+            this.statusCode = statusCode;
+            this.message = message;
+        }
+    }
+
+}
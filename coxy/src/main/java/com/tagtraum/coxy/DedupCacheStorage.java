@@ -0,0 +1,410 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Stores each resource in the file it was resolved to, just like {@link FileCacheStorage},
+ * but stores identical content only once.
+ * </p>
+ * <p>
+ * While a resource is written, its SHA-256 hash is computed on the fly. Once complete, the file
+ * becomes a hard link to a blob named after the hash, e.g.
+ * {@code .coxy-blobs/3a/7b/3a7b...}. If such a blob already exists, the freshly written copy is
+ * dropped and the resolved file is linked to the existing blob instead. Since resolved files
+ * remain regular files, everything reading them (including NGINX) works as before, while
+ * duplicates occupy disk space and page cache only once.
+ * </p>
+ * <p>
+ * All links to a blob share the same last modified time, i.e. the time the content was first
+ * fetched. Neither storing a duplicate nor {@link #setLastModified(File, long) revalidating} one of
+ * the links changes it, so that the other links keep their {@code ETag}s. Instead, the time each
+ * resource was fetched is kept in a small {@link MetadataIndex} next to the blobs, whenever it differs
+ * from the blob's, and reported by {@link #readAttributes(File)}. Call {@link #open()} to load it.
+ * Programs reading the files directly, e.g. NGINX, still see the blob's time.
+ * </p>
+ * <p>
+ * Blobs no longer linked to by any resolved file, e.g. because the file was evicted, are
+ * removed by {@link #collect()}, which can be run in the background via {@link #start(long)}.
+ * This requires a file system that reports link counts ({@code unix:nlink}).
+ * If the file system does not support hard links, resources are stored without deduplication.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class DedupCacheStorage extends FileCacheStorage {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path blobDirectory;
+    /**
+     * Fetch times of links, which differ from the last modified time of their blob.
+     */
+    private final MetadataIndex fetchTimes;
+    private final AtomicLong blobs = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a storage.
+     *
+     * @param fileSender sender used to send files to clients
+     * @param blobDirectory directory for blobs, must be located directly in the cache directory
+     */
+    public DedupCacheStorage(final FileSender fileSender, final File blobDirectory) {
+        super(fileSender);
+        this.blobDirectory = blobDirectory.toPath();
+        this.fetchTimes = new MetadataIndex(blobDirectory.getParentFile(), new File(blobDirectory, ".fetch-times"), false);
+    }
+
+    /**
+     * Loads the fetch times of links. Until then, links report the last modified time of their blob.
+     *
+     * @throws IOException if loading fails
+     */
+    public void open() throws IOException {
+        fetchTimes.load();
+    }
+
+    /**
+     * Starts collecting unreferenced blobs in the background.
+     *
+     * @param interval delay between two collection runs in ms
+     */
+    public synchronized void start(final long interval) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-blob-collector");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    collect();
+                } catch (IOException | RuntimeException e) {
+                    // try again next time
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long store(final File file, final InputStream in, final long expectedLength,
+                      final long lastModified, final OutputStream client) throws IOException {
+        final Path path = file.toPath();
+        Files.createDirectories(path.getParent());
+        // our own staging file, so that nobody else can change it, before it is linked
+        final Path staging = TeeWriter.createTempFile(path.getParent(), file.getName());
+        try {
+            final MessageDigest digest = createDigest();
+            final long count = TeeWriter.copy(in, expectedLength, staging.toFile(), lastModified, client, digest);
+            link(staging, getBlob(digest.digest()));
+            TeeWriter.move(staging, path);
+            updateFetchTime(file, lastModified);
+            return count;
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes(final File file) throws IOException {
+        final BasicFileAttributes attributes = super.readAttributes(file);
+        if (attributes == null) return null;
+        final MetadataIndex.Entry fetchTime = fetchTimes.get(file);
+        // outdated, if the file was replaced behind our back
+        if (fetchTime == null || fetchTime.size() != attributes.size()) return attributes;
+        return new LinkAttributes(attributes, fetchTime.lastModifiedTime());
+    }
+
+    /**
+     * Changes the last modified time of a stored resource. If other resources are linked
+     * to the same blob, only the resource's fetch time is changed.
+     *
+     * @param file resolved file
+     * @param lastModified last modified time
+     * @throws IOException if something goes wrong
+     */
+    @Override
+    public void setLastModified(final File file, final long lastModified) throws IOException {
+        final BasicFileAttributes attributes = super.readAttributes(file);
+        if (attributes == null) throw new NoSuchFileException(file.toString());
+        // the blob itself is one of the links
+        if (getLinkCount(file.toPath()) > 2) {
+            fetchTimes.put(file, attributes.size(), lastModified, null, null, null);
+        } else {
+            super.setLastModified(file, lastModified);
+            updateFetchTime(file, lastModified);
+        }
+    }
+
+    @Override
+    public boolean delete(final File file) throws IOException {
+        if (fetchTimes.get(file) != null) {
+            fetchTimes.remove(file);
+        }
+        return super.delete(file);
+    }
+
+    /**
+     * Remembers the time a resource was fetched, if it differs from the last modified time
+     * of the file, i.e. of the blob it is linked to.
+     */
+    private void updateFetchTime(final File file, final long lastModified) throws IOException {
+        final BasicFileAttributes attributes = super.readAttributes(file);
+        if (attributes != null && attributes.lastModifiedTime().toMillis() != lastModified) {
+            fetchTimes.put(file, attributes.size(), lastModified, null, null, null);
+        } else if (fetchTimes.get(file) != null) {
+            fetchTimes.remove(file);
+        }
+    }
+
+    /**
+     * Turns the staging file into a link to the given blob. If that fails, the staging
+     * file is left as is.
+     */
+    private void link(final Path staging, final Path blob) throws IOException {
+        try {
+            Files.createDirectories(blob.getParent());
+            // the blob may be collected between our attempts
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    Files.createLink(blob, staging);
+                    blobs.incrementAndGet();
+                    return;
+                } catch (FileAlreadyExistsException e) {
+                    // known content
+                }
+                final String name = staging.getFileName().toString();
+                final Path link = staging.resolveSibling(name.substring(0, name.length() - ".tmp".length()) + ".link.tmp");
+                try {
+                    Files.createLink(link, blob);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                try {
+                    TeeWriter.move(link, staging);
+                    deduplicated.incrementAndGet();
+                    return;
+                } finally {
+                    Files.deleteIfExists(link);
+                }
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            // no hard links, keep the copy
+        }
+    }
+
+    /**
+     * Removes blobs that are not linked to by any resolved file anymore.
+     *
+     * @return number of removed blobs
+     * @throws IOException if we fail to list the blob directory
+     */
+    public long collect() throws IOException {
+        if (!Files.isDirectory(blobDirectory)) return 0;
+        long count = 0;
+        try (final DirectoryStream<Path> level1 = Files.newDirectoryStream(blobDirectory)) {
+            for (final Path dir1 : level1) {
+                if (!Files.isDirectory(dir1)) continue;
+                try (final DirectoryStream<Path> level2 = Files.newDirectoryStream(dir1)) {
+                    for (final Path dir2 : level2) {
+                        if (!Files.isDirectory(dir2)) continue;
+                        try (final DirectoryStream<Path> level3 = Files.newDirectoryStream(dir2)) {
+                            for (final Path blob : level3) {
+                                if (isUnreferenced(blob) && Files.deleteIfExists(blob)) {
+                                    count++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        collected.addAndGet(count);
+        return count;
+    }
+
+    private static boolean isUnreferenced(final Path blob) {
+        // if we can't tell, keep it
+        return getLinkCount(blob) == 1;
+    }
+
+    /**
+     * Number of hard links to the given file.
+     *
+     * @return link count or {@code -1}, if unknown
+     */
+    private static int getLinkCount(final Path path) {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return -1;
+        }
+    }
+
+    private Path getBlob(final byte[] hash) {
+        final char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        final String name = new String(chars);
+        return blobDirectory.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Number of blobs created since start.
+     *
+     * @return blobs
+     */
+    public long getBlobs() {
+        return blobs.get();
+    }
+
+    /**
+     * Number of stored resources that turned out to be duplicates of an existing blob.
+     *
+     * @return duplicates
+     */
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    /**
+     * Number of unreferenced blobs removed since start.
+     *
+     * @return removed blobs
+     */
+    public long getCollected() {
+        return collected.get();
+    }
+
+    @Override
+    public void close() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        fetchTimes.close();
+        super.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DedupCacheStorage{" +
+                "blobDirectory=" + blobDirectory +
+                ", blobs=" + blobs +
+                ", deduplicated=" + deduplicated +
+                ", collected=" + collected +
+                '}';
+    }
+
+    /**
+     * Attributes of a link, with the time the resource was fetched instead of the blob's.
+     */
+    private static class LinkAttributes implements BasicFileAttributes {
+
+        private final BasicFileAttributes attributes;
+        private final FileTime fetchTime;
+
+        private LinkAttributes(final BasicFileAttributes attributes, final FileTime fetchTime) {
+            this.attributes = attributes;
+            this.fetchTime = fetchTime;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return fetchTime;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return attributes.lastAccessTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return attributes.creationTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return attributes.isRegularFile();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return attributes.isDirectory();
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return attributes.isSymbolicLink();
+        }
+
+        @Override
+        public boolean isOther() {
+            return attributes.isOther();
+        }
+
+        @Override
+        public long size() {
+            return attributes.size();
+        }
+
+        @Override
+        public Object fileKey() {
+            return attributes.fileKey();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * =================================================
+ * Copyright 2014 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Translates a regular path like {@code /[signature]discogs-images/R-1074891-1267544771.jpeg.jpg}
+ * to a path that attempts to limit the number of files per directory.
+ * The sample path above is translated to {@code /images/R/10/74/R-1074891/R-1074891-1267544771.jpeg},
+ * using "R", "10", "74", and "R-1074891" as hash values.
+ * When using this resolver in conjunction with NGINX (or any other static web server),
+ * make sure that it also translates paths in the same way, when serving the static file from
+ * the {@code cache.base}.
+ * </p>
+ * <p>
+ * However, you still need to pass the <em>original</em> request URI to the servlet container as it
+ * still needs it to request resources that are not cached yet from the target server.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class DiscogsImageCacheResolver extends AbstractCacheResolver {
+
+    /**
+     * Marker for the start of the image name.
+     */
+    private static final String DISCOGS_IMAGES = "/discogs-images/";
+
+    @Override
+    public File resolve(final String path) throws IOException {
+        final String hashedPath = toHashedPath(path);
+        return toFile(hashedPath != null ? hashedPath : path);
+    }
+
+    /**
+     * <p>
+     * Translates the given path to the hashed path.
+     * </p>
+     * <p>
+     * This is a single-pass equivalent of matching the path against the regular expression
+     * {@code /.*(/discogs-images/)((.)-([^-]{0,2})([^-]{0,2})[^-]*)(.*)(\.[^\.]*)} (also used in the
+     * NGINX configuration) and then concatenating
+     * {@code /images/ / $3 / $4 / $5 / $2 / $2$6} plus {@code $7}, if {@code $6} does not contain a dot.
+     * </p>
+     *
+     * @param path path
+     * @return hashed path or {@code null}, if the path does not look like a Discogs image path
+     */
+    static String toHashedPath(final String path) {
+        final int length = path.length();
+        if (length == 0 || path.charAt(0) != '/') return null;
+        final int lastDot = path.lastIndexOf('.');
+        if (lastDot < 0) return null;
+        final int firstLineTerminator = indexOfLineTerminator(path, 0, length);
+        // the leading .* is greedy, so the last suitable occurrence wins
+        int marker = path.lastIndexOf(DISCOGS_IMAGES);
+        while (marker >= 1) {
+            final String hashedPath = toHashedPath(path, marker, lastDot, firstLineTerminator);
+            if (hashedPath != null) return hashedPath;
+            marker = path.lastIndexOf(DISCOGS_IMAGES, marker - 1);
+        }
+        return null;
+    }
+
+    private static String toHashedPath(final String path, final int marker, final int lastDot, final int firstLineTerminator) {
+        final int typeIndex = marker + DISCOGS_IMAGES.length();
+        // we need at least a type char and a dash before the extension
+        if (lastDot < typeIndex + 2) return null;
+        final char type = path.charAt(typeIndex);
+        if (isLineTerminator(type) || path.charAt(typeIndex + 1) != '-') return null;
+        // the release id ends with the first dash after the type, or the extension
+        int releaseIdEnd = typeIndex + 2;
+        while (releaseIdEnd < lastDot && path.charAt(releaseIdEnd) != '-') {
+            releaseIdEnd++;
+        }
+        // '.' does not match line terminators, neither in the prefix, nor in the image id
+        if (firstLineTerminator >= 0 && (indexOfLineTerminator(path, 1, marker) >= 0
+                || indexOfLineTerminator(path, releaseIdEnd, lastDot) >= 0)) {
+            return null;
+        }
+        final int hash1End = Math.min(typeIndex + 4, releaseIdEnd);
+        final int hash2End = Math.min(hash1End + 2, releaseIdEnd);
+        final boolean imageIdHasDot = path.lastIndexOf('.', lastDot - 1) >= releaseIdEnd;
+
+        final StringBuilder sb = new StringBuilder(2 * path.length() - typeIndex + 16);
+        sb.append("/images/").append(File.separator)
+                .append(type).append(File.separator)
+                .append(path, typeIndex + 2, hash1End).append(File.separator)
+                .append(path, hash1End, hash2End).append(File.separator)
+                .append(path, typeIndex, releaseIdEnd).append(File.separator)
+                .append(path, typeIndex, releaseIdEnd)
+                .append(path, releaseIdEnd, imageIdHasDot ? lastDot : path.length());
+        return sb.toString();
+    }
+
+    private static int indexOfLineTerminator(final String s, final int start, final int end) {
+        for (int i=start; i<end; i++) {
+            if (isLineTerminator(s.charAt(i))) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
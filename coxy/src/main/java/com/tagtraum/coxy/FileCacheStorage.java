@@ -0,0 +1,91 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Stores each resource in the file it was resolved to, i.e. one file per resource.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class FileCacheStorage implements CacheStorage {
+
+    private final FileSender fileSender;
+
+    /**
+     * Creates a storage.
+     *
+     * @param fileSender sender used to send files to clients
+     */
+    public FileCacheStorage(final FileSender fileSender) {
+        this.fileSender = fileSender;
+    }
+
+    /**
+     * Reads the basic attributes of the given file with a single system call.
+     *
+     * @param file file
+     * @return attributes or {@code null}, if the file does not exist
+     * @throws IOException if we fail to read the attributes
+     */
+    @Override
+    public BasicFileAttributes readAttributes(final File file) throws IOException {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void send(final File file, final BasicFileAttributes attributes, final OutputStream out,
+                     final long position, final long length) throws IOException {
+        fileSender.send(file.toPath(), attributes, out, position, length);
+    }
+
+    @Override
+    public byte[] read(final File file, final BasicFileAttributes attributes) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Override
+    public long store(final File file, final InputStream in, final long expectedLength,
+                      final long lastModified, final OutputStream client) throws IOException {
+        // make sure directory exists
+        Files.createDirectories(file.getParentFile().toPath());
+        return TeeWriter.copy(in, expectedLength, file, lastModified, client);
+    }
+
+    @Override
+    public void setLastModified(final File file, final long lastModified) throws IOException {
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+    }
+
+    @Override
+    public boolean delete(final File file) throws IOException {
+        return Files.deleteIfExists(file.toPath());
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "FileCacheStorage{" +
+                "mappedBytes=" + fileSender.getMappedBytes() +
+                '}';
+    }
+}
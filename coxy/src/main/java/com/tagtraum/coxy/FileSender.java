@@ -0,0 +1,272 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Sends files to clients with as few copies, allocations and system calls as possible.
+ * </p>
+ * <p>
+ * If the output stream is also a {@link WritableByteChannel}, data is transferred
+ * via {@link FileChannel#transferTo(long, long, WritableByteChannel)}, allowing the
+ * OS to avoid copying data to user space. Otherwise data is copied using pooled buffers.
+ * </p>
+ * <p>
+ * Optionally, small files may be kept memory-mapped in a cache bounded by the total
+ * number of mapped bytes. Note that evicted regions are only unmapped, once they are
+ * garbage collected.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class FileSender {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+    private final MappedRegions mappedRegions;
+    private final long maxMappedFileSize;
+
+    /**
+     * Creates a sender.
+     *
+     * @param mappedCacheSize max number of bytes to keep memory-mapped, {@code 0} to disable mapping
+     * @param maxMappedFileSize max size of a file that may be memory-mapped
+     */
+    public FileSender(final long mappedCacheSize, final long maxMappedFileSize) {
+        this.mappedRegions = mappedCacheSize > 0 ? new MappedRegions(mappedCacheSize) : null;
+        this.maxMappedFileSize = maxMappedFileSize;
+    }
+
+    /**
+     * Sends the given file.
+     *
+     * @param path file
+     * @param attributes file attributes, previously read
+     * @param out output
+     * @throws IOException if something goes wrong
+     */
+    public void send(final Path path, final BasicFileAttributes attributes, final OutputStream out) throws IOException {
+        send(path, attributes, out, 0, attributes.size());
+    }
+
+    /**
+     * Sends a part of the given file.
+     *
+     * @param path file
+     * @param attributes file attributes, previously read
+     * @param out output
+     * @param position position of the first byte to send
+     * @param length number of bytes to send
+     * @throws IOException if something goes wrong
+     */
+    public void send(final Path path, final BasicFileAttributes attributes, final OutputStream out,
+                     final long position, final long length) throws IOException {
+        final long size = attributes.size();
+        if (mappedRegions != null && size <= maxMappedFileSize) {
+            final ByteBuffer region = mappedRegions.get(path, attributes);
+            if (region != null) {
+                write(slice(region, position, length), out);
+                return;
+            }
+        }
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (mappedRegions != null && size <= maxMappedFileSize) {
+                final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                mappedRegions.put(path, attributes, region);
+                write(slice(region.duplicate(), position, length), out);
+            } else if (out instanceof WritableByteChannel) {
+                transfer(channel, position, length, (WritableByteChannel) out);
+            } else {
+                copy(channel, position, length, out);
+            }
+        }
+    }
+
+    /**
+     * Sends a region of an open channel, e.g. a resource packed into a larger file.
+     * The channel is not closed.
+     *
+     * @param channel channel
+     * @param position position of the first byte to send
+     * @param length number of bytes to send
+     * @param out output
+     * @throws IOException if something goes wrong
+     */
+    public void send(final FileChannel channel, final long position, final long length, final OutputStream out) throws IOException {
+        if (out instanceof WritableByteChannel) {
+            transfer(channel, position, length, (WritableByteChannel) out);
+        } else {
+            copy(channel, position, length, out);
+        }
+    }
+
+    /**
+     * Sends the remaining bytes of a buffer, e.g. a slice of a memory-mapped file.
+     *
+     * @param buffer buffer
+     * @param out output
+     * @throws IOException if something goes wrong
+     */
+    public void send(final ByteBuffer buffer, final OutputStream out) throws IOException {
+        write(buffer, out);
+    }
+
+    private static ByteBuffer slice(final ByteBuffer region, final long position, final long length) {
+        region.limit((int) (position + length));
+        region.position((int) position);
+        return region;
+    }
+
+    /**
+     * Number of bytes currently mapped.
+     *
+     * @return mapped bytes
+     */
+    public long getMappedBytes() {
+        return mappedRegions == null ? 0 : mappedRegions.getMappedBytes();
+    }
+
+    private static void transfer(final FileChannel channel, final long start, final long count,
+                                 final WritableByteChannel out) throws IOException {
+        final long end = start + count;
+        long position = start;
+        while (position < end) {
+            final long transferred = channel.transferTo(position, end - position, out);
+            if (transferred <= 0) break;
+            position += transferred;
+        }
+    }
+
+    private void copy(final FileChannel channel, final long start, final long count, final OutputStream out) throws IOException {
+        final byte[] buf = borrowBuffer();
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(buf);
+            final long end = start + count;
+            long position = start;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buf.length, end - position));
+                final int justRead = channel.read(buffer, position);
+                if (justRead < 0) break;
+                out.write(buf, 0, justRead);
+                position += justRead;
+            }
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    private void write(final ByteBuffer region, final OutputStream out) throws IOException {
+        if (out instanceof WritableByteChannel) {
+            final WritableByteChannel channel = (WritableByteChannel) out;
+            while (region.hasRemaining()) {
+                channel.write(region);
+            }
+            return;
+        }
+        final byte[] buf = borrowBuffer();
+        try {
+            while (region.hasRemaining()) {
+                final int length = Math.min(buf.length, region.remaining());
+                region.get(buf, 0, length);
+                out.write(buf, 0, length);
+            }
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    private byte[] borrowBuffer() {
+        final byte[] buf = bufferPool.poll();
+        return buf != null ? buf : new byte[BUFFER_SIZE];
+    }
+
+    private void returnBuffer(final byte[] buf) {
+        bufferPool.offer(buf);
+    }
+
+    /**
+     * LRU cache of memory-mapped files, bounded by the total number of mapped bytes.
+     * Entries are validated against the size and last modified time of the file
+     * attributes passed in, so that replaced files are re-mapped.
+     */
+    private static class MappedRegions {
+
+        private final long maxBytes;
+        private final Map<Path, Region> regions = new LinkedHashMap<>(16, 0.75f, true);
+        private long mappedBytes;
+
+        private MappedRegions(final long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public synchronized ByteBuffer get(final Path path, final BasicFileAttributes attributes) {
+            final Region region = regions.get(path);
+            if (region == null) return null;
+            if (!region.matches(attributes)) {
+                remove(path);
+                return null;
+            }
+            return region.buffer.duplicate();
+        }
+
+        public synchronized void put(final Path path, final BasicFileAttributes attributes, final MappedByteBuffer buffer) {
+            if (buffer.capacity() > maxBytes) return;
+            remove(path);
+            regions.put(path, new Region(buffer, attributes.lastModifiedTime().toMillis()));
+            mappedBytes += buffer.capacity();
+            final Iterator<Region> iterator = regions.values().iterator();
+            while (mappedBytes > maxBytes && iterator.hasNext()) {
+                mappedBytes -= iterator.next().buffer.capacity();
+                iterator.remove();
+            }
+        }
+
+        public synchronized long getMappedBytes() {
+            return mappedBytes;
+        }
+
+        private void remove(final Path path) {
+            final Region removed = regions.remove(path);
+            if (removed != null) {
+                mappedBytes -= removed.buffer.capacity();
+            }
+        }
+    }
+
+    private static class Region {
+        private final MappedByteBuffer buffer;
+        private final long lastModified;
+
+        private Region(final MappedByteBuffer buffer, final long lastModified) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+        }
+
+        public boolean matches(final BasicFileAttributes attributes) {
+            return buffer.capacity() == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
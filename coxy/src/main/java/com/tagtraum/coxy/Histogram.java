@@ -0,0 +1,126 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock-free histogram of non-negative long values (e.g. durations in nanoseconds)
+ * in the spirit of <a href="http://hdrhistogram.org">HdrHistogram</a>.
+ * </p>
+ * <p>
+ * Values below 16 are counted exactly. Larger values are counted in 16 linear sub-buckets
+ * per power of two, so that quantiles are reported with a relative error of at most 1/16
+ * (about 6%) over the whole range of {@code long}, using a fixed 7.5kb of memory.
+ * Recording a value is an array index computation and an atomic increment.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as {@code 0}.
+     *
+     * @param value value
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(getIndex(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long currentMax;
+        while (v > (currentMax = max.get()) && !max.compareAndSet(currentMax, v)) {
+            // try again
+        }
+    }
+
+    /**
+     * Number of recorded values.
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Sum of all recorded values.
+     *
+     * @return sum
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Largest recorded value.
+     *
+     * @return max or {@code 0}, if nothing was recorded yet
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Value below or at which the given fraction of all recorded values lies.
+     * Since values are not recorded exactly, the upper bound of the matching bucket is returned,
+     * but never more than {@link #getMax()}.
+     *
+     * @param quantile quantile, e.g. {@code 0.99}
+     * @return value or {@code 0}, if nothing was recorded yet
+     */
+    public long getValueAtQuantile(final double quantile) {
+        final long total = count.get();
+        if (total == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(1.0, quantile) * total));
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(getUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    static int getIndex(final long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long getUpperBound(final int index) {
+        if (index < SUB_BUCKETS) return index;
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        final long upper = ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+        // the last bucket would overflow
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+                "count=" + getCount() +
+                ", p50=" + getValueAtQuantile(0.5) +
+                ", p99=" + getValueAtQuantile(0.99) +
+                ", max=" + getMax() +
+                '}';
+    }
+}
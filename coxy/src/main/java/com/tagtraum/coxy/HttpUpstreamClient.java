@@ -0,0 +1,233 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * {@link UpstreamClient} based on {@link HttpURLConnection}.
+ * </p>
+ * <p>
+ * {@link HttpURLConnection} keeps persistent HTTP/1.1 connections in a pool, but only re-uses
+ * a connection, if the previous response body (or error body) was read completely and closed.
+ * {@link UpstreamResponse#close()} takes care of that. The pool size per target host is
+ * controlled by the JVM-wide System property {@code http.maxConnections} (defaults to {@code 5}),
+ * which must be set on the command line, as it is only read once. Requests beyond that number
+ * still work, but their connections are closed afterwards.
+ * </p>
+ * <p>
+ * The number of concurrent requests is limited (bulkhead). Requests exceeding the limit wait for
+ * a bounded time and then fail with an {@link UpstreamBusyException}.
+ * This keeps bursts of misses from exhausting container threads or opening an unlimited number of
+ * connections to the target server.
+ * </p>
+ * <p>
+ * Configuration via System properties:
+ * </p>
+ * <ul>
+ *     <li>{@code upstream.connect.timeout} - connect timeout in ms, defaults to {@code 3000}</li>
+ *     <li>{@code upstream.read.timeout} - read timeout in ms, defaults to {@code 3000}</li>
+ *     <li>{@code upstream.max.inflight} - max number of concurrent requests, defaults to {@code 32}</li>
+ *     <li>{@code upstream.queue.timeout} - max time in ms to wait for a request slot, defaults to {@code 1000}</li>
+ * </ul>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class HttpUpstreamClient implements UpstreamClient {
+
+    /**
+     * Max number of bytes we are willing to skip, so that a connection can be re-used.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxInFlight;
+    private final long queueTimeout;
+    private final Semaphore permits;
+    private String targetBase;
+
+    /**
+     * Creates a client configured via System properties.
+     */
+    public HttpUpstreamClient() {
+        this(Integer.getInteger("upstream.connect.timeout", 3000),
+                Integer.getInteger("upstream.read.timeout", 3000),
+                Integer.getInteger("upstream.max.inflight", 32),
+                Long.getLong("upstream.queue.timeout", 1000L));
+    }
+
+    /**
+     * Creates a client.
+     *
+     * @param connectTimeout connect timeout in ms
+     * @param readTimeout read timeout in ms
+     * @param maxInFlight max number of concurrent requests
+     * @param queueTimeout max time in ms to wait for a request slot
+     */
+    public HttpUpstreamClient(final int connectTimeout, final int readTimeout, final int maxInFlight, final long queueTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxInFlight = maxInFlight;
+        this.queueTimeout = queueTimeout;
+        this.permits = new Semaphore(maxInFlight, true);
+    }
+
+    @Override
+    public void setTargetBase(final String targetBase) {
+        this.targetBase = targetBase;
+    }
+
+    @Override
+    public String getTargetBase() {
+        return targetBase;
+    }
+
+    @Override
+    public UpstreamResponse fetch(final String path, final Map<String, String> headers) throws IOException {
+        acquire(path);
+        boolean handedOver = false;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(targetBase + path).openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setUseCaches(false);
+            for (final Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.connect();
+            final UpstreamResponse response = new HttpResponse(connection);
+            handedOver = true;
+            return response;
+        } finally {
+            if (!handedOver) permits.release();
+        }
+    }
+
+    private void acquire(final String path) throws UpstreamBusyException {
+        try {
+            if (!permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS)) {
+                throw new UpstreamBusyException("Too many requests in flight (" + maxInFlight + "), not fetching " + path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UpstreamBusyException("Interrupted while waiting to fetch " + path);
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Max number of concurrent requests.
+     *
+     * @return max requests in flight
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void close() {
+        // HttpURLConnection's pool is managed by the JDK
+    }
+
+    @Override
+    public String toString() {
+        return "HttpUpstreamClient{" +
+                "targetBase='" + targetBase + '\'' +
+                ", connectTimeout=" + connectTimeout +
+                ", readTimeout=" + readTimeout +
+                ", maxInFlight=" + maxInFlight +
+                ", queueTimeout=" + queueTimeout +
+                '}';
+    }
+
+    private class HttpResponse extends UpstreamResponse {
+
+        private final HttpURLConnection connection;
+        private InputStream in;
+        private boolean closed;
+
+        private HttpResponse(final HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int getStatusCode() throws IOException {
+            return connection.getResponseCode();
+        }
+
+        @Override
+        public String getStatusMessage() throws IOException {
+            return connection.getResponseMessage();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return connection.getHeaderFields();
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (in == null) {
+                if (connection.getResponseCode() >= 400) {
+                    final InputStream errorStream = connection.getErrorStream();
+                    in = errorStream != null ? errorStream : new ByteArrayInputStream(new byte[0]);
+                } else {
+                    in = connection.getInputStream();
+                }
+            }
+            return in;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                // consume what's left, so that the connection can be re-used
+                final InputStream body = getInputStream();
+                final byte[] buf = new byte[4096];
+                int drained = 0;
+                int justRead;
+                while (drained < MAX_DRAIN_BYTES && (justRead = body.read(buf)) != -1) {
+                    drained += justRead;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    connection.disconnect();
+                }
+                body.close();
+            } catch (IOException e) {
+                connection.disconnect();
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Derives size and format variants of images from a larger master image,
+ * so that they don't have to be fetched from the target server.
+ * </p>
+ * <p>
+ * Variants are described by the size directives of the requested path, e.g.
+ * {@code /[signature]/600x600/smart/filters:format(jpeg):quality(96)/discogs-images/R-1-2.jpeg.jpg},
+ * as understood by the target server: {@code WxH} scales the image so that it covers the box
+ * and crops what's left over in the center, {@code fit-in/WxH} scales the image so that it
+ * fits into the box. A width or height of {@code 0} means <em>proportional</em>.
+ * {@code format(...)} and {@code quality(...)} filters are honored, other filters are not.
+ * Images are only ever scaled down. If the master is too small, the variant cannot be derived.
+ * </p>
+ * <p>
+ * Variants are rendered with {@code javax.imageio} on a bounded pool of low-priority threads.
+ * If the pool is busy, deriving a variant fails right away.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class ImageVariants implements AutoCloseable {
+
+    private static final String IMAGE_MARKER = "images/";
+    private static final String FIT_IN = "fit-in";
+    private static final float DEFAULT_QUALITY = 0.9f;
+    /**
+     * Refuse to decode larger images, so that a single image cannot exhaust the heap.
+     */
+    private static final long MAX_PIXELS = 50L * 1000L * 1000L;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong derived = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a pool for rendering variants.
+     *
+     * @param threads number of rendering threads
+     * @param queueSize max number of variants waiting to be rendered
+     */
+    public ImageVariants(final int threads, final int queueSize) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-variant-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Parses the size directives of the given path.
+     *
+     * @param path path info
+     * @return variant or {@code null}, if the path does not ask for a specific size
+     */
+    public static Variant parse(final String path) {
+        final int marker = path.indexOf(IMAGE_MARKER);
+        if (marker < 0) return null;
+        int width = -1;
+        int height = -1;
+        boolean fitIn = false;
+        String format = null;
+        float quality = DEFAULT_QUALITY;
+        int segmentStart = 0;
+        for (int i = 0; i < marker; i++) {
+            if (path.charAt(i) != '/') continue;
+            final String segment = path.substring(segmentStart, i);
+            segmentStart = i + 1;
+            if (FIT_IN.equals(segment)) {
+                fitIn = true;
+            } else if (segment.startsWith("filters:")) {
+                format = getFilterArgument(segment, "format(");
+                final String q = getFilterArgument(segment, "quality(");
+                if (q != null) {
+                    try {
+                        quality = Math.max(1, Math.min(100, Integer.parseInt(q))) / 100f;
+                    } catch (NumberFormatException e) {
+                        // ignore
+                    }
+                }
+            } else if (width < 0) {
+                final int x = segment.indexOf('x');
+                if (x > 0 && x < segment.length() - 1 && isDigits(segment, 0, x) && isDigits(segment, x + 1, segment.length())) {
+                    try {
+                        width = Integer.parseInt(segment.substring(0, x));
+                        height = Integer.parseInt(segment.substring(x + 1));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        if (width < 0 || width == 0 && height == 0) return null;
+        if (format != null) {
+            format = format.toLowerCase();
+            if (!isDigitsOrLetters(format)) format = null;
+        }
+        return new Variant(width, height, fitIn, format, quality);
+    }
+
+    private static String getFilterArgument(final String filters, final String name) {
+        final int start = filters.indexOf(name);
+        if (start < 0) return null;
+        final int end = filters.indexOf(')', start);
+        if (end < 0) return null;
+        return filters.substring(start + name.length(), end);
+    }
+
+    private static boolean isDigits(final String s, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return end - start <= 5;
+    }
+
+    private static boolean isDigitsOrLetters(final String s) {
+        if (s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isLetterOrDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * File a variant is stored in. This is a sibling of the master, e.g. {@code R-1-2@600x600.jpeg}
+     * for {@code R-1-2.jpeg} or {@code R-1-2@600x600-q40.jpeg} with a non-default quality.
+     *
+     * @param master master file
+     * @param variant variant
+     * @return variant file
+     */
+    public static File toFile(final File master, final Variant variant) {
+        final String name = master.getName();
+        final int dot = name.lastIndexOf('.');
+        final String baseName = dot > 0 ? name.substring(0, dot) : name;
+        final String extension = variant.format != null ? variant.format : (dot > 0 ? name.substring(dot + 1) : "jpeg");
+        return new File(master.getParentFile(), baseName + '@' + variant + '.' + extension);
+    }
+
+    /**
+     * Derives a variant from the given master on the rendering pool and waits for the result.
+     *
+     * @param master encoded master image
+     * @param format format of the master, used if the variant does not ask for one
+     * @param variant variant
+     * @param timeout max time to wait in ms
+     * @return encoded variant or {@code null}, if it cannot be derived from this master,
+     * the pool is busy or it took too long
+     */
+    public byte[] derive(final byte[] master, final String format, final Variant variant, final long timeout) {
+        final Future<byte[]> future;
+        try {
+            future = executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return render(master, format, variant);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failed.incrementAndGet();
+            return null;
+        }
+        try {
+            final byte[] bytes = future.get(timeout, TimeUnit.MILLISECONDS);
+            (bytes != null ? derived : failed).incrementAndGet();
+            return bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // unreadable or too slow
+        }
+        future.cancel(true);
+        failed.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Runs some work on the rendering pool, unless it's busy.
+     *
+     * @param runnable work
+     * @return true, if the work was accepted
+     */
+    public boolean execute(final Runnable runnable) {
+        try {
+            executor.execute(runnable);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Renders a variant.
+     *
+     * @param master encoded master image
+     * @param format format of the master, used if the variant does not ask for one
+     * @param variant variant
+     * @return encoded variant or {@code null}, if it cannot be derived from this master
+     * @throws IOException if the master cannot be decoded
+     */
+    static byte[] render(final byte[] master, final String format, final Variant variant) throws IOException {
+        final String targetFormat = variant.format != null ? variant.format : format;
+        if (targetFormat == null) return null;
+        try (final ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(master))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) return null;
+                final double scale = variant.getScale(width, height);
+                if (scale > 1.0) return null;
+                final boolean crop = variant.isCropped();
+                final int targetWidth = crop ? variant.width : Math.max(1, (int) Math.round(width * scale));
+                final int targetHeight = crop ? variant.height : Math.max(1, (int) Math.round(height * scale));
+                // when cropping, make sure that the scaled image covers the whole box
+                final int scaledWidth = Math.max(targetWidth, (int) Math.round(width * scale));
+                final int scaledHeight = Math.max(targetHeight, (int) Math.round(height * scale));
+                if (width == targetWidth && height == targetHeight && isSameFormat(targetFormat, reader.getFormatName())) {
+                    // exactly what was asked for
+                    return master;
+                }
+                final ImageWriter writer = getWriter(targetFormat);
+                if (writer == null) return null;
+                try {
+                    final BufferedImage image = reader.read(0);
+                    return encode(scale(image, scaledWidth, scaledHeight, targetWidth, targetHeight, !isJpeg(targetFormat)),
+                            writer, variant.quality);
+                } finally {
+                    writer.dispose();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Pixel count of an encoded image.
+     *
+     * @param image encoded image
+     * @return width times height or {@code -1}, if the image cannot be read
+     * @throws IOException if reading fails
+     */
+    static long getPixels(final byte[] image) throws IOException {
+        try (final ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return -1;
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Re-encodes an image in another format without changing its size.
+     *
+     * @param image encoded image
+     * @param format target format name, e.g. {@code webp}
+     * @param quality compression quality between 0 and 1
+     * @return encoded image or {@code null}, if the image cannot be read or there is no writer for the format
+     * @throws IOException if decoding or encoding fails
+     */
+    static byte[] transcode(final byte[] image, final String format, final float quality) throws IOException {
+        try (final ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) return null;
+                final ImageWriter writer = getWriter(format);
+                if (writer == null) return null;
+                try {
+                    return encode(reader.read(0), writer, quality);
+                } finally {
+                    writer.dispose();
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether two format names or file extensions denote the same format.
+     *
+     * @param format format name, e.g. {@code jpeg}
+     * @param other other format name, e.g. {@code jpg}
+     * @return true, if the same
+     */
+    static boolean isSameFormat(final String format, final String other) {
+        return format != null && (format.equalsIgnoreCase(other) || isJpeg(format) && isJpeg(other));
+    }
+
+    private static boolean isJpeg(final String format) {
+        return "jpeg".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format);
+    }
+
+    private static ImageWriter getWriter(final String format) {
+        final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        return writers.hasNext() ? writers.next() : null;
+    }
+
+    /**
+     * Scales the image and crops it to the target size. Large reductions are done in steps
+     * of one half, which looks much better than bilinear interpolation in one step.
+     */
+    private static BufferedImage scale(final BufferedImage image, final int scaledWidth, final int scaledHeight,
+                                       final int targetWidth, final int targetHeight, final boolean alpha) {
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        while (width / 2 >= scaledWidth && height / 2 >= scaledHeight) {
+            width /= 2;
+            height /= 2;
+            current = draw(current, width, height, 0, 0, width, height, alpha);
+        }
+        // center crop whatever does not fit
+        return draw(current, scaledWidth, scaledHeight, (targetWidth - scaledWidth) / 2, (targetHeight - scaledHeight) / 2,
+                targetWidth, targetHeight, alpha);
+    }
+
+    private static BufferedImage draw(final BufferedImage source, final int width, final int height, final int x, final int y,
+                                      final int canvasWidth, final int canvasHeight, final boolean alpha) {
+        final BufferedImage target = new BufferedImage(canvasWidth, canvasHeight,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = target.createGraphics();
+        try {
+            if (!alpha) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, canvasWidth, canvasHeight);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, x, y, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encode(final BufferedImage image, final ImageWriter writer, final float quality) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null && param.getCompressionTypes().length > 0) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Number of variants derived since start.
+     *
+     * @return derived variants
+     */
+    public long getDerived() {
+        return derived.get();
+    }
+
+    /**
+     * Number of variants that could not be derived since start.
+     *
+     * @return failures
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImageVariants{" +
+                "threads=" + executor.getMaximumPoolSize() +
+                ", derived=" + derived +
+                ", failed=" + failed +
+                '}';
+    }
+
+    /**
+     * Size and format of an image variant.
+     */
+    public static class Variant {
+
+        private final int width;
+        private final int height;
+        private final boolean fitIn;
+        private final String format;
+        private final float quality;
+
+        /**
+         * Creates a variant.
+         *
+         * @param width width or {@code 0} for proportional
+         * @param height height or {@code 0} for proportional
+         * @param fitIn fit into the box, instead of covering it
+         * @param format format name, e.g. {@code jpeg}, or {@code null} for the master's format
+         * @param quality compression quality between 0 and 1
+         */
+        public Variant(final int width, final int height, final boolean fitIn, final String format, final float quality) {
+            this.width = width;
+            this.height = height;
+            this.fitIn = fitIn;
+            this.format = format;
+            this.quality = quality;
+        }
+
+        /**
+         * Width of the box.
+         *
+         * @return width or {@code 0} for proportional
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Height of the box.
+         *
+         * @return height or {@code 0} for proportional
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Indicates whether the image is scaled to fit into the box, instead of covering it.
+         *
+         * @return true, if fitting
+         */
+        public boolean isFitIn() {
+            return fitIn;
+        }
+
+        /**
+         * Requested format.
+         *
+         * @return format name or {@code null} for the master's format
+         */
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * Compression quality.
+         *
+         * @return quality between 0 and 1
+         */
+        public float getQuality() {
+            return quality;
+        }
+
+        /**
+         * Indicates whether the image is cropped to the box, i.e. parts of it are cut off.
+         *
+         * @return true, if cropped
+         */
+        public boolean isCropped() {
+            return !fitIn && width > 0 && height > 0;
+        }
+
+        /**
+         * Factor by which an image of the given size has to be scaled.
+         *
+         * @param imageWidth image width
+         * @param imageHeight image height
+         * @return scale factor
+         */
+        double getScale(final int imageWidth, final int imageHeight) {
+            final double scaleX = (double) width / imageWidth;
+            final double scaleY = (double) height / imageHeight;
+            if (width == 0) return scaleY;
+            if (height == 0) return scaleX;
+            return fitIn ? Math.min(scaleX, scaleY) : Math.max(scaleX, scaleY);
+        }
+
+        @Override
+        public String toString() {
+            return (fitIn ? "fit-" : "") + width + "x" + height
+                    + (quality != DEFAULT_QUALITY ? "-q" + Math.round(quality * 100) : "");
+        }
+    }
+}
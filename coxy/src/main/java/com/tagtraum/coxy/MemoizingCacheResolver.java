@@ -0,0 +1,83 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the files another resolver resolved paths to.
+ * The number of remembered paths is bounded. When the bound is reached,
+ * arbitrary entries are forgotten.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MemoizingCacheResolver implements CacheResolver {
+
+    private final CacheResolver delegate;
+    private final int maxEntries;
+    private final ConcurrentMap<String, File> files = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a memoizing resolver.
+     *
+     * @param delegate resolver that does the actual work
+     * @param maxEntries max number of paths to remember
+     */
+    public MemoizingCacheResolver(final CacheResolver delegate, final int maxEntries) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Resolver that does the actual work.
+     *
+     * @return delegate
+     */
+    public CacheResolver getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void setCacheBase(final File cacheBase) {
+        delegate.setCacheBase(cacheBase);
+        files.clear();
+    }
+
+    @Override
+    public File getCacheBase() {
+        return delegate.getCacheBase();
+    }
+
+    @Override
+    public File resolve(final String path) throws IOException {
+        File file = files.get(path);
+        if (file == null) {
+            file = delegate.resolve(path);
+            if (files.size() >= maxEntries) {
+                evict();
+            }
+            files.put(path, file);
+        }
+        return file;
+    }
+
+    /**
+     * Forgets about a tenth of all entries.
+     */
+    private void evict() {
+        int toRemove = Math.max(1, maxEntries / 10);
+        final Iterator<String> iterator = files.keySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
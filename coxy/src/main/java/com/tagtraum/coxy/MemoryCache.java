@@ -0,0 +1,256 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * In-memory cache for the hottest resources, bounded by the total number of bytes.
+ * Entries are kept with everything needed to send them, so that a hit does not require
+ * any filesystem access at all.
+ * </p>
+ * <p>
+ * Eviction follows a segmented LRU policy: New entries are admitted to a
+ * <em>probationary</em> segment. Only when they are requested again, they are promoted to the
+ * <em>protected</em> segment, which may occupy at most 80% of the cache. This way, a burst of
+ * one-time requests cannot flush the frequently requested entries.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MemoryCache {
+
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long probationBytes;
+    private long protectedBytes;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes max number of bytes to keep in memory
+     */
+    public MemoryCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = maxBytes * 8 / 10;
+    }
+
+    /**
+     * Looks up an entry.
+     *
+     * @param key key, typically the request path
+     * @return entry or {@code null}
+     */
+    public Entry get(final String key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = lookup(key);
+        }
+        if (entry == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return entry;
+    }
+
+    private Entry lookup(final String key) {
+        Entry entry = protectedSegment.get(key);
+        if (entry != null) return entry;
+        entry = probation.remove(key);
+        if (entry == null) return null;
+        // promote
+        probationBytes -= entry.getContentLength();
+        protectedSegment.put(key, entry);
+        protectedBytes += entry.getContentLength();
+        // demote least recently used protected entries
+        final Iterator<Map.Entry<String, Entry>> iterator = protectedSegment.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && iterator.hasNext()) {
+            final Map.Entry<String, Entry> demoted = iterator.next();
+            iterator.remove();
+            protectedBytes -= demoted.getValue().getContentLength();
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().getContentLength();
+        }
+        return entry;
+    }
+
+    /**
+     * Adds or replaces an entry.
+     *
+     * @param key key, typically the request path
+     * @param entry entry
+     */
+    public synchronized void put(final String key, final Entry entry) {
+        if (entry.getContentLength() > maxBytes) return;
+        remove(key);
+        probation.put(key, entry);
+        probationBytes += entry.getContentLength();
+        evict();
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key key
+     */
+    public synchronized void remove(final String key) {
+        final Entry probationEntry = probation.remove(key);
+        if (probationEntry != null) probationBytes -= probationEntry.getContentLength();
+        final Entry protectedEntry = protectedSegment.remove(key);
+        if (protectedEntry != null) protectedBytes -= protectedEntry.getContentLength();
+    }
+
+    /**
+     * Removes all entries that were read from one of the given files.
+     *
+     * @param files files that no longer exist
+     */
+    public synchronized void removeFiles(final Collection<File> files) {
+        if (files.isEmpty()) return;
+        final Iterator<Entry> probationIterator = probation.values().iterator();
+        while (probationIterator.hasNext()) {
+            final Entry entry = probationIterator.next();
+            if (entry.getFile() != null && files.contains(entry.getFile())) {
+                probationBytes -= entry.getContentLength();
+                probationIterator.remove();
+            }
+        }
+        final Iterator<Entry> protectedIterator = protectedSegment.values().iterator();
+        while (protectedIterator.hasNext()) {
+            final Entry entry = protectedIterator.next();
+            if (entry.getFile() != null && files.contains(entry.getFile())) {
+                protectedBytes -= entry.getContentLength();
+                protectedIterator.remove();
+            }
+        }
+    }
+
+    private void evict() {
+        final Iterator<Entry> probationIterator = probation.values().iterator();
+        while (probationBytes + protectedBytes > maxBytes && probationIterator.hasNext()) {
+            probationBytes -= probationIterator.next().getContentLength();
+            probationIterator.remove();
+        }
+        final Iterator<Entry> protectedIterator = protectedSegment.values().iterator();
+        while (probationBytes + protectedBytes > maxBytes && protectedIterator.hasNext()) {
+            protectedBytes -= protectedIterator.next().getContentLength();
+            protectedIterator.remove();
+        }
+    }
+
+    /**
+     * Number of bytes currently held.
+     *
+     * @return bytes
+     */
+    public synchronized long getBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    /**
+     * Number of entries currently held.
+     *
+     * @return entries
+     */
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    /**
+     * Number of successful lookups.
+     *
+     * @return hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of failed lookups.
+     *
+     * @return misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryCache{" +
+                "entries=" + size() +
+                ", bytes=" + getBytes() +
+                ", maxBytes=" + maxBytes +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                '}';
+    }
+
+    /**
+     * Cached resource.
+     */
+    public static class Entry {
+
+        private final byte[] content;
+        private final String contentType;
+        private final long lastModified;
+        private final File file;
+
+        /**
+         * Creates an entry.
+         *
+         * @param content content
+         * @param contentType content type, may be {@code null}
+         * @param lastModified last modified time
+         */
+        public Entry(final byte[] content, final String contentType, final long lastModified) {
+            this(content, contentType, lastModified, null);
+        }
+
+        /**
+         * Creates an entry.
+         *
+         * @param content content
+         * @param contentType content type, may be {@code null}
+         * @param lastModified last modified time
+         * @param file file the content was read from, may be {@code null}
+         */
+        public Entry(final byte[] content, final String contentType, final long lastModified, final File file) {
+            this.content = content;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            this.file = file;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public int getContentLength() {
+            return content.length;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+}
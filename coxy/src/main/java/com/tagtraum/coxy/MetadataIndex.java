@@ -0,0 +1,527 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Index of all files in the cache directory along with their metadata, so that
+ * requests can be answered without asking the filesystem whether a file exists, how large
+ * it is and when it was fetched. Besides what the filesystem knows, the index also keeps
+ * the target server's {@code Content-Type}, {@code ETag} and {@code Last-Modified} headers.
+ * </p>
+ * <p>
+ * Entries are kept in memory keyed by a 64 bit hash of the path relative to the cache directory.
+ * All changes are appended to a log file, which is replayed (and compacted, if necessary)
+ * when the index is {@link #load() loaded}. If there is no log file yet, the index is built
+ * by scanning the cache directory. While the index is loading, it is not {@link #isReady() ready}
+ * and callers must ask the filesystem instead.
+ * </p>
+ * <p>
+ * The index assumes that it is told about all changes to the cache directory. Files that are
+ * added or deleted by other means are not noticed until the log file is deleted and the index
+ * is rebuilt.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MetadataIndex implements AutoCloseable {
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path cacheBase;
+    private final File logFile;
+    private final boolean scan;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Keys changed while loading, so that older log records don't overwrite them.
+     */
+    private final Set<Long> changedWhileLoading = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final Object logLock = new Object();
+    private DataOutputStream log;
+    private long logRecords;
+    private volatile boolean loading;
+    private volatile boolean ready;
+    private volatile boolean writeOnly;
+
+    /**
+     * Creates an index.
+     *
+     * @param cacheBase cache directory
+     * @param logFile file to keep the log in
+     */
+    public MetadataIndex(final File cacheBase, final File logFile) {
+        this(cacheBase, logFile, true);
+    }
+
+    /**
+     * Creates an index.
+     *
+     * @param cacheBase cache directory
+     * @param logFile file to keep the log in
+     * @param scan build the index by scanning the cache directory, if there is no log file yet.
+     * If false, the index starts out empty, i.e. it only knows what it's told.
+     */
+    public MetadataIndex(final File cacheBase, final File logFile, final boolean scan) {
+        this.cacheBase = cacheBase.toPath();
+        this.logFile = logFile;
+        this.scan = scan;
+    }
+
+    /**
+     * Loads the index in a background thread.
+     */
+    public void start() {
+        final Thread thread = new Thread("coxy-index") {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } catch (IOException e) {
+                    // stays not ready
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Loads the index by replaying the log file or, if it does not exist, by scanning the cache directory
+     * (unless disabled).
+     *
+     * @throws IOException if loading fails
+     */
+    public void load() throws IOException {
+        final long logLength;
+        synchronized (logLock) {
+            loading = true;
+            logLength = logFile.exists() ? logFile.length() : -1;
+            openLog(logLength > 0);
+        }
+        boolean intact = true;
+        if (logLength > 0) {
+            intact = replay(logLength);
+        } else if (scan) {
+            scan();
+        }
+        synchronized (logLock) {
+            loading = false;
+            changedWhileLoading.clear();
+            if (!intact || logRecords > 2L * entries.size() + 1000L) {
+                compact();
+            } else {
+                log.flush();
+            }
+        }
+        ready = true;
+    }
+
+    /**
+     * Opens the log without loading it, so that a separate tool (e.g. the {@link CacheMigrator})
+     * can record changes for the next time the index is loaded. Entries are only written to the
+     * log, not kept in memory.
+     *
+     * @param append append to an existing log, instead of starting a new one
+     * @throws IOException if the log cannot be opened
+     */
+    public void openForWriting(final boolean append) throws IOException {
+        synchronized (logLock) {
+            writeOnly = true;
+            openLog(append);
+        }
+    }
+
+    /**
+     * Indicates whether the index has been loaded and can be trusted.
+     *
+     * @return true, if ready
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Looks up the metadata for a file.
+     *
+     * @param file file
+     * @return metadata or {@code null}, if the file is not in the index
+     */
+    public Entry get(final File file) {
+        final String relativePath = relativize(file);
+        final Entry entry = entries.get(hash(relativePath));
+        // hash collision
+        if (entry == null || !entry.relativePath.equals(relativePath)) return null;
+        return entry;
+    }
+
+    /**
+     * Adds or replaces the metadata for a file.
+     *
+     * @param file file
+     * @param size size in bytes
+     * @param lastModified last modified time of the file, i.e. the time it was fetched
+     * @param contentType upstream {@code Content-Type} or {@code null}
+     * @param eTag upstream {@code ETag} or {@code null}
+     * @param upstreamLastModified upstream {@code Last-Modified} or {@code null}
+     */
+    public void put(final File file, final long size, final long lastModified, final String contentType,
+                    final String eTag, final String upstreamLastModified) {
+        final Entry entry = new Entry(relativize(file), size, lastModified, contentType, eTag, upstreamLastModified);
+        synchronized (logLock) {
+            final Long key = hash(entry.relativePath);
+            if (loading) changedWhileLoading.add(key);
+            if (!writeOnly) entries.put(key, entry);
+            append(entry);
+        }
+    }
+
+    /**
+     * Removes the metadata for a file, e.g. because it was deleted.
+     *
+     * @param file file
+     */
+    public void remove(final File file) {
+        final String relativePath = relativize(file);
+        synchronized (logLock) {
+            final Long key = hash(relativePath);
+            if (loading) changedWhileLoading.add(key);
+            final Entry entry = entries.get(key);
+            if (entry != null && entry.relativePath.equals(relativePath)) {
+                entries.remove(key);
+            }
+            appendRemove(relativePath);
+        }
+    }
+
+    /**
+     * Number of files in the index.
+     *
+     * @return size
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        synchronized (logLock) {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                log = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataIndex{" +
+                "logFile=" + logFile +
+                ", entries=" + size() +
+                ", ready=" + isReady() +
+                '}';
+    }
+
+    /**
+     * Replays the first {@code length} bytes of the log. Anything after that was
+     * written while loading and is already in memory.
+     *
+     * @param length length of the log when loading started
+     * @return false, if the log ends with an incomplete record, e.g. because of a crash
+     * @throws IOException if reading fails
+     */
+    private boolean replay(final long length) throws IOException {
+        try (final DataInputStream data = new DataInputStream(new BufferedInputStream(
+                new LimitedInputStream(Files.newInputStream(logFile.toPath()), length)))) {
+            long records = 0;
+            try {
+                while (true) {
+                    final byte type;
+                    try {
+                        type = data.readByte();
+                    } catch (EOFException e) {
+                        return true;
+                    }
+                    final String relativePath = data.readUTF();
+                    final Entry entry = type == PUT
+                            ? new Entry(relativePath, data.readLong(), data.readLong(), readString(data), readString(data), readString(data))
+                            : null;
+                    records++;
+                    final Long key = hash(relativePath);
+                    if (changedWhileLoading.contains(key)) continue;
+                    if (entry == null) entries.remove(key);
+                    else entries.put(key, entry);
+                }
+            } catch (EOFException e) {
+                return false;
+            } finally {
+                synchronized (logLock) {
+                    logRecords += records;
+                }
+            }
+        }
+    }
+
+    private void scan() throws IOException {
+        Files.walkFileTree(cacheBase, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                if (!attributes.isRegularFile() || file.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.CONTINUE;
+                }
+                final String relativePath = relativize(file.toFile());
+                synchronized (logLock) {
+                    final Long key = hash(relativePath);
+                    if (!changedWhileLoading.contains(key)) {
+                        final Entry entry = new Entry(relativePath, attributes.size(),
+                                attributes.lastModifiedTime().toMillis(), null, null, null);
+                        entries.put(key, entry);
+                        append(entry);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Rewrites the log, so that it only contains the current entries.
+     * Must be called while holding the {@link #logLock}.
+     */
+    private void compact() throws IOException {
+        final File tempFile = new File(logFile.getParentFile(), logFile.getName() + ".tmp");
+        log.close();
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        logRecords = 0;
+        for (final Entry entry : entries.values()) {
+            append(entry);
+        }
+        log.close();
+        Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        openLog(true);
+    }
+
+    private void openLog(final boolean append) throws IOException {
+        Files.createDirectories(logFile.getParentFile().toPath());
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, append)));
+    }
+
+    private void append(final Entry entry) {
+        if (log == null) return;
+        try {
+            log.writeByte(PUT);
+            log.writeUTF(entry.relativePath);
+            log.writeLong(entry.size);
+            log.writeLong(entry.lastModified);
+            writeString(log, entry.contentType);
+            writeString(log, entry.eTag);
+            writeString(log, entry.upstreamLastModified);
+            if (!loading) log.flush();
+            logRecords++;
+        } catch (IOException e) {
+            // the entry is still in memory, it'll be missing after a restart
+        }
+    }
+
+    private void appendRemove(final String relativePath) {
+        if (log == null) return;
+        try {
+            log.writeByte(REMOVE);
+            log.writeUTF(relativePath);
+            if (!loading) log.flush();
+            logRecords++;
+        } catch (IOException e) {
+            // the file will be in the index after a restart and re-fetched once it's found missing
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        out.writeUTF(s == null ? "" : s);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final String s = in.readUTF();
+        return s.isEmpty() ? null : s;
+    }
+
+    private String relativize(final File file) {
+        return cacheBase.relativize(file.toPath()).toString();
+    }
+
+    /**
+     * 64 bit FNV-1a hash.
+     *
+     * @param s string
+     * @return hash
+     */
+    static long hash(final String s) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i=0; i<s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Stream that ends after a given number of bytes.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            final int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) return -1;
+            final int justRead = super.read(b, off, (int) Math.min(len, remaining));
+            if (justRead > 0) remaining -= justRead;
+            return justRead;
+        }
+    }
+
+    /**
+     * Metadata of a cached file.
+     */
+    public static class Entry implements BasicFileAttributes {
+
+        private final String relativePath;
+        private final long size;
+        private final long lastModified;
+        private final String contentType;
+        private final String eTag;
+        private final String upstreamLastModified;
+
+        private Entry(final String relativePath, final long size, final long lastModified, final String contentType,
+                      final String eTag, final String upstreamLastModified) {
+            this.relativePath = relativePath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.upstreamLastModified = upstreamLastModified;
+        }
+
+        /**
+         * Content type reported by the target server.
+         *
+         * @return content type or {@code null}, if unknown
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * ETag reported by the target server.
+         *
+         * @return ETag or {@code null}, if unknown
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Last modified date reported by the target server.
+         *
+         * @return value of the {@code Last-Modified} header or {@code null}, if unknown
+         */
+        public String getUpstreamLastModified() {
+            return upstreamLastModified;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Counters and latency {@link Histogram histograms} for one {@link CoxyServlet}.
+ * Recording is lock-free and allocation-free, so it can be done on every request.
+ * </p>
+ * <p>
+ * The metrics are exposed in the <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus
+ * text format</a> via {@link #writePrometheus(PrintWriter)} (see {@link MetricsServlet}) and
+ * via JMX as {@link MetricsMBean}.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class Metrics implements MetricsMBean {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * How a request was answered.
+     */
+    public enum Outcome {
+        /** From the cache. */
+        HIT,
+        /** From the target server. */
+        MISS,
+        /** From the cache, although the file is stale. */
+        STALE,
+        /** With an error, e.g. from the negative cache or because the rate limit was hit. */
+        ERROR
+    }
+
+    private final String resolver;
+    private final UpstreamClient upstreamClient;
+    private final RateLimitGovernor rateLimitGovernor;
+    private final AtomicLong[] outcomes = new AtomicLong[Outcome.values().length];
+    private final Histogram hitLatency = new Histogram();
+    private final Histogram missLatency = new Histogram();
+    private final Histogram upstreamLatency = new Histogram();
+    private final Histogram storeLatency = new Histogram();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+
+    /**
+     * Creates metrics.
+     *
+     * @param resolver name of the resolver, used as label
+     * @param upstreamClient client to report the in-flight requests of
+     * @param rateLimitGovernor governor to report the rate limit of
+     */
+    public Metrics(final String resolver, final UpstreamClient upstreamClient, final RateLimitGovernor rateLimitGovernor) {
+        this.resolver = resolver;
+        this.upstreamClient = upstreamClient;
+        this.rateLimitGovernor = rateLimitGovernor;
+        for (int i=0; i<outcomes.length; i++) {
+            outcomes[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Records how a request was answered.
+     *
+     * @param outcome outcome
+     * @param nanos time it took to answer the request
+     */
+    public void recordRequest(final Outcome outcome, final long nanos) {
+        outcomes[outcome.ordinal()].incrementAndGet();
+        if (outcome == Outcome.HIT) hitLatency.record(nanos);
+        else if (outcome == Outcome.MISS) missLatency.record(nanos);
+    }
+
+    /**
+     * Records how long it took the target server to respond (excluding the body).
+     *
+     * @param nanos duration
+     */
+    public void recordUpstream(final long nanos) {
+        upstreamLatency.record(nanos);
+    }
+
+    /**
+     * Records that a resource was written to the cache.
+     *
+     * @param bytes size of the resource
+     * @param nanos time it took to receive and write the body
+     */
+    public void recordStore(final long bytes, final long nanos) {
+        bytesFetched.addAndGet(bytes);
+        storeLatency.record(nanos);
+    }
+
+    /**
+     * Records bytes sent to clients.
+     *
+     * @param bytes bytes
+     */
+    public void addBytesServed(final long bytes) {
+        bytesServed.addAndGet(bytes);
+    }
+
+    public long getCount(final Outcome outcome) {
+        return outcomes[outcome.ordinal()].get();
+    }
+
+    public Histogram getHitLatency() {
+        return hitLatency;
+    }
+
+    public Histogram getMissLatency() {
+        return missLatency;
+    }
+
+    public Histogram getUpstreamLatency() {
+        return upstreamLatency;
+    }
+
+    public Histogram getStoreLatency() {
+        return storeLatency;
+    }
+
+    @Override
+    public String getResolver() {
+        return resolver;
+    }
+
+    @Override
+    public long getHits() {
+        return getCount(Outcome.HIT);
+    }
+
+    @Override
+    public long getMisses() {
+        return getCount(Outcome.MISS);
+    }
+
+    @Override
+    public long getStaleHits() {
+        return getCount(Outcome.STALE);
+    }
+
+    @Override
+    public long getErrors() {
+        return getCount(Outcome.ERROR);
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = getHits() + getStaleHits();
+        final long total = hits + getMisses() + getErrors();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getHitLatency50thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(hitLatency.getValueAtQuantile(0.5));
+    }
+
+    @Override
+    public long getHitLatency99thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(hitLatency.getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public long getMissLatency99thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(missLatency.getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public long getUpstreamLatency50thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(upstreamLatency.getValueAtQuantile(0.5));
+    }
+
+    @Override
+    public long getUpstreamLatency99thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(upstreamLatency.getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public long getStoreLatency99thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(storeLatency.getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    @Override
+    public int getUpstreamInFlight() {
+        return upstreamClient.getInFlight();
+    }
+
+    @Override
+    public int getRateLimitRemaining() {
+        return rateLimitGovernor.getRemaining();
+    }
+
+    @Override
+    public long getRateLimitResetTimeMillis() {
+        return rateLimitGovernor.getResetTimeMillis();
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param out writer
+     */
+    public void writePrometheus(final PrintWriter out) {
+        final String labels = "resolver=\"" + resolver + "\"";
+        header(out, "coxy_requests_total", "counter", "Requests by outcome.");
+        for (final Outcome outcome : Outcome.values()) {
+            out.println("coxy_requests_total{" + labels + ",outcome=\"" + outcome.name().toLowerCase() + "\"} " + getCount(outcome));
+        }
+        summary(out, "coxy_hit_duration_seconds", "Time to answer requests from the cache.", labels, hitLatency);
+        summary(out, "coxy_miss_duration_seconds", "Time to answer requests from the target server.", labels, missLatency);
+        summary(out, "coxy_upstream_duration_seconds", "Time until the target server responded.", labels, upstreamLatency);
+        summary(out, "coxy_store_duration_seconds", "Time to receive a resource and write it to the cache.", labels, storeLatency);
+        header(out, "coxy_served_bytes_total", "counter", "Bytes sent to clients.");
+        out.println("coxy_served_bytes_total{" + labels + "} " + getBytesServed());
+        header(out, "coxy_fetched_bytes_total", "counter", "Bytes fetched from the target server.");
+        out.println("coxy_fetched_bytes_total{" + labels + "} " + getBytesFetched());
+        header(out, "coxy_upstream_inflight", "gauge", "Requests to the target server in flight.");
+        out.println("coxy_upstream_inflight{" + labels + "} " + getUpstreamInFlight());
+        header(out, "coxy_ratelimit_remaining", "gauge", "Estimated remaining requests, -1 if unknown.");
+        out.println("coxy_ratelimit_remaining{" + labels + "} " + getRateLimitRemaining());
+        header(out, "coxy_ratelimit_reset_timestamp_seconds", "gauge", "Time at which the rate limit is reset, -1 if unknown.");
+        final long reset = getRateLimitResetTimeMillis();
+        out.println("coxy_ratelimit_reset_timestamp_seconds{" + labels + "} " + (reset < 0 ? -1 : reset / 1000L));
+        header(out, "coxy_ratelimit_requests_total", "counter", "Requests to the target server permitted or denied by the rate limit.");
+        out.println("coxy_ratelimit_requests_total{" + labels + ",result=\"permitted\"} " + rateLimitGovernor.getPermitted());
+        out.println("coxy_ratelimit_requests_total{" + labels + ",result=\"denied\"} " + rateLimitGovernor.getDenied());
+    }
+
+    private static void header(final PrintWriter out, final String name, final String type, final String help) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " " + type);
+    }
+
+    private static void summary(final PrintWriter out, final String name, final String help,
+                                final String labels, final Histogram histogram) {
+        header(out, name, "summary", help);
+        for (final double quantile : QUANTILES) {
+            out.println(name + "{" + labels + ",quantile=\"" + quantile + "\"} " + toSeconds(histogram.getValueAtQuantile(quantile)));
+        }
+        out.println(name + "_sum{" + labels + "} " + toSeconds(histogram.getSum()));
+        out.println(name + "_count{" + labels + "} " + histogram.getCount());
+    }
+
+    private static double toSeconds(final long nanos) {
+        return nanos / 1e9;
+    }
+
+    @Override
+    public String toString() {
+        return "Metrics{" +
+                "resolver=" + resolver +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", stale=" + getStaleHits() +
+                ", errors=" + getErrors() +
+                ", bytesServed=" + getBytesServed() +
+                ", bytesFetched=" + getBytesFetched() +
+                '}';
+    }
+}
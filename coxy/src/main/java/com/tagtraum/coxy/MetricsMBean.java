@@ -0,0 +1,64 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+/**
+ * JMX view of the {@link Metrics}.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public interface MetricsMBean {
+
+    String getResolver();
+
+    long getHits();
+
+    long getMisses();
+
+    long getStaleHits();
+
+    long getErrors();
+
+    /**
+     * Fraction of requests answered from the cache (fresh or stale).
+     *
+     * @return hit ratio or {@code 0}, if there were no requests yet
+     */
+    double getHitRatio();
+
+    long getHitLatency50thPercentileMicros();
+
+    long getHitLatency99thPercentileMicros();
+
+    long getMissLatency99thPercentileMicros();
+
+    long getUpstreamLatency50thPercentileMicros();
+
+    long getUpstreamLatency99thPercentileMicros();
+
+    long getStoreLatency99thPercentileMicros();
+
+    long getBytesServed();
+
+    long getBytesFetched();
+
+    int getUpstreamInFlight();
+
+    /**
+     * Remaining requests according to the target server's last {@code X-RateLimit-Remaining} header.
+     *
+     * @return remaining requests or {@code -1}, if not known
+     */
+    int getRateLimitRemaining();
+
+    /**
+     * Time at which the target server's rate limit is reset.
+     *
+     * @return time in ms since 1970 or {@code -1}, if not known
+     */
+    long getRateLimitResetTimeMillis();
+}
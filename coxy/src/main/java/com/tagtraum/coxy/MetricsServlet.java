@@ -0,0 +1,51 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.regex.Pattern;
+
+import static javax.servlet.http.HttpServletResponse.*;
+
+/**
+ * <p>
+ * Serves the {@link Metrics} the {@link CoxyServlet} registered as servlet context attribute
+ * in the Prometheus text format.
+ * </p>
+ * <p>
+ * Only requests from addresses matching {@code -Dmetrics.allow=...} are accepted.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final Pattern ALLOW = Pattern.compile(System.getProperty("metrics.allow", "127\\.0\\.0\\.1|0:0:0:0:0:0:0:1|::1"));
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        if (!ALLOW.matcher(req.getRemoteAddr()).matches()) {
+            resp.sendError(SC_FORBIDDEN);
+            return;
+        }
+        final Metrics metrics = (Metrics) getServletContext().getAttribute(Metrics.class.getName());
+        if (metrics == null) {
+            resp.sendError(SC_SERVICE_UNAVAILABLE, "Metrics are not available.");
+            return;
+        }
+        resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        final PrintWriter writer = resp.getWriter();
+        metrics.writePrometheus(writer);
+        writer.close();
+    }
+}
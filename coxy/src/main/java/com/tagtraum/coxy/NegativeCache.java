@@ -0,0 +1,273 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Remembers failed fetches from the target server, so that repeated requests for
+ * resources that don't exist can be answered locally without spending an upstream
+ * request (and a rate limit token) every time.
+ * </p>
+ * <p>
+ * Entries are keyed by the file the resource would be cached in and expire after a
+ * status dependent time: {@code 404 Not Found} and {@code 410 Gone} are unlikely to change,
+ * other client and server errors may be temporary. The number of entries kept in memory is bounded,
+ * least recently used entries are evicted first.
+ * </p>
+ * <p>
+ * Optionally, entries are also persisted as hidden marker files next to the file
+ * the resource would be cached in, so that they survive restarts and evictions from memory.
+ * The marker's last modified time is the time the entry expires.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class NegativeCache {
+
+    private static final String MARKER_SUFFIX = ".negative";
+
+    private final long notFoundTtl;
+    private final long errorTtl;
+    private final boolean persistent;
+    private final LinkedHashMap<File, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a negative cache.
+     *
+     * @param maxEntries max number of entries to keep in memory
+     * @param notFoundTtl time in ms to remember {@code 404} and {@code 410} responses
+     * @param errorTtl time in ms to remember other error responses
+     * @param persistent if true, entries are also stored as marker files
+     */
+    public NegativeCache(final int maxEntries, final long notFoundTtl, final long errorTtl, final boolean persistent) {
+        this.notFoundTtl = notFoundTtl;
+        this.errorTtl = errorTtl;
+        this.persistent = persistent;
+        this.entries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<File, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Looks up a failed fetch.
+     *
+     * @param file file the resource would be cached in
+     * @return entry or {@code null}, if there is no current entry
+     */
+    public Entry get(final File file) {
+        return get(file, System.currentTimeMillis());
+    }
+
+    Entry get(final File file, final long now) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file);
+            if (entry != null && entry.isExpired(now)) {
+                entries.remove(file);
+                entry = null;
+            }
+        }
+        if (entry == null && persistent) {
+            entry = readMarker(file, now);
+            if (entry != null) {
+                synchronized (this) {
+                    entries.put(file, entry);
+                }
+            }
+        }
+        if (entry == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Remembers a failed fetch, if the status code is worth remembering.
+     *
+     * @param file file the resource would be cached in
+     * @param statusCode HTTP status code returned by the target server
+     * @param message status message
+     */
+    public void put(final File file, final int statusCode, final String message) {
+        put(file, statusCode, message, System.currentTimeMillis());
+    }
+
+    void put(final File file, final int statusCode, final String message, final long now) {
+        final long ttl = getTtl(statusCode);
+        if (ttl <= 0) return;
+        final Entry entry = new Entry(statusCode, message, now + ttl);
+        synchronized (this) {
+            entries.put(file, entry);
+        }
+        if (persistent) {
+            writeMarker(file, entry);
+        }
+    }
+
+    /**
+     * Forgets a failed fetch, e.g. because the resource was fetched successfully.
+     *
+     * @param file file the resource is cached in
+     */
+    public void remove(final File file) {
+        synchronized (this) {
+            entries.remove(file);
+        }
+        if (persistent) {
+            try {
+                Files.deleteIfExists(toMarker(file));
+            } catch (IOException e) {
+                // ignore, will expire eventually
+            }
+        }
+    }
+
+    /**
+     * Time to remember a response with the given status code.
+     *
+     * @param statusCode HTTP status code
+     * @return time in ms, {@code 0}, if the response should not be remembered
+     */
+    protected long getTtl(final int statusCode) {
+        switch (statusCode) {
+            case 404:
+            case 410:
+                return notFoundTtl;
+            case 429:
+                // rate limiting is taken care of elsewhere
+                return 0;
+            default:
+                return statusCode >= 400 ? errorTtl : 0;
+        }
+    }
+
+    /**
+     * Number of entries in memory.
+     *
+     * @return entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Indicates whether the given file is a marker written by a negative cache.
+     *
+     * @param path file
+     * @return true, if it's a marker
+     */
+    public static boolean isMarker(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(MARKER_SUFFIX);
+    }
+
+    private static Path toMarker(final File file) {
+        return new File(file.getParentFile(), "." + file.getName() + MARKER_SUFFIX).toPath();
+    }
+
+    private static Entry readMarker(final File file, final long now) {
+        final Path marker = toMarker(file);
+        try {
+            final long expires = Files.readAttributes(marker, BasicFileAttributes.class).lastModifiedTime().toMillis();
+            if (expires <= now) {
+                Files.deleteIfExists(marker);
+                return null;
+            }
+            final String content = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8);
+            final int space = content.indexOf(' ');
+            final int statusCode = Integer.parseInt(space < 0 ? content : content.substring(0, space));
+            return new Entry(statusCode, space < 0 ? "" : content.substring(space + 1), expires);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | NumberFormatException e) {
+            // unreadable marker, treat as not there
+            return null;
+        }
+    }
+
+    private static void writeMarker(final File file, final Entry entry) {
+        final Path marker = toMarker(file);
+        try {
+            Files.createDirectories(marker.getParent());
+            Files.write(marker, (entry.getStatusCode() + " " + entry.getMessage()).getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(marker, FileTime.fromMillis(entry.getExpires()));
+        } catch (IOException e) {
+            // not persisted, but still in memory
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NegativeCache{" +
+                "entries=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", persistent=" + persistent +
+                '}';
+    }
+
+    /**
+     * Failed fetch.
+     */
+    public static class Entry {
+
+        private final int statusCode;
+        private final String message;
+        private final long expires;
+
+        public Entry(final int statusCode, final String message, final long expires) {
+            this.statusCode = statusCode;
+            this.message = message;
+            this.expires = expires;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Point in time when this entry expires.
+         *
+         * @return ms since 1970
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+        public boolean isExpired(final long now) {
+            return now >= expires;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Shares the caches of several Coxy instances. Every instance (peer) owns a part of all paths,
+ * as determined by a consistent-hash ring. On a miss, the owner of the path is asked first,
+ * so that each resource is fetched from the target server by one peer only.
+ * The owner fetches the resource from the target server on a miss, just like for any other client.
+ * </p>
+ * <p>
+ * Peers are configured statically, but only healthy peers are part of the ring. Peers are
+ * checked in the background by requesting {@link #HEALTH_PATH}, and taken out of the ring
+ * immediately, if a request to them fails. When a peer leaves or joins the ring, only the paths
+ * it owns move.
+ * </p>
+ * <p>
+ * Requests to peers carry the {@link #PEER_HEADER} header. Peers never forward such requests
+ * to other peers, so that different views of the ring cannot lead to loops.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class PeerCache implements AutoCloseable {
+
+    /**
+     * Header marking requests from other peers.
+     */
+    public static final String PEER_HEADER = "X-Coxy-Peer";
+    /**
+     * Path answered with {@code 204 No Content} by healthy peers.
+     */
+    public static final String HEALTH_PATH = "/_health";
+
+    private final String self;
+    private final Map<String, UpstreamClient> peers = new LinkedHashMap<>();
+    private final Set<String> down = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final int virtualNodes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile NavigableMap<Integer, String> ring;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a peer cache.
+     *
+     * @param self base URL of this instance, as used by the other peers
+     * @param peers base URLs of all peers, may contain {@code self}
+     * @param virtualNodes number of points on the ring per peer, more points spread paths more evenly
+     * @param clients client for each peer, with the peer's base URL as target base
+     */
+    public PeerCache(final String self, final List<String> peers, final int virtualNodes, final List<UpstreamClient> clients) {
+        this.self = self;
+        this.virtualNodes = virtualNodes;
+        for (int i = 0; i < peers.size(); i++) {
+            if (!peers.get(i).equals(self)) {
+                this.peers.put(peers.get(i), clients.get(i));
+            }
+        }
+        updateRing();
+    }
+
+    /**
+     * Starts checking the health of peers in the background.
+     *
+     * @param interval delay between two checks in ms
+     */
+    public synchronized void start(final long interval) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-peer-health");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkHealth();
+                } catch (RuntimeException e) {
+                    // try again next time
+                }
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks all peers and updates the ring.
+     */
+    void checkHealth() {
+        boolean changed = false;
+        for (final Map.Entry<String, UpstreamClient> peer : peers.entrySet()) {
+            boolean healthy;
+            try (final UpstreamResponse response = peer.getValue().fetch(HEALTH_PATH, Collections.singletonMap(PEER_HEADER, self))) {
+                healthy = response.getStatusCode() == 204;
+            } catch (IOException e) {
+                healthy = false;
+            }
+            changed |= healthy ? down.remove(peer.getKey()) : down.add(peer.getKey());
+        }
+        if (changed) updateRing();
+    }
+
+    private void markDown(final String peer) {
+        if (down.add(peer)) updateRing();
+    }
+
+    private synchronized void updateRing() {
+        final NavigableMap<Integer, String> ring = new TreeMap<>();
+        final List<String> members = new ArrayList<>();
+        members.add(self);
+        for (final String peer : peers.keySet()) {
+            if (!down.contains(peer)) members.add(peer);
+        }
+        for (final String member : members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(member + '#' + i), member);
+            }
+        }
+        this.ring = ring;
+    }
+
+    /**
+     * Owner of the given path.
+     *
+     * @param path path info
+     * @return base URL of the owner or {@code null}, if we own the path ourselves
+     */
+    public String getOwner(final String path) {
+        final NavigableMap<Integer, String> ring = this.ring;
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(hash(path));
+        if (entry == null) entry = ring.firstEntry();
+        return entry == null || entry.getValue().equals(self) ? null : entry.getValue();
+    }
+
+    /**
+     * Fetches the resource with the given path from its owner, unless we own it ourselves.
+     * Only answers the owner is sure about ({@code 200}, {@code 404}, {@code 410}) are returned.
+     *
+     * @param path path info
+     * @return response, must be closed, or {@code null}, if the resource must be fetched from the target server
+     */
+    public UpstreamResponse fetch(final String path) {
+        final String owner = getOwner(path);
+        if (owner == null) return null;
+        final UpstreamResponse response;
+        try {
+            response = peers.get(owner).fetch(path, Collections.singletonMap(PEER_HEADER, self));
+        } catch (UpstreamBusyException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            markDown(owner);
+            return null;
+        }
+        try {
+            final int statusCode = response.getStatusCode();
+            if (statusCode == 200 || statusCode == 404 || statusCode == 410) {
+                hits.incrementAndGet();
+                return response;
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            markDown(owner);
+        }
+        misses.incrementAndGet();
+        try {
+            response.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        return null;
+    }
+
+    private static int hash(final String s) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | digest[3] & 0xff;
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE must support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Peers currently part of the ring, not counting ourselves.
+     *
+     * @return healthy peers
+     */
+    public int getHealthy() {
+        return peers.size() - down.size();
+    }
+
+    /**
+     * Number of misses answered by their owner since start.
+     *
+     * @return hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of misses the owner could not answer since start, e.g. because it was busy or
+     * had to give up itself.
+     *
+     * @return misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of failed requests to peers since start.
+     *
+     * @return failures
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (final UpstreamClient client : peers.values()) {
+            client.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PeerCache{" +
+                "self='" + self + '\'' +
+                ", peers=" + peers.size() +
+                ", healthy=" + getHealthy() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", failures=" + failures +
+                '}';
+    }
+}
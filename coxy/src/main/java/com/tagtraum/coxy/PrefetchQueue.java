@@ -0,0 +1,239 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Persistent FIFO queue of paths to prefetch. A path that is already queued or
+ * currently being prefetched is not queued again.
+ * </p>
+ * <p>
+ * All changes are appended to a journal file ({@code +path} when a path is added,
+ * {@code -path} when it is {@link #done(String) done}), which is replayed and compacted
+ * when the queue is {@link #load() loaded}. Paths that were being prefetched when the
+ * process stopped are therefore prefetched again.
+ * </p>
+ * <p>
+ * While running, the journal is compacted, once it has grown to several times the number of
+ * queued and in-progress paths. Done paths are flushed at most once per second or when the
+ * queue runs empty, so after a crash a few of them may be prefetched again, which is harmless.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class PrefetchQueue implements AutoCloseable {
+
+    /** Compact, once the journal has this many records per queued or in-progress path... */
+    private static final int COMPACT_FACTOR = 4;
+    /** ...plus this many. */
+    private static final int COMPACT_SLACK = 1000;
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final File journalFile;
+    private final int maxSize;
+    private final LinkedHashSet<String> queued = new LinkedHashSet<>();
+    private final Set<String> inProgress = new HashSet<>();
+    private Writer journal;
+    private int records;
+    private long lastFlush;
+
+    /**
+     * Creates a queue. Call {@link #load()} before using it.
+     *
+     * @param journalFile file to keep the journal in
+     * @param maxSize max number of queued paths
+     */
+    public PrefetchQueue(final File journalFile, final int maxSize) {
+        this.journalFile = journalFile;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Replays and compacts the journal.
+     *
+     * @throws IOException if reading or writing the journal fails
+     */
+    public synchronized void load() throws IOException {
+        if (journalFile.exists()) {
+            try (final BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() < 2) continue;
+                    final String path = line.substring(1);
+                    if (line.charAt(0) == '+') queued.add(path);
+                    else if (line.charAt(0) == '-') queued.remove(path);
+                }
+            }
+        }
+        rewriteJournal();
+    }
+
+    /**
+     * Adds a path to the end of the queue. Call {@link #flush()} after adding a batch of paths.
+     *
+     * @param path path
+     * @return true, if the path was added, false if it was already queued or the queue is full
+     */
+    public synchronized boolean add(final String path) {
+        if (path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) return false;
+        if (queued.size() >= maxSize || inProgress.contains(path) || !queued.add(path)) return false;
+        write('+', path);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Writes all added paths to disk.
+     */
+    public synchronized void flush() {
+        if (journal == null) return;
+        lastFlush = System.nanoTime();
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            // they're still in memory
+        }
+    }
+
+    /**
+     * Takes the next path from the queue. The path is considered to be in progress,
+     * until {@link #done(String)} is called.
+     *
+     * @param timeout max time to wait for a path
+     * @param unit time unit
+     * @return path or {@code null}, if the queue stayed empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized String take(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        if (queued.isEmpty()) flush();
+        while (queued.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (queued.isEmpty()) return null;
+        final Iterator<String> iterator = queued.iterator();
+        final String path = iterator.next();
+        iterator.remove();
+        inProgress.add(path);
+        return path;
+    }
+
+    /**
+     * Marks a path taken from the queue as done.
+     *
+     * @param path path
+     */
+    public synchronized void done(final String path) {
+        if (!inProgress.remove(path)) return;
+        final int live = queued.size() + inProgress.size();
+        if (journal != null && (live == 0 || records >= COMPACT_FACTOR * live + COMPACT_SLACK)) {
+            // start over with a journal of just the live paths
+            try {
+                rewriteJournal();
+                return;
+            } catch (IOException e) {
+                // then just append
+            }
+        }
+        write('-', path);
+        if (System.nanoTime() - lastFlush >= FLUSH_INTERVAL) flush();
+    }
+
+    /**
+     * Number of queued paths, not counting the ones in progress.
+     *
+     * @return size
+     */
+    public synchronized int size() {
+        return queued.size();
+    }
+
+    /**
+     * Number of paths in progress.
+     *
+     * @return paths in progress
+     */
+    public synchronized int getInProgress() {
+        return inProgress.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            journal = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchQueue{" +
+                "journal=" + journalFile +
+                ", size=" + size() +
+                ", inProgress=" + getInProgress() +
+                '}';
+    }
+
+    private void write(final char operation, final String path) {
+        if (journal == null) return;
+        try {
+            journal.write(operation);
+            journal.write(path);
+            journal.write('\n');
+            records++;
+        } catch (IOException e) {
+            // still in memory, but lost after a restart
+        }
+    }
+
+    /**
+     * Replaces the journal with one that only contains the queued and in-progress paths.
+     */
+    private void rewriteJournal() throws IOException {
+        close();
+        Files.createDirectories(journalFile.getParentFile().toPath());
+        final File tempFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tempFile.toPath()), StandardCharsets.UTF_8))) {
+            for (final String path : inProgress) {
+                writer.write('+');
+                writer.write(path);
+                writer.write('\n');
+            }
+            for (final String path : queued) {
+                writer.write('+');
+                writer.write(path);
+                writer.write('\n');
+            }
+        }
+        Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = inProgress.size() + queued.size();
+        lastFlush = System.nanoTime();
+        journal = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(journalFile.toPath(),
+                StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.regex.Pattern;
+
+import static javax.servlet.http.HttpServletResponse.*;
+
+/**
+ * <p>
+ * Accepts lists of paths to prefetch, one path per line, e.g.:
+ * </p>
+ * <pre>
+ * curl -H 'Content-Type: text/plain' --data-binary @paths.txt http://localhost:8080/coxy/_prefetch
+ * </pre>
+ * <p>
+ * Lines not starting with {@code /} are prefixed with the {@code prefix} request parameter,
+ * so that plain file name lists (e.g. created with {@code ls -LR}) can be used as well.
+ * Empty lines and lines ending with {@code :} (directory headers in {@code ls -R} output)
+ * are ignored. The list is streamed, i.e. it can be arbitrarily long.
+ * </p>
+ * <p>
+ * The paths are handed to the {@link Prefetcher} the {@link CoxyServlet} registered as
+ * servlet context attribute. A {@code GET} request returns its current state.
+ * Only requests from addresses matching {@code -Dprefetch.allow=...} are accepted.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class PrefetchServlet extends HttpServlet {
+
+    private static final Pattern ALLOW = Pattern.compile(System.getProperty("prefetch.allow", "127\\.0\\.0\\.1|0:0:0:0:0:0:0:1|::1"));
+
+    @Override
+    protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        final Prefetcher prefetcher = getPrefetcher(req, resp);
+        if (prefetcher == null) return;
+        // get the reader first, so that form encoded bodies aren't parsed as parameters
+        final BufferedReader reader = req.getReader();
+        final String prefix = req.getParameter("prefix") != null ? req.getParameter("prefix") : "/";
+        int total = 0;
+        int queued = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.endsWith(":")) continue;
+            total++;
+            final String path = line.startsWith("/") ? line : prefix + line;
+            if (prefetcher.add(path)) queued++;
+        }
+        prefetcher.flush();
+        log("Queued " + queued + " of " + total + " paths for prefetching. " + prefetcher);
+        resp.setStatus(SC_ACCEPTED);
+        resp.setContentType("text/plain");
+        final PrintWriter writer = resp.getWriter();
+        writer.println("Queued " + queued + " of " + total + " paths.");
+        writer.println(prefetcher);
+        writer.close();
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        final Prefetcher prefetcher = getPrefetcher(req, resp);
+        if (prefetcher == null) return;
+        resp.setContentType("text/plain");
+        final PrintWriter writer = resp.getWriter();
+        writer.println(prefetcher);
+        writer.close();
+    }
+
+    /**
+     * Looks up the prefetcher, if the client is allowed to use it.
+     *
+     * @param req request
+     * @param resp response, used to report errors
+     * @return prefetcher or {@code null}, if an error was sent
+     */
+    private Prefetcher getPrefetcher(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        if (!ALLOW.matcher(req.getRemoteAddr()).matches()) {
+            log("Attempt to use prefetching by " + req.getRemoteAddr());
+            resp.sendError(SC_FORBIDDEN);
+            return null;
+        }
+        final Prefetcher prefetcher = (Prefetcher) getServletContext().getAttribute(Prefetcher.class.getName());
+        if (prefetcher == null) {
+            resp.sendError(SC_SERVICE_UNAVAILABLE, "Prefetching is not enabled.");
+            return null;
+        }
+        return prefetcher;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Drains a {@link PrefetchQueue} in the background, so that resources are in the
+ * cache before anybody asks for them.
+ * </p>
+ * <p>
+ * Before each prefetch, the {@link Fetcher} is asked whether the resource is needed at all and,
+ * if so, for permission. This allows it to hold prefetches back, e.g. while the rate limit is tight
+ * or requests from clients are waiting for the target server, without spending permits on resources
+ * that are cached already. Nor are permits spent on resources the {@link Fetcher} can get without the
+ * target server, e.g. by deriving them from other cached resources.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class Prefetcher implements AutoCloseable {
+
+    private static final long MAX_WAIT = 1000L;
+
+    private final PrefetchQueue queue;
+    private final Fetcher fetcher;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param queue queue to drain
+     * @param fetcher fetcher
+     */
+    public Prefetcher(final PrefetchQueue queue, final Fetcher fetcher) {
+        this.queue = queue;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Starts the worker threads.
+     *
+     * @param threads number of worker threads
+     */
+    public synchronized void start(final int threads) {
+        for (int i=0; i<threads; i++) {
+            final Thread worker = new Thread("coxy-prefetch-" + (i + 1)) {
+                @Override
+                public void run() {
+                    work();
+                }
+            };
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues a path for prefetching.
+     *
+     * @param path path
+     * @return true, if it was queued, false if it was already queued or the queue is full
+     */
+    public boolean add(final String path) {
+        return queue.add(path);
+    }
+
+    /**
+     * Makes sure that the paths added so far survive a restart.
+     */
+    public void flush() {
+        queue.flush();
+    }
+
+    private void work() {
+        while (!closed) {
+            final String path;
+            try {
+                path = queue.take(MAX_WAIT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // closed
+                return;
+            }
+            if (path == null) continue;
+            try {
+                if (fetcher.isNeeded(path) && !fetcher.prefetchWithoutPermit(path)) {
+                    long wait;
+                    while ((wait = fetcher.tryAcquire()) > 0) {
+                        Thread.sleep(Math.min(wait, MAX_WAIT));
+                    }
+                    fetcher.prefetch(path);
+                }
+                prefetched.incrementAndGet();
+            } catch (InterruptedException e) {
+                // closed, path remains in the journal
+                return;
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+            }
+            queue.done(path);
+        }
+    }
+
+    /**
+     * The queue.
+     *
+     * @return queue
+     */
+    public PrefetchQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Number of paths prefetched so far (including the ones that turned out to be cached already
+     * or don't exist).
+     *
+     * @return prefetched paths
+     */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * Number of paths that could not be prefetched because of an error.
+     *
+     * @return failed paths
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final List<Thread> workers;
+        synchronized (this) {
+            workers = new ArrayList<>(this.workers);
+            this.workers.clear();
+        }
+        for (final Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (final Thread worker : workers) {
+            try {
+                worker.join(MAX_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        queue.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Prefetcher{" +
+                "queued=" + queue.size() +
+                ", inProgress=" + queue.getInProgress() +
+                ", prefetched=" + getPrefetched() +
+                ", failed=" + getFailed() +
+                '}';
+    }
+
+    /**
+     * Fetches resources into the cache.
+     */
+    public interface Fetcher {
+
+        /**
+         * Indicates whether the resource for the given path must be fetched, i.e.
+         * it's neither cached nor known to be missing.
+         * Called before asking for permission.
+         *
+         * @param path path
+         * @return true, if the resource must be fetched
+         * @throws IOException if something goes wrong
+         */
+        boolean isNeeded(String path) throws IOException;
+
+        /**
+         * Fetches the resource for the given path into the cache, if that's possible without
+         * the target server, e.g. by deriving it from another cached resource or fetching it from a peer.
+         * Called before asking for permission.
+         *
+         * @param path path
+         * @return true, if there is nothing left to do, false, if the resource must be {@link #prefetch(String) prefetched}
+         * @throws IOException if something goes wrong
+         */
+        boolean prefetchWithoutPermit(String path) throws IOException;
+
+        /**
+         * Asks for permission to prefetch now.
+         *
+         * @return {@code 0}, if permitted, otherwise the time in ms to wait before asking again
+         */
+        long tryAcquire();
+
+        /**
+         * Fetches the resource for the given path into the cache, unless it's already there.
+         *
+         * @param path path
+         * @throws IOException if something goes wrong
+         */
+        void prefetch(String path) throws IOException;
+    }
+}
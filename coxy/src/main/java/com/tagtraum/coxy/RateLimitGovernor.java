@@ -0,0 +1,308 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Keeps track of the target server's rate limit, as reported via the
+ * {@code X-RateLimit-Limit}, {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset}
+ * headers, and decides whether another request may be sent.
+ * </p>
+ * <p>
+ * Instead of using up the whole quota and then refusing everything until the reset,
+ * requests are paced, i.e. the remaining quota is spread evenly over the time left until the
+ * reset (token bucket with a configurable burst size). Additionally, a part of the limit is
+ * reserved for {@link Priority#HIGH high priority} requests. High priority requests are not paced.
+ * {@link Priority#LOW Low priority} requests, e.g. prefetches, leave an even larger part of the limit
+ * to others and only get a slot, if pacing permits it without using up the burst.
+ * </p>
+ * <p>
+ * If the target server does not tell us when the quota is reset, the reported state is only
+ * trusted for {@link #UNKNOWN_RESET_WINDOW_MILLIS}, so that an exhausted quota never blocks
+ * requests forever.
+ * </p>
+ * <p>
+ * All methods are lock-free.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class RateLimitGovernor {
+
+    /**
+     * Request priority.
+     */
+    public enum Priority {
+        /**
+         * May use the reserved part of the quota and is not paced.
+         */
+        HIGH,
+        /**
+         * Regular request.
+         */
+        NORMAL,
+        /**
+         * Background request that must not get in the way of regular requests.
+         */
+        LOW
+    }
+
+    /**
+     * How long we trust reported values without a reset time, i.e. the rate limit window
+     * of the target server (Discogs uses a moving 60 second window).
+     */
+    static final long UNKNOWN_RESET_WINDOW_MILLIS = 60L * 1000L;
+    private static final long MICROS_PER_MILLI = 1000L;
+
+    private final double reserveFraction;
+    private final double lowReserveFraction;
+    private final int burst;
+    private final AtomicReference<State> state = new AtomicReference<>(State.UNKNOWN);
+    /**
+     * Requests permitted since the last update from the target server.
+     */
+    private final AtomicInteger consumed = new AtomicInteger();
+    /**
+     * Theoretical arrival time (GCRA) of the next paced request in microseconds.
+     */
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong();
+    private final AtomicLong permitted = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+
+    /**
+     * Creates a governor.
+     *
+     * @param reserveFraction fraction of the limit reserved for high priority requests, e.g. {@code 0.1}
+     * @param burst number of requests that may be sent at once, without pacing
+     */
+    public RateLimitGovernor(final double reserveFraction, final int burst) {
+        this(reserveFraction, reserveFraction, burst);
+    }
+
+    /**
+     * Creates a governor.
+     *
+     * @param reserveFraction fraction of the limit reserved for high priority requests, e.g. {@code 0.1}
+     * @param lowReserveFraction fraction of the limit low priority requests must not use, e.g. {@code 0.5}
+     * @param burst number of requests that may be sent at once, without pacing
+     */
+    public RateLimitGovernor(final double reserveFraction, final double lowReserveFraction, final int burst) {
+        this.reserveFraction = reserveFraction;
+        this.lowReserveFraction = Math.max(reserveFraction, lowReserveFraction);
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Updates the state with the rate limit headers from a response.
+     * Values we don't know should be {@code -1}.
+     *
+     * @param limit value of {@code X-RateLimit-Limit}
+     * @param remaining value of {@code X-RateLimit-Remaining}
+     * @param resetSeconds value of {@code X-RateLimit-Reset}, i.e. seconds until the quota is reset
+     */
+    public void update(final int limit, final int remaining, final int resetSeconds) {
+        update(limit, remaining, resetSeconds, System.currentTimeMillis());
+    }
+
+    void update(final int limit, final int remaining, final int resetSeconds, final long now) {
+        if (limit < 0 && remaining < 0 && resetSeconds < 0) return;
+        final long resetTimeMillis = resetSeconds < 0 ? -1 : now + resetSeconds * 1000L;
+        state.set(new State(limit, remaining, resetTimeMillis,
+                resetTimeMillis < 0 ? now + UNKNOWN_RESET_WINDOW_MILLIS : resetTimeMillis));
+        consumed.set(0);
+    }
+
+    /**
+     * Attempts to get permission to send a request to the target server.
+     *
+     * @param priority priority
+     * @return true, if the request may be sent
+     */
+    public boolean tryAcquire(final Priority priority) {
+        return tryAcquire(priority, System.currentTimeMillis());
+    }
+
+    boolean tryAcquire(final Priority priority, final long now) {
+        final State s = state.get();
+        if (!s.isKnown() || s.isExpired(now)) {
+            return permit();
+        }
+        final int remaining = s.remaining - consumed.get();
+        if (remaining <= 0) return deny();
+        if (priority == Priority.HIGH) return permit();
+        final int unreserved = remaining - getReserve(s);
+        if (unreserved <= 0 || priority == Priority.LOW && remaining - getLowReserve(s) <= 0) return deny();
+        if (s.resetTimeMillis < 0) return permit();
+
+        // pace the unreserved quota over the time left until the reset
+        final long nowMicros = now * MICROS_PER_MILLI;
+        final long interval = (s.resetTimeMillis - now) * MICROS_PER_MILLI / unreserved;
+        final long tolerance = priority == Priority.LOW ? 0 : interval * (burst - 1);
+        while (true) {
+            final long tat = theoreticalArrivalTime.get();
+            final long start = Math.max(tat, nowMicros);
+            if (start - nowMicros > tolerance) return deny();
+            if (theoreticalArrivalTime.compareAndSet(tat, start + interval)) return permit();
+        }
+    }
+
+    private boolean permit() {
+        consumed.incrementAndGet();
+        permitted.incrementAndGet();
+        return true;
+    }
+
+    private boolean deny() {
+        denied.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Indicates whether the quota is used up completely, i.e. not even
+     * high priority requests may be sent until the reset.
+     *
+     * @return true, if exhausted
+     */
+    public boolean isExhausted() {
+        final long now = System.currentTimeMillis();
+        final State s = state.get();
+        return s.isKnown() && !s.isExpired(now) && s.remaining - consumed.get() <= 0;
+    }
+
+    /**
+     * Estimated time in ms until a request with the given priority may be sent.
+     *
+     * @param priority priority
+     * @return wait time in ms, {@code 0} if a request may be sent right now
+     */
+    public long getWaitMillis(final Priority priority) {
+        final long now = System.currentTimeMillis();
+        final State s = state.get();
+        if (!s.isKnown() || s.isExpired(now)) return 0;
+        final int remaining = s.remaining - consumed.get();
+        final int reserve = priority == Priority.HIGH ? 0 : priority == Priority.LOW ? getLowReserve(s) : getReserve(s);
+        if (remaining - reserve <= 0) return Math.max(0, s.expirationTimeMillis - now);
+        if (priority == Priority.HIGH || s.resetTimeMillis < 0) return 0;
+        final long interval = (s.resetTimeMillis - now) * MICROS_PER_MILLI / (remaining - getReserve(s));
+        final long tolerance = priority == Priority.LOW ? 0 : interval * (burst - 1);
+        final long wait = theoreticalArrivalTime.get() - tolerance - now * MICROS_PER_MILLI;
+        return Math.max(0, wait / MICROS_PER_MILLI);
+    }
+
+    private int getReserve(final State s) {
+        return s.limit < 0 ? 0 : (int) Math.ceil(s.limit * reserveFraction);
+    }
+
+    private int getLowReserve(final State s) {
+        return s.limit < 0 ? 0 : (int) Math.ceil(s.limit * lowReserveFraction);
+    }
+
+    /**
+     * Last reported limit.
+     *
+     * @return limit or {@code -1}, if unknown
+     */
+    public int getLimit() {
+        return state.get().limit;
+    }
+
+    /**
+     * Estimated remaining requests, i.e. the last reported remaining requests
+     * minus the requests permitted since.
+     *
+     * @return remaining requests or {@code -1}, if unknown
+     */
+    public int getRemaining() {
+        final State s = state.get();
+        return s.remaining < 0 ? -1 : Math.max(0, s.remaining - consumed.get());
+    }
+
+    /**
+     * Number of requests reserved for high priority requests.
+     *
+     * @return reserved requests
+     */
+    public int getReserve() {
+        return getReserve(state.get());
+    }
+
+    /**
+     * Point in time when the quota is reset.
+     *
+     * @return reset time in ms since 1970 or {@code -1}, if unknown
+     */
+    public long getResetTimeMillis() {
+        return state.get().resetTimeMillis;
+    }
+
+    /**
+     * Number of requests permitted so far.
+     *
+     * @return permitted requests
+     */
+    public long getPermitted() {
+        return permitted.get();
+    }
+
+    /**
+     * Number of requests denied so far.
+     *
+     * @return denied requests
+     */
+    public long getDenied() {
+        return denied.get();
+    }
+
+    @Override
+    public String toString() {
+        final long resetTimeMillis = getResetTimeMillis();
+        return "RateLimitGovernor{" +
+                "limit=" + getLimit() +
+                ", remaining=" + getRemaining() +
+                ", reserve=" + getReserve() +
+                ", reset=" + (resetTimeMillis < 0 ? "unknown" : new Date(resetTimeMillis)) +
+                ", permitted=" + getPermitted() +
+                ", denied=" + getDenied() +
+                '}';
+    }
+
+    /**
+     * Immutable snapshot of the reported rate limit.
+     */
+    private static class State {
+
+        private static final State UNKNOWN = new State(-1, -1, -1, -1);
+
+        private final int limit;
+        private final int remaining;
+        private final long resetTimeMillis;
+        /**
+         * Reset time or, if unknown, the end of the fallback window.
+         */
+        private final long expirationTimeMillis;
+
+        private State(final int limit, final int remaining, final long resetTimeMillis, final long expirationTimeMillis) {
+            this.limit = limit;
+            this.remaining = remaining;
+            this.resetTimeMillis = resetTimeMillis;
+            this.expirationTimeMillis = expirationTimeMillis;
+        }
+
+        public boolean isKnown() {
+            return remaining >= 0;
+        }
+
+        public boolean isExpired(final long now) {
+            return expirationTimeMillis >= 0 && now >= expirationTimeMillis;
+        }
+    }
+}
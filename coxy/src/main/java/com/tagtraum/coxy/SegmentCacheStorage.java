@@ -0,0 +1,725 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Packs small resources into large, append-only segment files, so that millions of
+ * thumbnails don't need millions of files. Resources larger than {@code maxObjectSize}
+ * or of unknown length are handed to another storage, typically a {@link FileCacheStorage}.
+ * </p>
+ * <p>
+ * Each segment is a sequence of records: a header (type, last modified time, data length
+ * and key length), the key, i.e. the resolved file's path relative to the cache base, and
+ * the data. Records either put a resource, delete it or change its last modified time.
+ * Which record is current for a key is kept in an in-memory offset index, which is rebuilt
+ * by reading the record headers of all segments, when the storage is {@link #open() opened}.
+ * A record that was cut short by a crash is truncated.
+ * </p>
+ * <p>
+ * Resources are read using positional reads, or, once a segment is full and therefore immutable,
+ * optionally from a memory-mapped copy of it. Segments in which less than {@code compactThreshold}
+ * of the bytes belong to current records are compacted in the background by appending their
+ * current records to the active segment and deleting them afterwards, once no read from
+ * them is in progress anymore.
+ * </p>
+ * <p>
+ * Segments are never forced to disk. For a cache that's acceptable: A crash of the JVM loses
+ * nothing, but after a crash of the operating system, recently written records may be missing or
+ * contain garbage. Records carry no checksum, so only records with an invalid header are detected
+ * and truncated. After such a crash, delete the segment directory.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class SegmentCacheStorage implements CacheStorage {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte TOUCH = 3;
+    /** Type, last modified, data length, key length. */
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 2;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final File cacheBase;
+    private final File directory;
+    private final long segmentSize;
+    private final long maxObjectSize;
+    private final boolean mapped;
+    private final double compactThreshold;
+    private final FileSender fileSender;
+    private final CacheStorage large;
+    private final Map<String, Location> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final List<Segment> retired = new ArrayList<>();
+    private Segment active;
+    private long compacted;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a storage. Call {@link #open()} before using it.
+     *
+     * @param cacheBase cache base, keys are relative to it
+     * @param directory directory to keep the segments in
+     * @param segmentSize max size of a segment, at most 1gb
+     * @param maxObjectSize max size of a resource to store in a segment
+     * @param mapped memory-map full segments
+     * @param compactThreshold compact segments, once the fraction of current bytes falls below this value
+     * @param fileSender sender used to send resources to clients
+     * @param large storage for resources that are larger than {@code maxObjectSize}
+     */
+    public SegmentCacheStorage(final File cacheBase, final File directory, final long segmentSize,
+                               final long maxObjectSize, final boolean mapped, final double compactThreshold,
+                               final FileSender fileSender, final CacheStorage large) {
+        this.cacheBase = cacheBase;
+        this.directory = directory;
+        this.segmentSize = Math.min(segmentSize, 1L << 30);
+        this.maxObjectSize = maxObjectSize;
+        this.mapped = mapped;
+        this.compactThreshold = compactThreshold;
+        this.fileSender = fileSender;
+        this.large = large;
+    }
+
+    /**
+     * Reads all segments and rebuilds the index.
+     *
+     * @throws IOException if we fail to read the segments
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory.toPath());
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+                try {
+                    final int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(id, new Segment(id, file));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        for (final Segment segment : segments.values()) {
+            replay(segment);
+            segment.sealed = true;
+        }
+        if (segments.isEmpty()) {
+            active = createSegment(1);
+        } else {
+            active = segments.lastEntry().getValue();
+            active.sealed = false;
+        }
+    }
+
+    /**
+     * Starts compacting segments in the background.
+     *
+     * @param interval delay between two compaction runs in ms
+     */
+    public synchronized void start(final long interval) {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "coxy-compactor");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException | RuntimeException e) {
+                    // try again next time
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes(final File file) throws IOException {
+        final Location location;
+        synchronized (this) {
+            location = index.get(getKey(file));
+        }
+        return location != null ? location : large.readAttributes(file);
+    }
+
+    @Override
+    public void send(final File file, final BasicFileAttributes attributes, final OutputStream out,
+                     final long position, final long length) throws IOException {
+        if (!(attributes instanceof Location)) {
+            large.send(file, attributes, out, position, length);
+            return;
+        }
+        final Location location = (Location) attributes;
+        final Segment segment = location.segment;
+        segment.acquire();
+        try {
+            final ByteBuffer map = segment.getMap();
+            if (map != null) {
+                final ByteBuffer slice = map.duplicate();
+                slice.limit((int) (location.dataPosition + position + length));
+                slice.position((int) (location.dataPosition + position));
+                fileSender.send(slice, out);
+            } else {
+                fileSender.send(segment.getChannel(), location.dataPosition + position, length, out);
+            }
+        } finally {
+            segment.release();
+        }
+    }
+
+    @Override
+    public byte[] read(final File file, final BasicFileAttributes attributes) throws IOException {
+        if (!(attributes instanceof Location)) return large.read(file, attributes);
+        final Location location = (Location) attributes;
+        final ByteBuffer buffer = ByteBuffer.allocate((int) location.size);
+        location.segment.acquire();
+        try {
+            readFully(location.segment.getChannel(), buffer, location.dataPosition);
+        } finally {
+            location.segment.release();
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public long store(final File file, final InputStream in, final long expectedLength,
+                      final long lastModified, final OutputStream client) throws IOException {
+        final byte[] key = getKey(file).getBytes(StandardCharsets.UTF_8);
+        if (expectedLength < 0 || expectedLength > maxObjectSize || HEADER_SIZE + key.length + expectedLength > segmentSize) {
+            final long length = large.store(file, in, expectedLength, lastModified, client);
+            remove(getKey(file));
+            return length;
+        }
+        final ByteBuffer record = createRecord(PUT, lastModified, expectedLength, key);
+        final byte[] data = record.array();
+        final int start = record.position();
+        int count = 0;
+        OutputStream clientOut = client;
+        int justRead;
+        while (count < expectedLength && (justRead = in.read(data, start + count, (int) expectedLength - count)) != -1) {
+            if (clientOut != null) {
+                try {
+                    clientOut.write(data, start + count, justRead);
+                } catch (IOException e) {
+                    // client went away, but we still want the resource
+                    clientOut = null;
+                }
+            }
+            count += justRead;
+        }
+        if (count != expectedLength || in.read() != -1) {
+            throw new IOException("Incomplete resource for " + file + ": Expected "
+                    + expectedLength + " bytes, but got " + (count == expectedLength ? "more" : count) + ".");
+        }
+        record.position(0);
+        append(record, new String(key, StandardCharsets.UTF_8), lastModified, expectedLength);
+        large.delete(file);
+        return count;
+    }
+
+    @Override
+    public void setLastModified(final File file, final long lastModified) throws IOException {
+        final String key = getKey(file);
+        synchronized (this) {
+            final Location location = index.get(key);
+            if (location != null) {
+                final ByteBuffer record = createRecord(TOUCH, lastModified, 0, key.getBytes(StandardCharsets.UTF_8));
+                record.position(0);
+                write(record);
+                index.put(key, new Location(location.segment, location.dataPosition, location.size,
+                        lastModified, location.recordSize));
+                return;
+            }
+        }
+        large.setLastModified(file, lastModified);
+    }
+
+    @Override
+    public boolean delete(final File file) throws IOException {
+        final boolean removed = remove(getKey(file));
+        return large.delete(file) || removed;
+    }
+
+    /**
+     * Number of resources stored in segments.
+     *
+     * @return number of resources
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Number of segments.
+     *
+     * @return segments
+     */
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Number of segments compacted so far.
+     *
+     * @return compacted segments
+     */
+    public synchronized long getCompacted() {
+        return compacted;
+    }
+
+    /**
+     * Compacts all full segments with too few current records. Segments compacted by the
+     * previous call are deleted now, so that requests that already looked up a record in them
+     * can still read it, or, if they are still being read from, once the last read is done.
+     *
+     * @throws IOException if something goes wrong
+     */
+    void compact() throws IOException {
+        final List<Segment> candidates = new ArrayList<>();
+        final List<Segment> obsolete;
+        synchronized (this) {
+            obsolete = new ArrayList<>(retired);
+            retired.clear();
+            for (final Segment segment : segments.values()) {
+                if (segment.sealed && segment.liveBytes < segment.size * compactThreshold) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        for (final Segment segment : obsolete) {
+            segment.retire();
+        }
+        for (final Segment segment : candidates) {
+            compact(segment);
+            synchronized (this) {
+                segments.remove(segment.id);
+                retired.add(segment);
+                compacted++;
+            }
+        }
+    }
+
+    private void compact(final Segment segment) throws IOException {
+        final FileChannel channel = segment.getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+        while (position < segment.size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            final byte type = header.get();
+            final long lastModified = header.getLong();
+            final long dataLength = header.getLong();
+            final int keyLength = header.getShort() & MAX_KEY_LENGTH;
+            final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+            readFully(channel, keyBuffer, position + HEADER_SIZE);
+            final String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+            final long dataPosition = position + HEADER_SIZE + keyLength;
+            if (type == PUT) {
+                final Location location;
+                synchronized (this) {
+                    location = index.get(key);
+                }
+                if (location != null && location.segment == segment && location.dataPosition == dataPosition) {
+                    final ByteBuffer record = createRecord(PUT, location.lastModified, dataLength, keyBuffer.array());
+                    readFully(channel, record, dataPosition);
+                    record.position(0);
+                    synchronized (this) {
+                        // only, if it hasn't been replaced or touched in the meantime
+                        if (index.get(key) == location) {
+                            append(record, key, location.lastModified, dataLength);
+                        }
+                    }
+                }
+            } else if (type == DELETE && hasOlderSegment(segment)) {
+                // older segments may still contain the deleted resource, keep the tombstone
+                synchronized (this) {
+                    if (!index.containsKey(key)) {
+                        final ByteBuffer record = createRecord(DELETE, lastModified, 0, keyBuffer.array());
+                        record.position(0);
+                        write(record);
+                    }
+                }
+            } else if (type == TOUCH) {
+                synchronized (this) {
+                    final Location location = index.get(key);
+                    if (location != null && location.segment != segment && location.lastModified == lastModified) {
+                        final ByteBuffer record = createRecord(TOUCH, lastModified, 0, keyBuffer.array());
+                        record.position(0);
+                        write(record);
+                    }
+                }
+            }
+            position = dataPosition + dataLength;
+        }
+    }
+
+    private synchronized boolean hasOlderSegment(final Segment segment) {
+        return segments.lowerKey(segment.id) != null;
+    }
+
+    @Override
+    public void close() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (final Segment segment : segments.values()) {
+                segment.close();
+            }
+            for (final Segment segment : retired) {
+                segment.close();
+            }
+        }
+        large.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SegmentCacheStorage{" +
+                "directory=" + directory +
+                ", resources=" + index.size() +
+                ", segments=" + segments.size() +
+                ", compacted=" + compacted +
+                '}';
+    }
+
+    /**
+     * Key of the resource, i.e. the file path relative to the cache base.
+     */
+    private String getKey(final File file) throws IOException {
+        final String path = file.getPath();
+        final String base = cacheBase.getPath();
+        final String relative = path.startsWith(base) ? path.substring(base.length()) : path;
+        final String key = File.separatorChar == '/' ? relative : relative.replace(File.separatorChar, '/');
+        if (key.length() * 3 > MAX_KEY_LENGTH && key.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_LENGTH) {
+            throw new IOException("Path too long: " + file);
+        }
+        return key;
+    }
+
+    /**
+     * Allocates a record and writes its header and key.
+     *
+     * @return record, positioned at the start of the data
+     */
+    private static ByteBuffer createRecord(final byte type, final long lastModified, final long dataLength, final byte[] key) {
+        final ByteBuffer record = ByteBuffer.allocate((int) (HEADER_SIZE + key.length + dataLength));
+        record.put(type);
+        record.putLong(lastModified);
+        record.putLong(dataLength);
+        record.putShort((short) key.length);
+        record.put(key);
+        return record;
+    }
+
+    /**
+     * Appends a put record and makes it the current one for its key.
+     */
+    private synchronized void append(final ByteBuffer record, final String key, final long lastModified,
+                                     final long dataLength) throws IOException {
+        final int recordSize = record.remaining();
+        final long recordPosition = write(record);
+        final Location location = new Location(active, recordPosition + recordSize - dataLength, dataLength, lastModified, recordSize);
+        active.liveBytes += recordSize;
+        final Location replaced = index.put(key, location);
+        if (replaced != null) {
+            replaced.segment.liveBytes -= replaced.recordSize;
+        }
+    }
+
+    private synchronized boolean remove(final String key) throws IOException {
+        final Location location = index.remove(key);
+        if (location == null) return false;
+        location.segment.liveBytes -= location.recordSize;
+        final ByteBuffer record = createRecord(DELETE, System.currentTimeMillis(), 0, key.getBytes(StandardCharsets.UTF_8));
+        record.position(0);
+        write(record);
+        return true;
+    }
+
+    /**
+     * Writes a record to the end of the active segment, starting a new one, if it's full.
+     *
+     * @return position of the record in the active segment
+     */
+    private synchronized long write(final ByteBuffer record) throws IOException {
+        if (active.size > 0 && active.size + record.remaining() > segmentSize) {
+            active.sealed = true;
+            active = createSegment(active.id + 1);
+        }
+        final long position = active.size;
+        final FileChannel channel = active.getChannel();
+        long offset = position;
+        while (record.hasRemaining()) {
+            offset += channel.write(record, offset);
+        }
+        active.size = offset;
+        return position;
+    }
+
+    private Segment createSegment(final int id) throws IOException {
+        final Segment segment = new Segment(id, new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segment.getChannel();
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Applies all records of a segment to the index.
+     */
+    private void replay(final Segment segment) throws IOException {
+        final FileChannel channel = segment.getChannel();
+        final long fileSize = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+        while (position + HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            final byte type = header.get();
+            final long lastModified = header.getLong();
+            final long dataLength = header.getLong();
+            final int keyLength = header.getShort() & MAX_KEY_LENGTH;
+            final long recordSize = HEADER_SIZE + keyLength + dataLength;
+            if (type < PUT || type > TOUCH || dataLength < 0 || position + recordSize > fileSize) break;
+            final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+            readFully(channel, keyBuffer, position + HEADER_SIZE);
+            final String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+            if (type == PUT) {
+                segment.liveBytes += recordSize;
+                final Location replaced = index.put(key, new Location(segment, position + HEADER_SIZE + keyLength,
+                        dataLength, lastModified, recordSize));
+                if (replaced != null) {
+                    replaced.segment.liveBytes -= replaced.recordSize;
+                }
+            } else if (type == DELETE) {
+                final Location removed = index.remove(key);
+                if (removed != null) {
+                    removed.segment.liveBytes -= removed.recordSize;
+                }
+            } else {
+                final Location location = index.get(key);
+                if (location != null) {
+                    index.put(key, new Location(location.segment, location.dataPosition, location.size,
+                            lastModified, location.recordSize));
+                }
+            }
+            position += recordSize;
+        }
+        if (position < fileSize) {
+            // cut short by a crash
+            channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int justRead = channel.read(buffer, offset);
+            if (justRead < 0) throw new NoSuchFileException("Unexpected end of segment at " + offset);
+            offset += justRead;
+        }
+    }
+
+    /**
+     * Current record of a resource. Doubles as its attributes.
+     */
+    private static class Location implements BasicFileAttributes {
+        private final Segment segment;
+        private final long dataPosition;
+        private final long size;
+        private final long lastModified;
+        private final long recordSize;
+
+        private Location(final Segment segment, final long dataPosition, final long size,
+                         final long lastModified, final long recordSize) {
+            this.segment = segment;
+            this.dataPosition = dataPosition;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.recordSize = recordSize;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    /**
+     * Segment file. {@link #size} and {@link #liveBytes} are guarded by the storage.
+     * Reads {@link #acquire() acquire} the segment, so that it is not closed and deleted
+     * underneath them, once it's {@link #retire() retired}.
+     */
+    private class Segment {
+        private final int id;
+        private final File file;
+        private FileChannel channel;
+        private MappedByteBuffer map;
+        private long size;
+        private long liveBytes;
+        private volatile boolean sealed;
+        private boolean closed;
+        private boolean retired;
+        private int readers;
+
+        private Segment(final int id, final File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        private synchronized FileChannel getChannel() throws IOException {
+            if (closed) throw new NoSuchFileException(file.toString(), null, "Segment was compacted");
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        /**
+         * Maps full segments, if enabled.
+         *
+         * @return mapped segment or {@code null}
+         */
+        private synchronized ByteBuffer getMap() throws IOException {
+            if (!mapped || !sealed) return null;
+            if (map == null) {
+                final FileChannel channel = getChannel();
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            return map;
+        }
+
+        /**
+         * Registers a read, which must be followed by {@link #release()}.
+         */
+        private synchronized void acquire() throws IOException {
+            if (closed) throw new NoSuchFileException(file.toString(), null, "Segment was compacted");
+            readers++;
+        }
+
+        private synchronized void release() {
+            readers--;
+            if (retired && readers == 0) delete();
+        }
+
+        /**
+         * Deletes the segment, once the last read is done.
+         */
+        private synchronized void retire() {
+            retired = true;
+            if (readers == 0) delete();
+        }
+
+        private synchronized void delete() {
+            close();
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                // its records are replayed again, but superseded by their copies
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            map = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                channel = null;
+            }
+        }
+    }
+}
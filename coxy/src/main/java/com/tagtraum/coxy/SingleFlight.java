@@ -0,0 +1,134 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Coalesces concurrent executions of the same operation.
+ * The first caller to {@link #join(Object) join} a key becomes the <em>leader</em>
+ * and is responsible for doing the actual work. All other callers joining the same key
+ * while the leader is still busy become <em>followers</em> and may wait for the
+ * leader's result.
+ * </p>
+ * <p>
+ * The leader <em>must</em> always {@link Flight#land(Object) land} its flight,
+ * typically in a {@code finally} block. Otherwise followers wait until they time out.
+ * </p>
+ *
+ * @param <K> key type
+ * @param <V> result type
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Joins the flight for the given key. If there is currently no flight for the key,
+     * a new one is started and the caller becomes its leader.
+     *
+     * @param key key
+     * @return flight
+     */
+    public Flight join(final K key) {
+        final Flight flight = new Flight(key, true);
+        final Flight existing = flights.putIfAbsent(key, flight);
+        return existing == null ? flight : existing.asFollower();
+    }
+
+    /**
+     * Number of flights currently in progress.
+     *
+     * @return number of flights
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    /**
+     * A single flight, i.e. an operation in progress.
+     * Instances handed to followers share state with the leader's instance.
+     */
+    public class Flight {
+
+        private final K key;
+        private final boolean leader;
+        private final CountDownLatch latch;
+        private final Flight leaderFlight;
+        private volatile V result;
+
+        private Flight(final K key, final boolean leader) {
+            this.key = key;
+            this.leader = leader;
+            this.latch = new CountDownLatch(1);
+            this.leaderFlight = this;
+        }
+
+        private Flight(final Flight leaderFlight) {
+            this.key = leaderFlight.key;
+            this.leader = false;
+            this.latch = leaderFlight.latch;
+            this.leaderFlight = leaderFlight;
+        }
+
+        private Flight asFollower() {
+            return new Flight(this);
+        }
+
+        /**
+         * Indicates whether the holder of this instance is responsible for doing the work.
+         *
+         * @return true, if leader
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Key of this flight.
+         *
+         * @return key
+         */
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * Ends this flight and wakes up all followers. May only be called by the leader.
+         *
+         * @param result result to hand to the followers, may be {@code null}
+         */
+        public void land(final V result) {
+            if (!leader) throw new IllegalStateException("Only the leader may land a flight: " + key);
+            this.result = result;
+            flights.remove(key, this);
+            latch.countDown();
+        }
+
+        /**
+         * Waits for the leader to land this flight.
+         *
+         * @param timeout timeout
+         * @param unit timeout unit
+         * @return the leader's result or {@code null}, if we timed out or the leader landed
+         * without a result
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public V await(final long timeout, final TimeUnit unit) throws InterruptedException {
+            if (leader) throw new IllegalStateException("The leader cannot wait for itself: " + key);
+            if (latch.await(timeout, unit)) {
+                return leaderFlight.result;
+            }
+            return null;
+        }
+    }
+}
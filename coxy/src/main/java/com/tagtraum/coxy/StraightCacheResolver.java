@@ -15,19 +15,7 @@ import java.io.IOException;
  *
  * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
  */
-public class StraightCacheResolver implements CacheResolver {
-
-    private File cacheBase;
-
-    @Override
-    public void setCacheBase(final File cacheBase) {
-        this.cacheBase = cacheBase;
-    }
-
-    @Override
-    public File getCacheBase() {
-        return cacheBase;
-    }
+public class StraightCacheResolver extends AbstractCacheResolver {
 
     @Override
     public File resolve(final String path) throws IOException {
@@ -36,11 +24,31 @@ public class StraightCacheResolver implements CacheResolver {
         final int i = path.indexOf("images/");
         if (i<0) throw new IOException("Failed to find image path: " + path);
         String noSignaturePath = path.substring(i);
-        if (noSignaturePath.split("\\.").length == 3) {
+        if (countExtensionDots(noSignaturePath) == 2) {
             // we have two file extensions,
             // let's remove the last one
             noSignaturePath = noSignaturePath.substring(0, noSignaturePath.lastIndexOf('.'));
         }
-        return new File(cacheBase, noSignaturePath).getCanonicalFile();
+        return toFile(noSignaturePath);
+    }
+
+    /**
+     * Counts the dots in the given path, ignoring trailing dots.
+     * This is equivalent to {@code path.split("\\.").length - 1} for paths
+     * that don't consist of dots only, but does not allocate anything.
+     *
+     * @param path path
+     * @return number of dots
+     */
+    private static int countExtensionDots(final String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '.') {
+            end--;
+        }
+        int dots = 0;
+        for (int i=0; i<end; i++) {
+            if (path.charAt(i) == '.') dots++;
+        }
+        return dots;
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <p>
+ * Copies a resource to a client and a cache file at the same time.
+ * </p>
+ * <p>
+ * The data is first written to a temporary file in the same directory as the
+ * target file. Only once the resource has been read completely, the temporary file is
+ * atomically moved into place. This way, other readers of the cache (e.g. NGINX) never see a
+ * partially written file, and a broken download never leaves a corrupt cache entry behind.
+ * </p>
+ * <p>
+ * If the client goes away in the middle of the transfer, we stop writing to it, but still
+ * finish writing the file, so that the next request can be served from the cache.
+ * </p>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TeeWriter {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private TeeWriter() {
+    }
+
+    /**
+     * Copies the given input to the client and the target file.
+     *
+     * @param in input, typically from the target server
+     * @param expectedLength expected number of bytes or {@code -1}, if unknown
+     * @param target target file
+     * @param lastModified last modified time to set for the target file
+     * @param client client output or {@code null}, if we only want to write the file
+     * @return number of bytes copied
+     * @throws IOException if we fail to read the input or fail to write the file
+     */
+    public static long copy(final InputStream in, final long expectedLength, final File target,
+                            final long lastModified, final OutputStream client) throws IOException {
+        return copy(in, expectedLength, target, lastModified, client, null);
+    }
+
+    /**
+     * Copies the given input to the client and the target file, while feeding it to a digest.
+     *
+     * @param in input, typically from the target server
+     * @param expectedLength expected number of bytes or {@code -1}, if unknown
+     * @param target target file
+     * @param lastModified last modified time to set for the target file
+     * @param client client output or {@code null}, if we only want to write the file
+     * @param digest digest to update with every byte copied or {@code null}
+     * @return number of bytes copied
+     * @throws IOException if we fail to read the input or fail to write the file
+     */
+    public static long copy(final InputStream in, final long expectedLength, final File target,
+                            final long lastModified, final OutputStream client,
+                            final MessageDigest digest) throws IOException {
+        final Path targetPath = target.toPath();
+        final Path tempPath = createTempFile(targetPath.getParent(), target.getName());
+        boolean committed = false;
+        try {
+            long count = 0;
+            OutputStream clientOut = client;
+            try (final OutputStream fileOut = Files.newOutputStream(tempPath, WRITE, TRUNCATE_EXISTING)) {
+                final byte[] buf = new byte[BUFFER_SIZE];
+                int justRead;
+                while ((justRead = in.read(buf)) != -1) {
+                    fileOut.write(buf, 0, justRead);
+                    if (digest != null) {
+                        digest.update(buf, 0, justRead);
+                    }
+                    if (clientOut != null) {
+                        try {
+                            clientOut.write(buf, 0, justRead);
+                        } catch (IOException e) {
+                            // client went away, but we still want the file
+                            clientOut = null;
+                        }
+                    }
+                    count += justRead;
+                }
+            }
+            if (expectedLength >= 0 && count != expectedLength) {
+                throw new IOException("Incomplete resource for " + target + ": Expected "
+                        + expectedLength + " bytes, but got " + count + ".");
+            }
+            Files.setLastModifiedTime(tempPath, FileTime.fromMillis(lastModified));
+            move(tempPath, targetPath);
+            committed = true;
+            return count;
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty, hidden temporary file for the given name in the given directory.
+     * Unlike {@link Files#createTempFile(Path, String, String)}, the file gets the default
+     * permissions (i.e. the umask applies), so that other readers of the cache (e.g. NGINX)
+     * can read it, once it has been moved into place.
+     *
+     * @param directory directory
+     * @param name name of the file the temporary file is for
+     * @return temporary file
+     * @throws IOException if the file cannot be created
+     */
+    static Path createTempFile(final Path directory, final String name) throws IOException {
+        while (true) {
+            final Path tempPath = directory.resolve("." + name + "." + Long.toHexString(RANDOM.nextLong()) + ".tmp");
+            try {
+                Files.newOutputStream(tempPath, CREATE_NEW, WRITE).close();
+                return tempPath;
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    /**
+     * Moves a file into place, atomically, if the file system supports it.
+     *
+     * @param source source
+     * @param target target, replaced if it exists
+     * @throws IOException if the move fails
+     */
+    static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request to the target server was not made, because too many
+ * requests are already in flight.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class UpstreamBusyException extends IOException {
+
+    public UpstreamBusyException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Fetches resources from the target server.
+ * Implementations must be thread-safe and have a public no-argument constructor,
+ * so that they can be configured via the System property {@code upstream.client}.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public interface UpstreamClient {
+
+    /**
+     * Set the target base, i.e. the part of the URL that is prepended to requested paths.
+     *
+     * @param targetBase target base without trailing slash
+     */
+    void setTargetBase(String targetBase);
+
+    /**
+     * Get target base.
+     *
+     * @return target base
+     */
+    String getTargetBase();
+
+    /**
+     * Fetches the resource with the given path.
+     * The returned response <em>must</em> be closed, even if its body is not read.
+     *
+     * @param path path info
+     * @param headers additional request headers, may be empty
+     * @return response
+     * @throws UpstreamBusyException if too many requests are in flight
+     * @throws IOException if the request fails
+     */
+    UpstreamResponse fetch(String path, Map<String, String> headers) throws IOException;
+
+    /**
+     * Number of requests currently in flight, i.e. requests whose responses have not been closed yet.
+     *
+     * @return in-flight requests
+     */
+    int getInFlight();
+
+    /**
+     * Releases all resources held by this client.
+     */
+    void close();
+
+}
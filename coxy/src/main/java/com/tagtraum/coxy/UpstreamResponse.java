@@ -0,0 +1,100 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response from the target server.
+ * Closing the response releases the underlying connection, ideally for re-use.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public abstract class UpstreamResponse implements Closeable {
+
+    /**
+     * HTTP status code.
+     *
+     * @return status code
+     * @throws IOException if the response cannot be read
+     */
+    public abstract int getStatusCode() throws IOException;
+
+    /**
+     * HTTP status message.
+     *
+     * @return message, may be {@code null}
+     * @throws IOException if the response cannot be read
+     */
+    public abstract String getStatusMessage() throws IOException;
+
+    /**
+     * All response headers.
+     *
+     * @return headers
+     */
+    public abstract Map<String, List<String>> getHeaderFields();
+
+    /**
+     * The response body, no matter whether the request was successful or not.
+     *
+     * @return body, never {@code null}
+     * @throws IOException if the response cannot be read
+     */
+    public abstract InputStream getInputStream() throws IOException;
+
+    /**
+     * First value of the given header.
+     *
+     * @param name header name, case-insensitive
+     * @return value or {@code null}
+     */
+    public String getHeader(final String name) {
+        for (final Map.Entry<String, List<String>> e : getHeaderFields().entrySet()) {
+            if (e.getKey() != null && e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) {
+                return e.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Value of the given header as int.
+     *
+     * @param name header name, case-insensitive
+     * @param defaultValue value to return, if the header is missing or not a number
+     * @return value
+     */
+    public int getHeaderInt(final String name, final int defaultValue) {
+        final String value = getHeader(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Value of the {@code Content-Length} header.
+     *
+     * @return content length or {@code -1}, if unknown
+     */
+    public long getContentLength() {
+        final String value = getHeader("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
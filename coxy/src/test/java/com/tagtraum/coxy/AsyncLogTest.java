@@ -0,0 +1,125 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncLogTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class AsyncLogTest {
+
+    @Test
+    public void testLevels() {
+        final List<String> messages = new ArrayList<>();
+        final AsyncLog log = new AsyncLog(AsyncLog.Level.INFO, 16, 0, new CollectingSink(messages));
+        assertFalse(log.isDebugEnabled());
+        assertTrue(log.isEnabled(AsyncLog.Level.ERROR));
+        assertFalse(log.isEnabled(AsyncLog.Level.OFF));
+        log.debug("Not logged {}", "a");
+        log.info("Logged {} and {}", "a", 1);
+        log.warn("Too {} args {} {}", "few");
+        log.info("Too many {}", "args", "b", "c");
+        assertEquals(3, log.drain());
+        assertEquals(Arrays.asList("INFO Logged a and 1", "WARN Too few args {} {}", "INFO Too many args"), messages);
+    }
+
+    @Test
+    public void testThrowable() {
+        final List<String> messages = new ArrayList<>();
+        final List<Throwable> thrown = new ArrayList<>();
+        final AsyncLog log = new AsyncLog(AsyncLog.Level.DEBUG, 16, 0, new AsyncLog.Sink() {
+            @Override
+            public void write(final String message, final Throwable t) {
+                messages.add(message);
+                thrown.add(t);
+            }
+        });
+        final IOException e = new IOException();
+        log.error("Failed {}", "/a.jpg", e);
+        log.drain();
+        assertEquals(Collections.singletonList("ERROR Failed /a.jpg"), messages);
+        assertSame(e, thrown.get(0));
+    }
+
+    @Test
+    public void testFull() {
+        final List<String> messages = new ArrayList<>();
+        final AsyncLog log = new AsyncLog(AsyncLog.Level.INFO, 3, 0, new CollectingSink(messages));
+        for (int i=0; i<5; i++) {
+            log.info("Message {}", i);
+        }
+        // rounded up to 4
+        assertEquals(1, log.getDropped());
+        assertEquals(4, log.drain());
+        assertEquals("WARN Dropped 1 log records, because the buffer was full.", messages.get(4));
+        // slots are reused
+        log.info("Message {}", 5);
+        assertEquals(1, log.drain());
+        assertEquals("INFO Message 5", messages.get(5));
+    }
+
+    @Test
+    public void testAccess() {
+        final List<String> messages = new ArrayList<>();
+        assertFalse(new AsyncLog(AsyncLog.Level.INFO, 16, 0, new CollectingSink(messages)).isAccessSampled());
+        final AsyncLog log = new AsyncLog(AsyncLog.Level.OFF, 16, 1, new CollectingSink(messages));
+        assertTrue(log.isAccessSampled());
+        log.access("127.0.0.1", "/a.jpg", 200, TimeUnit.MICROSECONDS.toNanos(1500));
+        log.drain();
+        assertEquals(Collections.singletonList("ACCESS 127.0.0.1 /a.jpg 200 1500us"), messages);
+    }
+
+    @Test
+    public void testBackground() throws InterruptedException {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        final AsyncLog log = new AsyncLog(AsyncLog.Level.INFO, 1024, 0, new CollectingSink(messages));
+        log.start();
+        final Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i=0; i<100; i++) {
+                        log.info("Message {}", i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+        assertEquals(0, log.getDropped());
+        assertEquals(400, messages.size());
+    }
+
+    private static class CollectingSink implements AsyncLog.Sink {
+        private final List<String> messages;
+
+        private CollectingSink(final List<String> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void write(final String message, final Throwable thrown) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * ByteRangeTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void testSingle() {
+        assertEquals(Collections.singletonList(new ByteRange(0, 99)), ByteRange.parse("bytes=0-99", 1000, 10));
+        assertEquals(Collections.singletonList(new ByteRange(500, 999)), ByteRange.parse("bytes=500-", 1000, 10));
+        assertEquals(Collections.singletonList(new ByteRange(900, 999)), ByteRange.parse("bytes=-100", 1000, 10));
+        assertEquals(Collections.singletonList(new ByteRange(0, 999)), ByteRange.parse("bytes=-2000", 1000, 10));
+        assertEquals(Collections.singletonList(new ByteRange(990, 999)), ByteRange.parse("bytes=990-2000", 1000, 10));
+    }
+
+    @Test
+    public void testMultiple() {
+        assertEquals(Arrays.asList(new ByteRange(0, 9), new ByteRange(20, 29), new ByteRange(990, 999)),
+                ByteRange.parse("bytes=0-9, 20-29,,-10", 1000, 10));
+        // the unsatisfiable one is dropped
+        assertEquals(Collections.singletonList(new ByteRange(0, 9)), ByteRange.parse("bytes=0-9,2000-3000", 1000, 10));
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertEquals(Collections.<ByteRange>emptyList(), ByteRange.parse("bytes=1000-", 1000, 10));
+        assertEquals(Collections.<ByteRange>emptyList(), ByteRange.parse("bytes=-0", 1000, 10));
+        assertEquals(Collections.<ByteRange>emptyList(), ByteRange.parse("bytes=0-10", 0, 10));
+    }
+
+    @Test
+    public void testIgnored() {
+        assertNull(ByteRange.parse(null, 1000, 10));
+        assertNull(ByteRange.parse("items=0-9", 1000, 10));
+        assertNull(ByteRange.parse("bytes=", 1000, 10));
+        assertNull(ByteRange.parse("bytes=9-0", 1000, 10));
+        assertNull(ByteRange.parse("bytes=a-b", 1000, 10));
+        assertNull(ByteRange.parse("bytes=10", 1000, 10));
+        assertNull(ByteRange.parse("bytes=0-1,2-3,4-5", 1000, 2));
+    }
+
+    @Test
+    public void testContentRange() {
+        assertEquals("bytes 0-99/1000", new ByteRange(0, 99).toContentRange(1000));
+        assertEquals(100, new ByteRange(0, 99).getLength());
+    }
+}
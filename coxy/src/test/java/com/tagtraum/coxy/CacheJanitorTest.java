@@ -0,0 +1,134 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * CacheJanitorTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class CacheJanitorTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCount() throws IOException {
+        final long now = System.currentTimeMillis();
+        for (int i=0; i<10; i++) {
+            createFile("images/" + (i % 3) + "/" + i + ".jpg", 100, now);
+        }
+        final CacheJanitor janitor = new CacheJanitor(folder.getRoot(), 0, 0, 3, 100);
+        assertEquals(-1, janitor.getFiles());
+        runPass(janitor);
+        assertEquals(10, janitor.getFiles());
+        assertEquals(1000, janitor.getBytes());
+        assertEquals(0, janitor.getEvictedFiles());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        final long now = System.currentTimeMillis();
+        final File[] files = new File[10];
+        for (int i=0; i<files.length; i++) {
+            // file 0 is the oldest
+            files[i] = createFile("images/" + (i % 3) + "/" + i + ".jpg", 100, now - (10 - i) * HOUR);
+        }
+        final CacheJanitor janitor = new CacheJanitor(folder.getRoot(), 500, 0, 4, 100);
+        // served recently, must not be evicted
+        janitor.touch(files[0]);
+        runPass(janitor);
+        // evict until 10% below quota, i.e. 450 bytes
+        while (janitor.getBytes() > 450) {
+            janitor.runBatch();
+        }
+        assertEquals(6, janitor.getEvictedFiles());
+        assertEquals(400, janitor.getBytes());
+        assertTrue(files[0].exists());
+        for (int i=1; i<=6; i++) {
+            assertFalse(files[i].exists());
+        }
+        for (int i=7; i<files.length; i++) {
+            assertTrue(files[i].exists());
+        }
+    }
+
+    @Test
+    public void testEvictFromMemoryCache() throws IOException {
+        final long now = System.currentTimeMillis();
+        final File evicted = createFile("a.jpg", 100, now - 2 * HOUR);
+        final File kept = createFile("b.jpg", 100, now - HOUR);
+        final MemoryCache memoryCache = new MemoryCache(1000);
+        memoryCache.put("/a.jpg", new MemoryCache.Entry(new byte[100], "image/jpeg", now, evicted));
+        memoryCache.put("/b.jpg", new MemoryCache.Entry(new byte[100], "image/jpeg", now, kept));
+        final CacheJanitor janitor = new CacheJanitor(folder.getRoot(), 150, 0, 100, 100);
+        janitor.setMemoryCache(memoryCache);
+        runPass(janitor);
+        janitor.runBatch();
+        assertFalse(evicted.exists());
+        assertNull(memoryCache.get("/a.jpg"));
+        assertNotNull(memoryCache.get("/b.jpg"));
+    }
+
+    @Test
+    public void testFileQuota() throws IOException {
+        final long now = System.currentTimeMillis();
+        for (int i=0; i<20; i++) {
+            createFile(i + ".jpg", 1, now - (20 - i) * HOUR);
+        }
+        final CacheJanitor janitor = new CacheJanitor(folder.getRoot(), 0, 10, 100, 100);
+        runPass(janitor);
+        janitor.runBatch();
+        assertEquals(9, janitor.getFiles());
+        assertFalse(new File(folder.getRoot(), "10.jpg").exists());
+        assertTrue(new File(folder.getRoot(), "11.jpg").exists());
+    }
+
+    @Test
+    public void testHiddenFiles() throws IOException {
+        final long now = System.currentTimeMillis();
+        createFile("a.jpg", 10, now);
+        final File expiredMarker = createFile(".b.jpg.negative", 10, now - HOUR);
+        final File marker = createFile(".c.jpg.negative", 10, now + HOUR);
+        final File abandoned = createFile(".d.jpg.123.tmp", 10, now - 48 * HOUR);
+        final File temp = createFile(".e.jpg.123.tmp", 10, now);
+        final CacheJanitor janitor = new CacheJanitor(folder.getRoot(), 0, 0, 100, 100);
+        runPass(janitor);
+        assertEquals(1, janitor.getFiles());
+        assertFalse(expiredMarker.exists());
+        assertTrue(marker.exists());
+        assertFalse(abandoned.exists());
+        assertTrue(temp.exists());
+    }
+
+    private static void runPass(final CacheJanitor janitor) {
+        final long passes = janitor.getPasses();
+        while (janitor.getPasses() == passes) {
+            janitor.runBatch();
+        }
+    }
+
+    private File createFile(final String name, final int size, final long lastModified) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[size]);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
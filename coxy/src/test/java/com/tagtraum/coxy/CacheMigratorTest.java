@@ -0,0 +1,161 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * CacheMigratorTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class CacheMigratorTest {
+
+    private static final String[] NAMES = {"R-1074891-1267544771.jpeg", "R-1074891-1267544772.jpeg", "A-45-1408907021-4444.jpeg"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createFlatCache() throws IOException {
+        final File cacheBase = folder.getRoot().getCanonicalFile();
+        final File images = new File(cacheBase, "images");
+        assertTrue(images.mkdirs());
+        for (final String name : NAMES) {
+            Files.write(new File(images, name).toPath(), name.getBytes(StandardCharsets.US_ASCII));
+        }
+        // ours, not to be touched
+        Files.write(new File(images, ".R-1.jpeg.negative").toPath(), new byte[1]);
+        return cacheBase;
+    }
+
+    private static File toDiscogsFile(final File cacheBase, final String name) throws IOException {
+        final CacheResolver resolver = new DiscogsImageCacheResolver();
+        resolver.setCacheBase(cacheBase);
+        return resolver.resolve("/sig=/discogs-images/" + name + ".jpg");
+    }
+
+    @Test
+    public void testMigrate() throws IOException {
+        final File cacheBase = createFlatCache();
+        final CacheMigrator migrator = new CacheMigrator(cacheBase, new StraightCacheResolver(), new DiscogsImageCacheResolver(), false, true);
+        assertTrue(migrator.run(2));
+        assertEquals(3, migrator.getMoved());
+        assertEquals(0, migrator.getFailed());
+        for (final String name : NAMES) {
+            assertFalse(new File(cacheBase, "images/" + name).exists());
+            final File file = toDiscogsFile(cacheBase, name);
+            assertEquals(name, new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+        }
+        assertTrue(new File(cacheBase, "images/.R-1.jpeg.negative").exists());
+        assertFalse(new File(cacheBase, ".coxy-migration").exists());
+
+        // the index is ready to be used
+        final MetadataIndex index = new MetadataIndex(cacheBase, new File(cacheBase, ".coxy-index"));
+        index.load();
+        assertEquals(3, index.size());
+        final MetadataIndex.Entry entry = index.get(toDiscogsFile(cacheBase, NAMES[0]));
+        assertNotNull(entry);
+        assertEquals(NAMES[0].length(), entry.size());
+        index.close();
+
+        // and back
+        final CacheMigrator back = new CacheMigrator(cacheBase, new DiscogsImageCacheResolver(), new StraightCacheResolver(), false, false);
+        assertTrue(back.run(2));
+        assertEquals(3, back.getMoved());
+        for (final String name : NAMES) {
+            assertTrue(new File(cacheBase, "images/" + name).exists());
+        }
+        // empty directories are gone
+        assertFalse(new File(cacheBase, "images/R").exists());
+        assertFalse(new File(cacheBase, ".coxy-index").exists());
+    }
+
+    @Test
+    public void testMigrateDerived() throws IOException {
+        final File cacheBase = createFlatCache();
+        final String[] derived = {"R-1074891-1267544771@600x600.jpeg", "R-1074891-1267544771@fit-300x0-q40.webp",
+                "R-1074891-1267544771.jpeg.gz", "R-1074891-1267544771.jpeg.webp", "R-1074891-1267544771@600x600.jpeg.webp"};
+        for (final String name : derived) {
+            Files.write(new File(cacheBase, "images/" + name).toPath(), name.getBytes(StandardCharsets.US_ASCII));
+        }
+        final CacheMigrator migrator = new CacheMigrator(cacheBase, new StraightCacheResolver(), new DiscogsImageCacheResolver(), false, false);
+        assertTrue(migrator.run(2));
+        assertEquals(0, migrator.getUnknown());
+        assertEquals(3 + derived.length, migrator.getMoved());
+        final File directory = toDiscogsFile(cacheBase, NAMES[0]).getParentFile();
+        for (final String name : derived) {
+            assertFalse(new File(cacheBase, "images/" + name).exists());
+            assertEquals(name, new String(Files.readAllBytes(new File(directory, name).toPath()), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testToMasterName() {
+        assertEquals("R-1-2.jpeg", CacheMigrator.toMasterName("R-1-2.jpeg"));
+        assertEquals("R-1-2.jpeg", CacheMigrator.toMasterName("R-1-2@600x600.jpeg"));
+        assertEquals("R-1-2.webp", CacheMigrator.toMasterName("R-1-2@600x600-q40.webp"));
+        assertEquals("R-1-2.jpeg", CacheMigrator.toMasterName("R-1-2.jpeg.gz"));
+        assertEquals("R-1-2.jpeg", CacheMigrator.toMasterName("R-1-2@600x600.jpeg.webp"));
+        // a master in webp format
+        assertEquals("R-1-2.webp", CacheMigrator.toMasterName("R-1-2.webp"));
+    }
+
+    @Test
+    public void testVerify() throws IOException {
+        final File cacheBase = createFlatCache();
+        Files.write(new File(cacheBase, "images/unknown").toPath(), new byte[1]);
+        final CacheMigrator migrator = new CacheMigrator(cacheBase, new StraightCacheResolver(), new DiscogsImageCacheResolver(), true, true);
+        assertTrue(migrator.run(1));
+        assertEquals(3, migrator.getMoved());
+        assertEquals(1, migrator.getUnknown());
+        for (final String name : NAMES) {
+            assertTrue(new File(cacheBase, "images/" + name).exists());
+        }
+        assertFalse(new File(cacheBase, ".coxy-index").exists());
+    }
+
+    @Test
+    public void testConflictAndInPlace() throws IOException {
+        final File cacheBase = createFlatCache();
+        final File target = toDiscogsFile(cacheBase, NAMES[0]);
+        assertTrue(target.getParentFile().mkdirs());
+        Files.write(target.toPath(), new byte[1]);
+        final CacheMigrator migrator = new CacheMigrator(cacheBase, new StraightCacheResolver(), new DiscogsImageCacheResolver(), false, false);
+        assertTrue(migrator.run(1));
+        assertEquals(2, migrator.getMoved());
+        assertEquals(1, migrator.getConflicts());
+        assertTrue(migrator.getInPlace() >= 1);
+        // left alone
+        assertTrue(new File(cacheBase, "images/" + NAMES[0]).exists());
+        assertEquals(1, target.length());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        final File cacheBase = createFlatCache();
+        final File other = new File(cacheBase, "other/images");
+        assertTrue(other.mkdirs());
+        Files.write(new File(other, NAMES[0]).toPath(), new byte[1]);
+        // pretend "other" was migrated before the interruption
+        Files.write(new File(cacheBase, ".coxy-migration").toPath(), Collections.singletonList("other"), StandardCharsets.UTF_8);
+        final CacheMigrator migrator = new CacheMigrator(cacheBase, new StraightCacheResolver(), new DiscogsImageCacheResolver(), false, false);
+        assertTrue(migrator.run(2));
+        assertEquals(3, migrator.getMoved());
+        assertTrue(new File(other, NAMES[0]).exists());
+        assertFalse(new File(cacheBase, ".coxy-migration").exists());
+    }
+}
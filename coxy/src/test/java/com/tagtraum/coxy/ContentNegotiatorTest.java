@@ -0,0 +1,138 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * ContentNegotiatorTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class ContentNegotiatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] createText(final int length) {
+        final byte[] text = new byte[length];
+        Arrays.fill(text, (byte) 'a');
+        return text;
+    }
+
+    private static byte[] gunzip(final byte[] bytes) throws IOException {
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[1024];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                out.write(buf, 0, justRead);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void testGetQuality() {
+        assertEquals(1.0, ContentNegotiator.getQuality("gzip, deflate, br", "gzip"), 0.0);
+        assertEquals(0.5, ContentNegotiator.getQuality("br;q=1.0, GZIP ; q=0.5", "gzip"), 0.0);
+        assertEquals(0.0, ContentNegotiator.getQuality("gzip;q=0", "gzip"), 0.0);
+        assertEquals(0.0, ContentNegotiator.getQuality("x-gzip, *", "gzip"), 0.0);
+        assertEquals(0.0, ContentNegotiator.getQuality(null, "gzip"), 0.0);
+        assertEquals(1.0, ContentNegotiator.getQuality("image/avif,image/webp,*/*;q=0.8", "image/webp"), 0.0);
+        assertEquals(0.0, ContentNegotiator.getQuality("image/*,*/*;q=0.8", "image/webp"), 0.0);
+    }
+
+    @Test
+    public void testGetAlternative() {
+        final CacheStorage storage = new FileCacheStorage(new FileSender(0, 0));
+        try (final ContentNegotiator negotiator = new ContentNegotiator(storage, true, false, 1, 10)) {
+            assertEquals(ContentNegotiator.Alternative.GZIP, negotiator.getAlternative("text/plain; charset=UTF-8"));
+            assertEquals(ContentNegotiator.Alternative.GZIP, negotiator.getAlternative("application/json"));
+            assertEquals(ContentNegotiator.Alternative.GZIP, negotiator.getAlternative("image/svg+xml"));
+            assertNull(negotiator.getAlternative("image/jpeg"));
+            assertNull(negotiator.getAlternative(null));
+            assertFalse(negotiator.isWebp());
+        }
+        try (final ContentNegotiator negotiator = new ContentNegotiator(storage, false, true, 1, 10)) {
+            assertNull(negotiator.getAlternative("text/plain"));
+            // only offered with a writer
+            assertEquals(negotiator.isWebp() ? ContentNegotiator.Alternative.WEBP : null, negotiator.getAlternative("image/jpeg"));
+            assertNull(negotiator.getAlternative("image/gif"));
+        }
+        assertTrue(ContentNegotiator.Alternative.GZIP.isAcceptedBy("gzip"));
+        assertFalse(ContentNegotiator.Alternative.WEBP.isAcceptedBy("*/*"));
+    }
+
+    @Test
+    public void testEncodeGzip() throws IOException {
+        final CacheStorage storage = new FileCacheStorage(new FileSender(0, 0));
+        final File file = folder.newFile("R-1.json");
+        final byte[] text = createText(10000);
+        storage.store(file, new ByteArrayInputStream(text), text.length, 1000000L, null);
+        final BasicFileAttributes attributes = storage.readAttributes(file);
+        try (final ContentNegotiator negotiator = new ContentNegotiator(storage, true, false, 1, 10)) {
+            assertNull(negotiator.lookup(file, attributes, ContentNegotiator.Alternative.GZIP));
+            assertTrue(negotiator.encode(file, attributes, ContentNegotiator.Alternative.GZIP));
+            final BasicFileAttributes gzipAttributes = negotiator.lookup(file, attributes, ContentNegotiator.Alternative.GZIP);
+            assertNotNull(gzipAttributes);
+            assertTrue(gzipAttributes.size() < text.length);
+            final File gzipFile = ContentNegotiator.toFile(file, ContentNegotiator.Alternative.GZIP);
+            assertEquals(new File(folder.getRoot(), "R-1.json.gz"), gzipFile);
+            assertArrayEquals(text, gunzip(Files.readAllBytes(gzipFile.toPath())));
+            assertEquals(1, negotiator.getEncoded());
+
+            // revalidated, the alternative is carried over
+            storage.setLastModified(file, 2000000L);
+            negotiator.refresh(file, attributes, 2000000L);
+            final BasicFileAttributes revalidatedAttributes = storage.readAttributes(file);
+            assertNotNull(negotiator.lookup(file, revalidatedAttributes, ContentNegotiator.Alternative.GZIP));
+
+            // replaced, the alternative is outdated
+            storage.setLastModified(file, 3000000L);
+            assertNull(negotiator.lookup(file, storage.readAttributes(file), ContentNegotiator.Alternative.GZIP));
+        }
+    }
+
+    @Test
+    public void testEncodeInBackground() throws IOException, InterruptedException {
+        final CacheStorage storage = new FileCacheStorage(new FileSender(0, 0));
+        final File small = folder.newFile("small.txt");
+        final File random = folder.newFile("random.txt");
+        final byte[] incompressible = new byte[10000];
+        new Random(42).nextBytes(incompressible);
+        storage.store(small, new ByteArrayInputStream(createText(10)), 10, 1000000L, null);
+        storage.store(random, new ByteArrayInputStream(incompressible), incompressible.length, 1000000L, null);
+        try (final ContentNegotiator negotiator = new ContentNegotiator(storage, true, false, 1, 10)) {
+            // not worth it
+            assertFalse(negotiator.encodeInBackground(small, storage.readAttributes(small), ContentNegotiator.Alternative.GZIP));
+            assertTrue(negotiator.encodeInBackground(random, storage.readAttributes(random), ContentNegotiator.Alternative.GZIP));
+            for (int i = 0; i < 100 && negotiator.getFailed() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, negotiator.getFailed());
+            assertFalse(ContentNegotiator.toFile(random, ContentNegotiator.Alternative.GZIP).exists());
+            // remembered, not tried again
+            assertFalse(negotiator.encodeInBackground(random, storage.readAttributes(random), ContentNegotiator.Alternative.GZIP));
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * CoxyServletTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class CoxyServletTest {
+
+    private static final long ASYNC_TIMEOUT = 200L;
+    private static final byte[] IMAGE = "image".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STALE_IMAGE = "stale image".getBytes(StandardCharsets.US_ASCII);
+    private static final long TWO_YEARS = 2L * 365L * 24L * 60L * 60L * 1000L;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private CoxyServlet servlet;
+
+    @BeforeClass
+    public static void setUpClass() {
+        // read once, when CoxyServlet is loaded
+        System.setProperty("cache.base", folder.getRoot().getAbsolutePath());
+        System.setProperty("http.agent", "CoxyServletTest");
+        System.setProperty("target.base", "http://127.0.0.1:1");
+        System.setProperty("upstream.client", SlowUpstreamClient.class.getName());
+        System.setProperty("async.timeout", Long.toString(ASYNC_TIMEOUT));
+        System.setProperty("prefetch", "false");
+        System.setProperty("metrics.jmx", "false");
+    }
+
+    @Before
+    public void setUp() throws ServletException {
+        SlowUpstreamClient.release = new CountDownLatch(0);
+        SlowUpstreamClient.status = 200;
+        SlowUpstreamClient.failure = null;
+        SlowUpstreamClient.requests.clear();
+        servlet = new CoxyServlet();
+        servlet.init(servletConfig());
+    }
+
+    @After
+    public void tearDown() {
+        SlowUpstreamClient.release.countDown();
+        servlet.destroy();
+    }
+
+    @Test
+    public void testAsyncMiss() throws Exception {
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-1-1.jpeg"), container.response);
+        assertTrue(container.awaitComplete(5000));
+        assertEquals(200, container.status);
+        assertArrayEquals(IMAGE, container.body.toByteArray());
+        assertEquals(1, container.completions.get());
+        assertEquals(1, servlet.getMetrics().getMisses());
+        assertEquals(1, servlet.getMetrics().getMissLatency().getCount());
+        assertEquals(0, servlet.getMetrics().getErrors());
+    }
+
+    @Test
+    public void testAsyncTimeout() throws Exception {
+        SlowUpstreamClient.release = new CountDownLatch(1);
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-2-1.jpeg"), container.response);
+        Thread.sleep(ASYNC_TIMEOUT);
+        container.timeout();
+        assertEquals(504, container.status);
+        assertEquals(1, container.completions.get());
+        assertEquals(1, servlet.getMetrics().getErrors());
+
+        // the worker finishes late, but leaves the recycled response alone
+        SlowUpstreamClient.release.countDown();
+        final File file = new File(folder.getRoot(), "images/R-2-1.jpeg");
+        for (int i = 0; i < 500 && !file.exists(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.exists());
+        assertTrue(servlet.getStorage().readAttributes(file) != null);
+        Thread.sleep(50);
+        assertEquals(1, container.completions.get());
+        assertEquals(Collections.emptyList(), container.lateCalls);
+        assertEquals(1, servlet.getMetrics().getErrors());
+        assertEquals(0, servlet.getMetrics().getMisses());
+    }
+
+    @Test
+    public void testStaleWhileRevalidateNotModified() throws Exception {
+        final File file = createStaleFile("images/R-3-1.jpeg");
+        SlowUpstreamClient.status = 304;
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-3-1.jpeg"), container.response);
+        assertEquals(200, container.status);
+        assertArrayEquals(STALE_IMAGE, container.body.toByteArray());
+        assertEquals("110 - \"Response is Stale\"", container.headers.get("Warning"));
+
+        awaitFresh(file);
+        assertArrayEquals(STALE_IMAGE, Files.readAllBytes(file.toPath()));
+        assertEquals(1, SlowUpstreamClient.requests.size());
+        assertNotNull(SlowUpstreamClient.requests.get(0).get("If-Modified-Since"));
+    }
+
+    @Test
+    public void testStaleWhileRevalidateModified() throws Exception {
+        final File file = createStaleFile("images/R-4-1.jpeg");
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-4-1.jpeg"), container.response);
+        assertEquals(200, container.status);
+        assertArrayEquals(STALE_IMAGE, container.body.toByteArray());
+
+        awaitFresh(file);
+        assertArrayEquals(IMAGE, Files.readAllBytes(file.toPath()));
+        final Container next = new Container();
+        servlet.doGet(next.request("/images/R-4-1.jpeg"), next.response);
+        assertArrayEquals(IMAGE, next.body.toByteArray());
+        assertNull(next.headers.get("Warning"));
+    }
+
+    @Test
+    public void testStaleWhileRevalidateGone() throws Exception {
+        final File file = createStaleFile("images/R-5-1.jpeg");
+        SlowUpstreamClient.status = 404;
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-5-1.jpeg"), container.response);
+        assertArrayEquals(STALE_IMAGE, container.body.toByteArray());
+
+        for (int i = 0; i < 500 && file.exists(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(file.exists());
+        // answered from the negative cache
+        final Container next = new Container();
+        servlet.doGet(next.request("/images/R-5-1.jpeg"), next.response);
+        assertEquals(404, next.status);
+        assertEquals(1, SlowUpstreamClient.requests.size());
+    }
+
+    @Test
+    public void testStaleIfServerError() throws Exception {
+        useServletWithoutStaleWhileRevalidate();
+        final File file = createStaleFile("images/R-6-1.jpeg");
+        SlowUpstreamClient.status = 503;
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-6-1.jpeg"), container.response);
+        assertTrue(container.awaitComplete(5000));
+        assertEquals(200, container.status);
+        assertArrayEquals(STALE_IMAGE, container.body.toByteArray());
+        assertEquals("111 - \"Revalidation Failed\"", container.headers.get("Warning"));
+        assertTrue(file.exists());
+        assertEquals(1, SlowUpstreamClient.requests.size());
+    }
+
+    @Test
+    public void testStaleIfUnreachable() throws Exception {
+        useServletWithoutStaleWhileRevalidate();
+        createStaleFile("images/R-7-1.jpeg");
+        SlowUpstreamClient.failure = new IOException("Connection refused");
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-7-1.jpeg"), container.response);
+        assertTrue(container.awaitComplete(5000));
+        assertEquals(200, container.status);
+        assertArrayEquals(STALE_IMAGE, container.body.toByteArray());
+        assertEquals("111 - \"Revalidation Failed\"", container.headers.get("Warning"));
+    }
+
+    @Test
+    public void testStaleNotUsedForClientError() throws Exception {
+        useServletWithoutStaleWhileRevalidate();
+        createStaleFile("images/R-8-1.jpeg");
+        SlowUpstreamClient.status = 404;
+        final Container container = new Container();
+        servlet.doGet(container.request("/images/R-8-1.jpeg"), container.response);
+        assertTrue(container.awaitComplete(5000));
+        assertEquals(404, container.status);
+        assertNull(container.headers.get("Warning"));
+        assertEquals(1, servlet.getMetrics().getErrors());
+    }
+
+    private void useServletWithoutStaleWhileRevalidate() throws ServletException {
+        servlet.destroy();
+        servlet = new CoxyServlet() {
+            @Override
+            protected boolean isStaleWhileRevalidate() {
+                return false;
+            }
+        };
+        servlet.init(servletConfig());
+    }
+
+    private static File createStaleFile(final String name) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), STALE_IMAGE);
+        assertTrue(file.setLastModified(System.currentTimeMillis() - TWO_YEARS));
+        return file;
+    }
+
+    private static void awaitFresh(final File file) throws InterruptedException {
+        for (int i = 0; i < 500 && System.currentTimeMillis() - file.lastModified() > TWO_YEARS / 2; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.currentTimeMillis() - file.lastModified() < TWO_YEARS / 2);
+    }
+
+    private static ServletConfig servletConfig() {
+        final ServletContext context = (ServletContext) Proxy.newProxyInstance(CoxyServletTest.class.getClassLoader(),
+                new Class[]{ServletContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return null;
+                    }
+                });
+        return (ServletConfig) Proxy.newProxyInstance(CoxyServletTest.class.getClassLoader(),
+                new Class[]{ServletConfig.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        switch (method.getName()) {
+                            case "getServletContext": return context;
+                            case "getServletName": return "coxy";
+                            default: return null;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Upstream client that answers every request with a tiny image (or the configured status), once released.
+     */
+    public static class SlowUpstreamClient implements UpstreamClient {
+
+        static volatile CountDownLatch release = new CountDownLatch(0);
+        static volatile int status = 200;
+        static volatile IOException failure;
+        static final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+        private String targetBase;
+
+        @Override
+        public void setTargetBase(final String targetBase) {
+            this.targetBase = targetBase;
+        }
+
+        @Override
+        public String getTargetBase() {
+            return targetBase;
+        }
+
+        @Override
+        public UpstreamResponse fetch(final String path, final Map<String, String> headers) throws IOException {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            requests.add(new HashMap<>(headers));
+            if (failure != null) throw failure;
+            final int statusCode = status;
+            final byte[] body = statusCode == 200 ? IMAGE : new byte[0];
+            return new UpstreamResponse() {
+                @Override
+                public int getStatusCode() {
+                    return statusCode;
+                }
+
+                @Override
+                public String getStatusMessage() {
+                    return statusCode == 200 ? "OK" : "Status " + statusCode;
+                }
+
+                @Override
+                public Map<String, List<String>> getHeaderFields() {
+                    return Collections.singletonMap("Content-Length", Collections.singletonList(Integer.toString(body.length)));
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(body);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public int getInFlight() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Just enough of a servlet container for one asynchronous request.
+     */
+    private static class Container implements AsyncContext {
+
+        private final List<AsyncListener> listeners = new ArrayList<>();
+        private final AtomicInteger completions = new AtomicInteger();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final List<String> lateCalls = Collections.synchronizedList(new ArrayList<String>());
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final Map<String, String> headers = new ConcurrentHashMap<>();
+        private volatile int status = 200;
+        private volatile boolean committed;
+        private volatile boolean recycled;
+        private HttpServletRequest request;
+        private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                CoxyServletTest.class.getClassLoader(), new Class[]{HttpServletResponse.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if (recycled) {
+                            lateCalls.add(method.getName());
+                            throw new IllegalStateException("Response has been recycled");
+                        }
+                        switch (method.getName()) {
+                            case "setStatus": status = (Integer) args[0]; return null;
+                            case "getStatus": return status;
+                            case "isCommitted": return committed;
+                            case "reset": status = 200; body.reset(); headers.clear(); return null;
+                            case "setHeader":
+                            case "addHeader": headers.put((String) args[0], (String) args[1]); return null;
+                            case "getOutputStream": return out;
+                            case "getWriter": return new PrintWriter(out);
+                            default: return null;
+                        }
+                    }
+                });
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(final int b) {
+                committed = true;
+                body.write(b);
+            }
+        };
+
+        private HttpServletRequest request(final String pathInfo) {
+            request = (HttpServletRequest) Proxy.newProxyInstance(CoxyServletTest.class.getClassLoader(),
+                    new Class[]{HttpServletRequest.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                            switch (method.getName()) {
+                                case "getPathInfo": return pathInfo;
+                                case "getRemoteAddr": return "127.0.0.1";
+                                case "getMethod": return "GET";
+                                case "isAsyncSupported": return true;
+                                case "isAsyncStarted": return true;
+                                case "startAsync": return Container.this;
+                                case "getDateHeader": return -1L;
+                                default: return null;
+                            }
+                        }
+                    });
+            return request;
+        }
+
+        /**
+         * Times out the request, like a container would.
+         */
+        private void timeout() throws IOException {
+            final AsyncEvent event = new AsyncEvent(this, request, response);
+            for (final AsyncListener listener : listeners) {
+                listener.onTimeout(event);
+            }
+            if (completed.getCount() > 0) complete();
+        }
+
+        private boolean awaitComplete(final long millis) throws InterruptedException {
+            return completed.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void complete() {
+            if (recycled) throw new IllegalStateException("Already completed");
+            completions.incrementAndGet();
+            final AsyncEvent event = new AsyncEvent(this, request, response);
+            for (final AsyncListener listener : listeners) {
+                try {
+                    listener.onComplete(event);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            recycled = true;
+            completed.countDown();
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        @Override
+        public void dispatch() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(final String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(final ServletContext context, final String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void start(final Runnable run) {
+            new Thread(run).start();
+        }
+
+        @Override
+        public void addListener(final AsyncListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void addListener(final AsyncListener listener, final ServletRequest servletRequest,
+                                final ServletResponse servletResponse) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(final Class<T> clazz) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeout(final long timeout) {
+        }
+
+        @Override
+        public long getTimeout() {
+            return ASYNC_TIMEOUT;
+        }
+    }
+}
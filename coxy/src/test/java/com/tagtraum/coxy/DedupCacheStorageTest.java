@@ -0,0 +1,187 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * DedupCacheStorageTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class DedupCacheStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DedupCacheStorage createStorage() throws IOException {
+        final DedupCacheStorage storage = new DedupCacheStorage(new FileSender(0, 0), new File(folder.getRoot(), ".coxy-blobs"));
+        storage.open();
+        return storage;
+    }
+
+    private static long getLastModified(final CacheStorage storage, final File file) throws IOException {
+        return storage.readAttributes(file).lastModifiedTime().toMillis();
+    }
+
+    private static long store(final CacheStorage storage, final File file, final String content, final long lastModified) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        return storage.store(file, new ByteArrayInputStream(bytes), bytes.length, lastModified, null);
+    }
+
+    private static boolean isSameFile(final File a, final File b) throws IOException {
+        return Files.isSameFile(a.toPath(), b.toPath());
+    }
+
+    @Test
+    public void testDeduplicate() throws IOException {
+        final DedupCacheStorage storage = createStorage();
+        final File a = new File(folder.getRoot(), "a/1.jpg");
+        final File b = new File(folder.getRoot(), "b/2.jpg");
+        final File c = new File(folder.getRoot(), "c/3.jpg");
+        final ByteArrayOutputStream client = new ByteArrayOutputStream();
+        final byte[] content = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(10, storage.store(a, new ByteArrayInputStream(content), content.length, 1000L, client));
+        assertArrayEquals(content, client.toByteArray());
+        store(storage, b, "0123456789", 2000L);
+        store(storage, c, "something else", 1000L);
+        assumeTrue(storage.getBlobs() > 0);
+
+        assertEquals(2, storage.getBlobs());
+        assertEquals(1, storage.getDeduplicated());
+        assertTrue(isSameFile(a, b));
+        assertFalse(isSameFile(a, c));
+        assertArrayEquals(content, storage.read(b, storage.readAttributes(b)));
+        // links share the blob's last modified time, but report their own fetch times
+        assertEquals(1000L, Files.getLastModifiedTime(b.toPath()).toMillis());
+        assertEquals(1000L, getLastModified(storage, a));
+        assertEquals(2000L, getLastModified(storage, b));
+        // no staging files left behind
+        final String[] names = a.getParentFile().list();
+        assertNotNull(names);
+        assertEquals(1, names.length);
+        storage.close();
+    }
+
+    @Test
+    public void testPermissions() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        // what the umask gives us
+        final File reference = new File(folder.getRoot(), "reference");
+        Files.newOutputStream(reference.toPath()).close();
+        final DedupCacheStorage storage = createStorage();
+        final File a = new File(folder.getRoot(), "a.jpg");
+        store(storage, a, "same", 1000L);
+        final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(a.toPath());
+        assertEquals(Files.getPosixFilePermissions(reference.toPath()), permissions);
+        assertTrue(permissions.contains(PosixFilePermission.OWNER_READ));
+        storage.close();
+    }
+
+    @Test
+    public void testDuplicateOfOldBlob() throws IOException {
+        final DedupCacheStorage storage = createStorage();
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        final long twoYearsAgo = System.currentTimeMillis() - 2L * 365L * 24L * 60L * 60L * 1000L;
+        final long now = System.currentTimeMillis();
+        store(storage, a, "same", twoYearsAgo);
+        store(storage, b, "same", now);
+        assumeTrue(storage.getDeduplicated() > 0);
+
+        // fresh, although the blob is old
+        assertEquals(now, getLastModified(storage, b));
+        assertEquals(twoYearsAgo, getLastModified(storage, a));
+        // refetched
+        store(storage, a, "same", now);
+        assertEquals(now, getLastModified(storage, a));
+        storage.close();
+
+        // remembered across restarts
+        final DedupCacheStorage reopened = createStorage();
+        assertEquals(now, getLastModified(reopened, a));
+        assertEquals(now, getLastModified(reopened, b));
+        reopened.close();
+    }
+
+    @Test
+    public void testSetLastModified() throws IOException {
+        final DedupCacheStorage storage = createStorage();
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        store(storage, a, "same", 1000L);
+        store(storage, b, "same", 1000L);
+        assumeTrue(storage.getDeduplicated() > 0);
+
+        // only affects the one path
+        storage.setLastModified(b, 3000L);
+        assertEquals(3000L, getLastModified(storage, b));
+        assertEquals(1000L, getLastModified(storage, a));
+        assertEquals(1000L, Files.getLastModifiedTime(a.toPath()).toMillis());
+
+        // the only link left may change the blob
+        storage.delete(a);
+        storage.setLastModified(b, 4000L);
+        assertEquals(4000L, getLastModified(storage, b));
+        assertEquals(4000L, Files.getLastModifiedTime(b.toPath()).toMillis());
+        storage.close();
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        final DedupCacheStorage storage = createStorage();
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        store(storage, a, "same", 1000L);
+        store(storage, b, "same", 1000L);
+        assumeTrue(storage.getBlobs() > 0);
+
+        // replacing one link does not affect the other
+        store(storage, a, "different", 2000L);
+        assertEquals("different", new String(storage.read(a, storage.readAttributes(a)), StandardCharsets.US_ASCII));
+        assertEquals("same", new String(storage.read(b, storage.readAttributes(b)), StandardCharsets.US_ASCII));
+        storage.close();
+    }
+
+    @Test
+    public void testCollect() throws IOException {
+        final DedupCacheStorage storage = createStorage();
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        store(storage, a, "same", 1000L);
+        store(storage, b, "same", 1000L);
+        assumeTrue(storage.getBlobs() > 0);
+
+        assertEquals(0, storage.collect());
+        storage.delete(a);
+        assertEquals(0, storage.collect());
+        storage.delete(b);
+        assertEquals(1, storage.collect());
+        assertEquals(1, storage.getCollected());
+
+        // content can be stored again
+        store(storage, a, "same", 1000L);
+        assertEquals(2, storage.getBlobs());
+        assertEquals("same", new String(storage.read(a, storage.readAttributes(a)), StandardCharsets.US_ASCII));
+        storage.close();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * =================================================
+ * Copyright 2014 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DiscogsImageCacheResolver.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class DiscogsImageCacheResolverTest {
+
+    @Test
+    public void testNormalPattern() throws IOException {
+        final DiscogsImageCacheResolver resolver = new DiscogsImageCacheResolver();
+        resolver.setCacheBase(new File("/"));
+        final File resolvedFile = resolver.resolve("/Mkq8l7_aFIXDsTdRT07pQoubjB4=/600x600/smart/filters:strip_icc():format(jpeg):mode_rgb():quality(96)/discogs-images/R-1507297-1370212405-8548.jpeg.jpg");
+        assertEquals(new File("/images/R/15/07/R-1507297/R-1507297-1370212405-8548.jpeg"), resolvedFile);
+    }
+
+    @Test
+    public void testShortReleaseID() throws IOException {
+        final DiscogsImageCacheResolver resolver = new DiscogsImageCacheResolver();
+        resolver.setCacheBase(new File("/"));
+        final File resolvedFile = resolver.resolve("/Mkq8l7_aFIXDsTdRT07pQoubjB4=/600x600/smart/filters:strip_icc():format(jpeg):mode_rgb():quality(96)/discogs-images/R-150-1370212405-8548.jpeg");
+        assertEquals(new File("/images/R/15/0/R-150/R-150-1370212405-8548.jpeg"), resolvedFile);
+    }
+
+    @Test
+    public void testFallback() throws IOException {
+        final DiscogsImageCacheResolver resolver = new DiscogsImageCacheResolver();
+        resolver.setCacheBase(new File("/base"));
+        assertEquals(new File("/base/some/other/file.jpeg"), resolver.resolve("/some/./other/file.jpeg"));
+    }
+
+    @Test
+    public void testSameAsRegularExpression() throws IOException {
+        final File cacheBase = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+        final DiscogsImageCacheResolver resolver = new DiscogsImageCacheResolver();
+        resolver.setCacheBase(cacheBase);
+        final String[] tokens = {"/", "/", "-", "-", ".", "R", "A", "1", "23", "456", "jpeg", "jpg", "discogs-images", "/discogs-images/", "\n", "x"};
+        final Random random = new Random(0);
+        for (int i=0; i<100000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(12);
+            for (int j=0; j<length; j++) {
+                sb.append(tokens[random.nextInt(tokens.length)]);
+            }
+            final String path = sb.toString();
+            if (path.contains("..")) continue;
+            assertEquals(path, resolveWithRegularExpression(cacheBase, path), resolver.resolve(path));
+        }
+    }
+
+    /**
+     * The way paths used to be resolved.
+     */
+    private static File resolveWithRegularExpression(final File cacheBase, final String path) throws IOException {
+        final Matcher matcher = Pattern.compile("/.*(/discogs-images/)((.)-([^-]{0,2})([^-]{0,2})[^-]*)(.*)(\\.[^\\.]*)").matcher(path);
+        final String hashedPath;
+        if (matcher.matches()) {
+            final String releaseId = matcher.group(2);
+            final String imageId = matcher.group(6);
+            hashedPath = "/images/" + File.separator
+                    + matcher.group(3) + File.separator
+                    + matcher.group(4) + File.separator
+                    + matcher.group(5) + File.separator
+                    + releaseId + File.separator
+                    + releaseId + imageId
+                    + (imageId.contains(".") ? "" : matcher.group(7));
+        } else {
+            hashedPath = path;
+        }
+        return new File(cacheBase, hashedPath).getCanonicalFile();
+    }
+
+}
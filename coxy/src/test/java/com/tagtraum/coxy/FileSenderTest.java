@@ -0,0 +1,105 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * FileSenderTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class FileSenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSend() throws IOException {
+        final FileSender sender = new FileSender(0, 0);
+        final byte[] data = createData(100000, 0);
+        final Path path = write("test.jpeg", data, 1000000000000L);
+        assertArrayEquals(data, send(sender, path));
+        assertEquals(0, sender.getMappedBytes());
+    }
+
+    @Test
+    public void testSendMapped() throws IOException {
+        final FileSender sender = new FileSender(1024 * 1024, 200000);
+        final byte[] data = createData(100000, 0);
+        final Path path = write("test.jpeg", data, 1000000000000L);
+        assertArrayEquals(data, send(sender, path));
+        assertEquals(data.length, sender.getMappedBytes());
+        // served from mapped region
+        assertArrayEquals(data, send(sender, path));
+        assertEquals(data.length, sender.getMappedBytes());
+
+        // replace file, must be re-mapped
+        final byte[] newData = createData(50000, 7);
+        write("test.jpeg", newData, 1000000001000L);
+        assertArrayEquals(newData, send(sender, path));
+        assertEquals(newData.length, sender.getMappedBytes());
+    }
+
+    @Test
+    public void testMappedEviction() throws IOException {
+        final FileSender sender = new FileSender(150000, 200000);
+        final Path path1 = write("test1.jpeg", createData(100000, 1), 1000000000000L);
+        final Path path2 = write("test2.jpeg", createData(100000, 2), 1000000000000L);
+        send(sender, path1);
+        send(sender, path2);
+        assertEquals(100000, sender.getMappedBytes());
+    }
+
+    @Test
+    public void testSendRange() throws IOException {
+        final byte[] data = createData(100000, 0);
+        final Path path = write("test.jpeg", data, 1000000000000L);
+        for (final FileSender sender : new FileSender[] {new FileSender(0, 0), new FileSender(1024 * 1024, 200000)}) {
+            // twice, second time from the mapped region
+            for (int i=0; i<2; i++) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                sender.send(path, Files.readAttributes(path, BasicFileAttributes.class), out, 50000, 40000);
+                assertArrayEquals(Arrays.copyOfRange(data, 50000, 90000), out.toByteArray());
+            }
+        }
+    }
+
+    private static byte[] send(final FileSender sender, final Path path) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sender.send(path, Files.readAttributes(path, BasicFileAttributes.class), out);
+        return out.toByteArray();
+    }
+
+    private Path write(final String name, final byte[] data, final long lastModified) throws IOException {
+        final Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, data);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+        return path;
+    }
+
+    private static byte[] createData(final int length, final int offset) {
+        final byte[] data = new byte[length];
+        for (int i=0; i<data.length; i++) {
+            data[i] = (byte) (i + offset);
+        }
+        return data;
+    }
+}
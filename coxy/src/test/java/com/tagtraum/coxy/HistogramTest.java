@@ -0,0 +1,50 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * HistogramTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            final int index = Histogram.getIndex(value);
+            final long upper = Histogram.getUpperBound(index);
+            assertTrue(value + " > " + upper, value <= upper);
+            assertTrue(value + " should be in bucket " + index + " with upper bound " + upper, upper - value <= value / 16);
+            if (index > 0) assertTrue(value > Histogram.getUpperBound(index - 1));
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.getUpperBound(Histogram.getIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testQuantiles() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        histogram.record(-5);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(500500000, histogram.getSum());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(1000000, histogram.getValueAtQuantile(1.0));
+        assertEquals(0, histogram.getValueAtQuantile(0.0));
+        final long median = histogram.getValueAtQuantile(0.5);
+        assertTrue("Median: " + median, median >= 500000 && median <= 500000 * 17 / 16);
+        final long p99 = histogram.getValueAtQuantile(0.99);
+        assertTrue("p99: " + p99, p99 >= 990000 && p99 <= 1000000);
+    }
+}
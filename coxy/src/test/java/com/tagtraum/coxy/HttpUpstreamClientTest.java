@@ -0,0 +1,119 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpUpstreamClientTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class HttpUpstreamClientTest {
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+    private StubServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer(new StubServer.Handler() {
+            @Override
+            public void handle(final String method, final String path, final Map<String, String> requestHeaders,
+                               final StubServer.Response response) throws IOException {
+                final boolean found = path.startsWith("/found");
+                response.status = found ? 200 : 404;
+                response.message = found ? "OK" : "Not Found";
+                response.body = (found ? "image" : "not found").getBytes("UTF-8");
+                response.headers.put("X-RateLimit-Remaining", "42");
+                response.headers.put("X-Echo", String.valueOf(requestHeaders.get("X-Test")));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testFetch() throws IOException {
+        final HttpUpstreamClient client = createClient(2);
+        try (final UpstreamResponse response = client.fetch("/found", Collections.singletonMap("X-Test", "echo"))) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals(5, response.getContentLength());
+            assertEquals(42, response.getHeaderInt("x-ratelimit-remaining", -1));
+            assertEquals("echo", response.getHeader("X-Echo"));
+            assertEquals("image", read(response.getInputStream()));
+            assertEquals(1, client.getInFlight());
+        }
+        assertEquals(0, client.getInFlight());
+    }
+
+    @Test
+    public void testNotFound() throws IOException {
+        final HttpUpstreamClient client = createClient(2);
+        try (final UpstreamResponse response = client.fetch("/missing", NO_HEADERS)) {
+            assertEquals(404, response.getStatusCode());
+            assertEquals("not found", read(response.getInputStream()));
+        }
+        assertEquals(0, client.getInFlight());
+    }
+
+    @Test
+    public void testBulkhead() throws IOException {
+        final HttpUpstreamClient client = createClient(1);
+        final UpstreamResponse first = client.fetch("/found", NO_HEADERS);
+        try {
+            client.fetch("/found", NO_HEADERS).close();
+            fail("Expected UpstreamBusyException");
+        } catch (UpstreamBusyException e) {
+            // expected
+        }
+        first.close();
+        // closing twice must not release twice
+        first.close();
+        assertEquals(0, client.getInFlight());
+        client.fetch("/found", NO_HEADERS).close();
+    }
+
+    @Test
+    public void testConnectionReuse() throws IOException {
+        final HttpUpstreamClient client = createClient(1);
+        for (int i=0; i<3; i++) {
+            // don't read the body, close() must take care of it
+            client.fetch(i % 2 == 0 ? "/found" : "/missing", NO_HEADERS).close();
+        }
+        assertEquals(3, server.getRequests());
+        assertEquals(1, server.getConnections());
+    }
+
+    private HttpUpstreamClient createClient(final int maxInFlight) {
+        final HttpUpstreamClient client = new HttpUpstreamClient(1000, 1000, maxInFlight, 10);
+        client.setTargetBase(server.getBase());
+        return client;
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        int justRead;
+        while ((justRead = in.read(buf)) != -1) {
+            out.write(buf, 0, justRead);
+        }
+        return out.toString("UTF-8");
+    }
+}
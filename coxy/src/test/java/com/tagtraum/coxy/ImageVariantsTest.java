@@ -0,0 +1,127 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageVariantsTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class ImageVariantsTest {
+
+    private static byte[] createImage(final int width, final int height, final String format) throws IOException {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, out));
+        return out.toByteArray();
+    }
+
+    private static BufferedImage read(final byte[] image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image));
+    }
+
+    @Test
+    public void testParse() {
+        final ImageVariants.Variant variant = ImageVariants.parse("/Mkq8l7_aFIXDsTdRT07pQoubjB4=/600x600/smart/filters:strip_icc():format(jpeg):mode_rgb():quality(96)/discogs-images/A-45-1408907021-4444.jpeg.jpg");
+        assertNotNull(variant);
+        assertEquals(600, variant.getWidth());
+        assertEquals(600, variant.getHeight());
+        assertFalse(variant.isFitIn());
+        assertEquals("jpeg", variant.getFormat());
+
+        final ImageVariants.Variant fitIn = ImageVariants.parse("/sig=/fit-in/150x0/discogs-images/R-1-2.png.jpg");
+        assertNotNull(fitIn);
+        assertTrue(fitIn.isFitIn());
+        assertEquals(150, fitIn.getWidth());
+        assertEquals(0, fitIn.getHeight());
+        assertNull(fitIn.getFormat());
+
+        assertNull(ImageVariants.parse("/discogs-images/R-1-2.jpeg"));
+        assertNull(ImageVariants.parse("/sig=/0x0/discogs-images/R-1-2.jpeg"));
+        assertNull(ImageVariants.parse("/sig=/600x600/smart/nothing-here.jpeg"));
+    }
+
+    @Test
+    public void testToFile() {
+        final File master = new File("/cache/images/R/10/74/R-1074891/R-1074891-1267544771.jpeg");
+        assertEquals(new File("/cache/images/R/10/74/R-1074891/R-1074891-1267544771@150x150.jpeg"),
+                ImageVariants.toFile(master, new ImageVariants.Variant(150, 150, false, null, 0.9f)));
+        assertEquals(new File("/cache/images/R/10/74/R-1074891/R-1074891-1267544771@fit-150x0.png"),
+                ImageVariants.toFile(master, new ImageVariants.Variant(150, 0, true, "png", 0.9f)));
+        // quality matters
+        assertEquals(new File("/cache/images/R/10/74/R-1074891/R-1074891-1267544771@150x150-q40.jpeg"),
+                ImageVariants.toFile(master, new ImageVariants.Variant(150, 150, false, null, 0.4f)));
+        assertEquals(ImageVariants.toFile(master, ImageVariants.parse("/150x150/filters:quality(90)/images/R-1.jpeg")),
+                ImageVariants.toFile(master, ImageVariants.parse("/150x150/images/R-1.jpeg")));
+    }
+
+    @Test
+    public void testIsCropped() {
+        assertTrue(new ImageVariants.Variant(150, 150, false, null, 0.9f).isCropped());
+        assertFalse(new ImageVariants.Variant(150, 150, true, null, 0.9f).isCropped());
+        assertFalse(new ImageVariants.Variant(150, 0, false, null, 0.9f).isCropped());
+        assertTrue(ImageVariants.isSameFormat("jpeg", "jpg"));
+        assertFalse(ImageVariants.isSameFormat("webp", "jpeg"));
+    }
+
+    @Test
+    public void testRenderCover() throws IOException {
+        final byte[] master = createImage(800, 600, "jpeg");
+        final BufferedImage variant = read(ImageVariants.render(master, "jpeg", new ImageVariants.Variant(150, 150, false, null, 0.9f)));
+        assertEquals(150, variant.getWidth());
+        assertEquals(150, variant.getHeight());
+    }
+
+    @Test
+    public void testRenderFitIn() throws IOException {
+        final byte[] master = createImage(800, 600, "jpeg");
+        final BufferedImage variant = read(ImageVariants.render(master, "jpeg", new ImageVariants.Variant(200, 200, true, "png", 0.9f)));
+        assertEquals(200, variant.getWidth());
+        assertEquals(150, variant.getHeight());
+        final BufferedImage proportional = read(ImageVariants.render(master, "jpeg", new ImageVariants.Variant(0, 300, false, null, 0.9f)));
+        assertEquals(400, proportional.getWidth());
+        assertEquals(300, proportional.getHeight());
+    }
+
+    @Test
+    public void testNoUpscaling() throws IOException {
+        final byte[] master = createImage(150, 150, "jpeg");
+        assertNull(ImageVariants.render(master, "jpeg", new ImageVariants.Variant(600, 600, false, null, 0.9f)));
+        // exactly what was asked for
+        assertSame(master, ImageVariants.render(master, "jpeg", new ImageVariants.Variant(150, 150, false, null, 0.9f)));
+        // unknown format
+        assertNull(ImageVariants.render(master, "jpeg", new ImageVariants.Variant(100, 100, false, "nosuchformat", 0.9f)));
+    }
+
+    @Test
+    public void testDerive() throws IOException {
+        final ImageVariants imageVariants = new ImageVariants(1, 10);
+        try {
+            final byte[] master = createImage(600, 600, "png");
+            assertEquals(360000, ImageVariants.getPixels(master));
+            final byte[] variant = imageVariants.derive(master, "png", new ImageVariants.Variant(300, 300, false, null, 0.9f), 5000);
+            assertNotNull(variant);
+            assertEquals(90000, ImageVariants.getPixels(variant));
+            assertNull(imageVariants.derive(new byte[10], "png", new ImageVariants.Variant(300, 300, false, null, 0.9f), 5000));
+            assertEquals(1, imageVariants.getDerived());
+            assertEquals(1, imageVariants.getFailed());
+        } finally {
+            imageVariants.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * MemoryCacheTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MemoryCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        final MemoryCache cache = new MemoryCache(1000);
+        final MemoryCache.Entry entry = entry(100);
+        cache.put("/a", entry);
+        assertSame(entry, cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(100, cache.getBytes());
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        final MemoryCache cache = new MemoryCache(1000);
+        for (int i=0; i<20; i++) {
+            cache.put("/" + i, entry(100));
+        }
+        assertEquals(1000, cache.getBytes());
+        assertEquals(10, cache.size());
+        assertNull(cache.get("/0"));
+        assertNotNull(cache.get("/19"));
+    }
+
+    @Test
+    public void testTooLarge() {
+        final MemoryCache cache = new MemoryCache(1000);
+        cache.put("/a", entry(1001));
+        assertNull(cache.get("/a"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testProtectedSurvivesScan() {
+        final MemoryCache cache = new MemoryCache(1000);
+        cache.put("/hot", entry(100));
+        // promote to protected segment
+        assertNotNull(cache.get("/hot"));
+        // one-time requests
+        for (int i=0; i<50; i++) {
+            cache.put("/" + i, entry(100));
+        }
+        assertNotNull(cache.get("/hot"));
+        assertEquals(1000, cache.getBytes());
+    }
+
+    @Test
+    public void testReplace() {
+        final MemoryCache cache = new MemoryCache(1000);
+        cache.put("/a", entry(100));
+        cache.get("/a");
+        final MemoryCache.Entry replacement = entry(200);
+        cache.put("/a", replacement);
+        assertSame(replacement, cache.get("/a"));
+        assertEquals(200, cache.getBytes());
+        cache.remove("/a");
+        assertEquals(0, cache.getBytes());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemoveFiles() {
+        final MemoryCache cache = new MemoryCache(1000);
+        final File a = new File("/cache/a.jpg");
+        cache.put("/a", new MemoryCache.Entry(new byte[100], "image/jpeg", System.currentTimeMillis(), a));
+        cache.get("/a");
+        cache.put("/b", new MemoryCache.Entry(new byte[100], "image/jpeg", System.currentTimeMillis(), new File("/cache/b.jpg")));
+        cache.put("/c", entry(100));
+        cache.removeFiles(Collections.singleton(a));
+        assertNull(cache.get("/a"));
+        assertNotNull(cache.get("/b"));
+        assertNotNull(cache.get("/c"));
+        assertEquals(200, cache.getBytes());
+    }
+
+    private static MemoryCache.Entry entry(final int length) {
+        return new MemoryCache.Entry(new byte[length], "image/jpeg", System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * MetadataIndexTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MetadataIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutGetRemove() throws IOException {
+        final MetadataIndex index = createIndex();
+        final File file = new File(folder.getRoot(), "images/R/10/R-1.jpeg");
+        assertNull(index.get(file));
+        index.put(file, 1234, 1000000000000L, "image/jpeg", "\"abc\"", "Mon, 01 Jan 2024 00:00:00 GMT");
+        final MetadataIndex.Entry entry = index.get(file);
+        assertEquals(1234, entry.size());
+        assertEquals(1000000000000L, entry.lastModifiedTime().toMillis());
+        assertTrue(entry.isRegularFile());
+        assertEquals("image/jpeg", entry.getContentType());
+        assertEquals("\"abc\"", entry.getETag());
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", entry.getUpstreamLastModified());
+        index.remove(file);
+        assertNull(index.get(file));
+        assertEquals(0, index.size());
+        index.close();
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        final MetadataIndex index = createIndex();
+        index.put(a, 1, 1000, "image/jpeg", null, null);
+        index.put(b, 2, 2000, null, null, null);
+        index.put(a, 3, 3000, "image/png", null, null);
+        index.remove(b);
+        index.close();
+
+        final MetadataIndex reloaded = createIndex();
+        assertEquals(1, reloaded.size());
+        assertEquals(3, reloaded.get(a).size());
+        assertEquals("image/png", reloaded.get(a).getContentType());
+        assertNull(reloaded.get(a).getETag());
+        assertNull(reloaded.get(b));
+        reloaded.close();
+    }
+
+    @Test
+    public void testTruncatedLog() throws IOException {
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        final MetadataIndex index = createIndex();
+        index.put(a, 1, 1000, null, null, null);
+        index.put(b, 2, 2000, null, null, null);
+        index.close();
+        // simulate crash while writing the last record
+        try (final RandomAccessFile log = new RandomAccessFile(getLogFile(), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+
+        final MetadataIndex reloaded = createIndex();
+        assertNotNull(reloaded.get(a));
+        assertNull(reloaded.get(b));
+        reloaded.put(b, 2, 2000, null, null, null);
+        reloaded.close();
+
+        final MetadataIndex reloadedAgain = createIndex();
+        assertEquals(2, reloadedAgain.size());
+        assertEquals(2, reloadedAgain.get(b).size());
+        reloadedAgain.close();
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        final File file = new File(folder.getRoot(), "images/R/10/R-1.jpeg");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[42]);
+        assertTrue(file.setLastModified(1000000000000L));
+        Files.write(new File(folder.getRoot(), ".R-2.jpeg.123.tmp").toPath(), new byte[1]);
+
+        final MetadataIndex index = createIndex();
+        assertTrue(index.isReady());
+        assertEquals(1, index.size());
+        final MetadataIndex.Entry entry = index.get(file);
+        assertEquals(42, entry.size());
+        assertEquals(1000000000000L, entry.lastModifiedTime().toMillis());
+        assertNull(entry.getContentType());
+        index.close();
+
+        // now from the log
+        Files.delete(file.toPath());
+        final MetadataIndex reloaded = createIndex();
+        assertEquals(42, reloaded.get(file).size());
+        reloaded.close();
+    }
+
+    private MetadataIndex createIndex() throws IOException {
+        final MetadataIndex index = new MetadataIndex(folder.getRoot(), getLogFile());
+        index.load();
+        return index;
+    }
+
+    private File getLogFile() {
+        return new File(folder.getRoot(), ".coxy-index");
+    }
+}
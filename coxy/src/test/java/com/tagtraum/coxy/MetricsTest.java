@@ -0,0 +1,65 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * MetricsTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MetricsTest {
+
+    @Test
+    public void testRecord() {
+        final Metrics metrics = new Metrics("straight", new HttpUpstreamClient(), new RateLimitGovernor(0.1, 10));
+        metrics.recordRequest(Metrics.Outcome.HIT, TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.recordRequest(Metrics.Outcome.HIT, TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.recordRequest(Metrics.Outcome.STALE, TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.recordRequest(Metrics.Outcome.MISS, TimeUnit.MILLISECONDS.toNanos(100));
+        metrics.recordStore(1000, TimeUnit.MILLISECONDS.toNanos(10));
+        metrics.addBytesServed(500);
+        assertEquals(2, metrics.getHits());
+        assertEquals(1, metrics.getStaleHits());
+        assertEquals(1, metrics.getMisses());
+        assertEquals(0, metrics.getErrors());
+        assertEquals(0.75, metrics.getHitRatio(), 0.0001);
+        // misses aren't part of the hit latency
+        assertEquals(2, metrics.getHitLatency().getCount());
+        assertEquals(100, metrics.getHitLatency99thPercentileMicros());
+        assertEquals(1, metrics.getMissLatency().getCount());
+        assertEquals(1000, metrics.getBytesFetched());
+        assertEquals(500, metrics.getBytesServed());
+        assertEquals(-1, metrics.getRateLimitRemaining());
+    }
+
+    @Test
+    public void testPrometheus() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0.1, 10);
+        governor.update(1000, 900, 60);
+        final Metrics metrics = new Metrics("discogs", new HttpUpstreamClient(), governor);
+        metrics.recordRequest(Metrics.Outcome.ERROR, 0);
+        metrics.recordUpstream(TimeUnit.MILLISECONDS.toNanos(250));
+        final StringWriter out = new StringWriter();
+        metrics.writePrometheus(new PrintWriter(out));
+        final String text = out.toString();
+        assertTrue(text.contains("# TYPE coxy_requests_total counter\n"));
+        assertTrue(text.contains("coxy_requests_total{resolver=\"discogs\",outcome=\"error\"} 1\n"));
+        assertTrue(text.contains("coxy_requests_total{resolver=\"discogs\",outcome=\"hit\"} 0\n"));
+        assertTrue(text.contains("coxy_upstream_duration_seconds{resolver=\"discogs\",quantile=\"0.5\"} 0.25\n"));
+        assertTrue(text.contains("coxy_upstream_duration_seconds_count{resolver=\"discogs\"} 1\n"));
+        assertTrue(text.contains("coxy_ratelimit_remaining{resolver=\"discogs\"} 900\n"));
+        assertTrue(text.contains("coxy_upstream_inflight{resolver=\"discogs\"} 0\n"));
+    }
+}
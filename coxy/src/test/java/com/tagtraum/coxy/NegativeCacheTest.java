@@ -0,0 +1,94 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * NegativeCacheTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class NegativeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTtl() {
+        final NegativeCache cache = new NegativeCache(10, 1000, 100, false);
+        final File notFound = new File(folder.getRoot(), "notfound.jpg");
+        final File error = new File(folder.getRoot(), "error.jpg");
+        cache.put(notFound, 404, "Not Found", 0);
+        cache.put(error, 500, "Internal Server Error", 0);
+        assertEquals(404, cache.get(notFound, 50).getStatusCode());
+        assertEquals("Internal Server Error", cache.get(error, 50).getMessage());
+        assertNull(cache.get(error, 100));
+        assertNotNull(cache.get(notFound, 999));
+        assertNull(cache.get(notFound, 1000));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNotRemembered() {
+        final NegativeCache cache = new NegativeCache(10, 1000, 100, false);
+        final File file = new File(folder.getRoot(), "file.jpg");
+        cache.put(file, 200, "OK", 0);
+        cache.put(file, 304, "Not Modified", 0);
+        cache.put(file, 429, "Too Many Requests", 0);
+        assertNull(cache.get(file, 0));
+    }
+
+    @Test
+    public void testBounded() {
+        final NegativeCache cache = new NegativeCache(2, 1000, 100, false);
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        final File c = new File(folder.getRoot(), "c.jpg");
+        cache.put(a, 404, "Not Found", 0);
+        cache.put(b, 404, "Not Found", 0);
+        // use a, so that b is evicted
+        assertNotNull(cache.get(a, 0));
+        cache.put(c, 404, "Not Found", 0);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(a, 0));
+        assertNull(cache.get(b, 0));
+        assertNotNull(cache.get(c, 0));
+    }
+
+    @Test
+    public void testPersistent() throws IOException {
+        final File file = new File(folder.getRoot(), "sub/missing.jpg");
+        final long now = System.currentTimeMillis();
+        new NegativeCache(10, 60000, 100, true).put(file, 410, "Gone", now);
+
+        final Path marker = folder.getRoot().toPath().resolve("sub/.missing.jpg.negative");
+        assertTrue(Files.exists(marker));
+        assertTrue(NegativeCache.isMarker(marker));
+        assertFalse(Files.exists(file.toPath()));
+
+        // survives a restart
+        final NegativeCache cache = new NegativeCache(10, 60000, 100, true);
+        final NegativeCache.Entry entry = cache.get(file, now);
+        assertEquals(410, entry.getStatusCode());
+        assertEquals("Gone", entry.getMessage());
+        assertEquals(1, cache.getHits());
+
+        cache.remove(file);
+        assertFalse(Files.exists(marker));
+        assertNull(cache.get(file, now));
+    }
+}
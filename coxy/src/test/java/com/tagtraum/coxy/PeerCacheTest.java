@@ -0,0 +1,156 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * PeerCacheTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class PeerCacheTest {
+
+    private static final String SELF = "http://127.0.0.1:1/coxy";
+    private final AtomicBoolean healthy = new AtomicBoolean(true);
+    private StubServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer(new StubServer.Handler() {
+            @Override
+            public void handle(final String method, final String path, final Map<String, String> requestHeaders,
+                               final StubServer.Response response) throws IOException {
+                if (PeerCache.HEALTH_PATH.equals(path)) {
+                    response.status = healthy.get() ? 204 : 503;
+                    return;
+                }
+                final boolean found = path.startsWith("/found");
+                response.status = found ? 200 : 503;
+                response.body = (SELF.equals(requestHeaders.get(PeerCache.PEER_HEADER)) ? "image" : "no peer").getBytes("UTF-8");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private PeerCache createPeerCache(final String... peers) {
+        final UpstreamClient[] clients = new UpstreamClient[peers.length];
+        for (int i = 0; i < peers.length; i++) {
+            clients[i] = new HttpUpstreamClient(1000, 1000, 4, 0L);
+            clients[i].setTargetBase(peers[i]);
+        }
+        return new PeerCache(SELF, Arrays.asList(peers), 100, Arrays.asList(clients));
+    }
+
+    /**
+     * Finds a path with the given prefix owned by the given peer.
+     */
+    private static String findPath(final PeerCache peerCache, final String prefix, final String owner) {
+        for (int i = 0; i < 1000; i++) {
+            final String path = prefix + i;
+            final String o = peerCache.getOwner(path);
+            if (owner == null ? o == null : owner.equals(o)) return path;
+        }
+        throw new AssertionError("No path owned by " + owner);
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        int justRead;
+        while ((justRead = in.read(buf)) != -1) {
+            out.write(buf, 0, justRead);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testConsistentOwnership() {
+        final List<String> peers = Arrays.asList(SELF, "http://a", "http://b", "http://c");
+        final PeerCache four = createPeerCache(peers.toArray(new String[peers.size()]));
+        final PeerCache three = createPeerCache(SELF, "http://a", "http://b");
+        int ownedBySelf = 0;
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            final String path = "/images/R-" + i + ".jpeg";
+            final String owner = four.getOwner(path);
+            if (owner == null) ownedBySelf++;
+            // removing c only moves paths owned by c
+            if (!"http://c".equals(owner)) {
+                assertEquals(owner, three.getOwner(path));
+            } else {
+                moved++;
+            }
+        }
+        assertTrue(ownedBySelf > 100 && ownedBySelf < 400);
+        assertTrue(moved > 100 && moved < 400);
+        four.close();
+        three.close();
+    }
+
+    @Test
+    public void testFetch() throws IOException {
+        final PeerCache peerCache = createPeerCache(SELF, server.getBase());
+        assertNull(peerCache.fetch(findPath(peerCache, "/found", null)));
+        try (final UpstreamResponse response = peerCache.fetch(findPath(peerCache, "/found", server.getBase()))) {
+            assertNotNull(response);
+            assertEquals(200, response.getStatusCode());
+            assertEquals("image", read(response.getInputStream()));
+        }
+        // the owner gave up, try the target server ourselves
+        assertNull(peerCache.fetch(findPath(peerCache, "/unavailable", server.getBase())));
+        assertEquals(1, peerCache.getHits());
+        assertEquals(1, peerCache.getMisses());
+        assertEquals(1, peerCache.getHealthy());
+        peerCache.close();
+    }
+
+    @Test
+    public void testHealth() throws IOException {
+        final PeerCache peerCache = createPeerCache(SELF, server.getBase());
+        final String path = findPath(peerCache, "/found", server.getBase());
+        healthy.set(false);
+        peerCache.checkHealth();
+        assertEquals(0, peerCache.getHealthy());
+        // we own everything now
+        assertNull(peerCache.getOwner(path));
+        healthy.set(true);
+        peerCache.checkHealth();
+        assertEquals(1, peerCache.getHealthy());
+        assertEquals(server.getBase(), peerCache.getOwner(path));
+        peerCache.close();
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        final String unreachable = "http://127.0.0.1:2";
+        final PeerCache peerCache = createPeerCache(SELF, unreachable);
+        final String path = findPath(peerCache, "/found", unreachable);
+        // a failing request takes the peer out of the ring right away
+        assertNull(peerCache.fetch(path));
+        assertEquals(1, peerCache.getFailures());
+        assertEquals(0, peerCache.getHealthy());
+        assertNull(peerCache.getOwner(path));
+        peerCache.close();
+    }
+}
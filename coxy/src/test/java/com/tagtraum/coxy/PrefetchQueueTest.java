@@ -0,0 +1,195 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * PrefetchQueueTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class PrefetchQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDeduplication() throws IOException, InterruptedException {
+        final PrefetchQueue queue = new PrefetchQueue(new File(folder.getRoot(), ".coxy-prefetch"), 2);
+        queue.load();
+        assertTrue(queue.add("/a.jpg"));
+        assertFalse(queue.add("/a.jpg"));
+        assertFalse(queue.add("/b\n.jpg"));
+        assertTrue(queue.add("/b.jpg"));
+        // full
+        assertFalse(queue.add("/c.jpg"));
+        assertEquals("/a.jpg", queue.take(0, TimeUnit.MILLISECONDS));
+        // in progress
+        assertFalse(queue.add("/a.jpg"));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getInProgress());
+        queue.done("/a.jpg");
+        assertTrue(queue.add("/a.jpg"));
+        queue.close();
+    }
+
+    @Test
+    public void testReplay() throws IOException, InterruptedException {
+        final File journal = new File(folder.getRoot(), ".coxy-prefetch");
+        final PrefetchQueue queue = new PrefetchQueue(journal, 100);
+        queue.load();
+        queue.add("/a.jpg");
+        queue.add("/b.jpg");
+        queue.add("/c.jpg");
+        queue.flush();
+        assertEquals("/a.jpg", queue.take(0, TimeUnit.MILLISECONDS));
+        queue.done("/a.jpg");
+        // in progress, when we "crash"
+        assertEquals("/b.jpg", queue.take(0, TimeUnit.MILLISECONDS));
+        queue.close();
+
+        final PrefetchQueue reloaded = new PrefetchQueue(journal, 100);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        assertEquals("/b.jpg", reloaded.take(0, TimeUnit.MILLISECONDS));
+        assertEquals("/c.jpg", reloaded.take(0, TimeUnit.MILLISECONDS));
+        assertNull(reloaded.take(10, TimeUnit.MILLISECONDS));
+        reloaded.done("/b.jpg");
+        reloaded.done("/c.jpg");
+        // compacted, once everything is done
+        assertEquals(0, journal.length());
+        reloaded.close();
+    }
+
+    @Test
+    public void testCompactWhileRunning() throws IOException, InterruptedException {
+        final File journal = new File(folder.getRoot(), ".coxy-prefetch");
+        final PrefetchQueue queue = new PrefetchQueue(journal, 10000);
+        queue.load();
+        for (int i=0; i<5000; i++) {
+            queue.add("/" + i + ".jpg");
+        }
+        queue.flush();
+        for (int i=0; i<4900; i++) {
+            queue.done(queue.take(0, TimeUnit.MILLISECONDS));
+        }
+        queue.flush();
+        // not 5000 additions plus 4900 removals
+        assertTrue(Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8).size() < 2000);
+        queue.close();
+
+        final PrefetchQueue reloaded = new PrefetchQueue(journal, 10000);
+        reloaded.load();
+        assertEquals(100, reloaded.size());
+        assertEquals("/4900.jpg", reloaded.take(0, TimeUnit.MILLISECONDS));
+        reloaded.close();
+    }
+
+    @Test
+    public void testPrefetcher() throws IOException, InterruptedException {
+        final PrefetchQueue queue = new PrefetchQueue(new File(folder.getRoot(), ".coxy-prefetch"), 100);
+        queue.load();
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        final int[] denials = {2};
+        final Prefetcher prefetcher = new Prefetcher(queue, new Prefetcher.Fetcher() {
+            @Override
+            public boolean isNeeded(final String path) {
+                return true;
+            }
+
+            @Override
+            public boolean prefetchWithoutPermit(final String path) {
+                return false;
+            }
+
+            @Override
+            public synchronized long tryAcquire() {
+                return denials[0]-- > 0 ? 10 : 0;
+            }
+
+            @Override
+            public void prefetch(final String path) throws IOException {
+                try {
+                    fetched.add(path);
+                    if (path.equals("/b.jpg")) throw new IOException("Not today");
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        prefetcher.add("/a.jpg");
+        prefetcher.add("/b.jpg");
+        prefetcher.add("/c.jpg");
+        prefetcher.start(1);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        prefetcher.close();
+        assertEquals(3, fetched.size());
+        assertEquals("/a.jpg", fetched.get(0));
+        assertEquals(2, prefetcher.getPrefetched());
+        assertEquals(1, prefetcher.getFailed());
+        assertEquals(0, queue.getInProgress());
+    }
+
+    @Test
+    public void testPrefetcherSkipsCached() throws IOException, InterruptedException {
+        final PrefetchQueue queue = new PrefetchQueue(new File(folder.getRoot(), ".coxy-prefetch"), 100);
+        queue.load();
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger permits = new AtomicInteger();
+        final Prefetcher prefetcher = new Prefetcher(queue, new Prefetcher.Fetcher() {
+            @Override
+            public boolean isNeeded(final String path) {
+                return !path.equals("/cached.jpg");
+            }
+
+            @Override
+            public boolean prefetchWithoutPermit(final String path) {
+                return path.equals("/derived.jpg");
+            }
+
+            @Override
+            public long tryAcquire() {
+                permits.incrementAndGet();
+                return 0;
+            }
+
+            @Override
+            public void prefetch(final String path) {
+                fetched.add(path);
+            }
+        });
+        prefetcher.add("/cached.jpg");
+        prefetcher.add("/derived.jpg");
+        prefetcher.add("/a.jpg");
+        prefetcher.start(1);
+        for (int i = 0; i < 500 && prefetcher.getPrefetched() < 3; i++) {
+            Thread.sleep(10);
+        }
+        prefetcher.close();
+        assertEquals(3, prefetcher.getPrefetched());
+        assertEquals(Collections.singletonList("/a.jpg"), fetched);
+        // no permit spent on what we have already or got without the target server
+        assertEquals(1, permits.get());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import static com.tagtraum.coxy.RateLimitGovernor.Priority.HIGH;
+import static com.tagtraum.coxy.RateLimitGovernor.Priority.LOW;
+import static com.tagtraum.coxy.RateLimitGovernor.Priority.NORMAL;
+import static org.junit.Assert.*;
+
+/**
+ * RateLimitGovernorTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class RateLimitGovernorTest {
+
+    @Test
+    public void testUnknownLimit() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0.1, 1);
+        for (int i=0; i<1000; i++) {
+            assertTrue(governor.tryAcquire(NORMAL, 0));
+        }
+        assertFalse(governor.isExhausted());
+        assertEquals(-1, governor.getRemaining());
+    }
+
+    @Test
+    public void testReserve() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0.1, 1000);
+        governor.update(100, 12, 60, 0);
+        assertEquals(10, governor.getReserve());
+        assertTrue(governor.tryAcquire(NORMAL, 0));
+        assertTrue(governor.tryAcquire(NORMAL, 0));
+        // only the reserve is left
+        assertFalse(governor.tryAcquire(NORMAL, 0));
+        for (int i=0; i<10; i++) {
+            assertTrue(governor.tryAcquire(HIGH, 0));
+        }
+        assertFalse(governor.tryAcquire(HIGH, 0));
+        assertEquals(0, governor.getRemaining());
+        assertEquals(12, governor.getPermitted());
+        assertEquals(2, governor.getDenied());
+    }
+
+    @Test
+    public void testPacing() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0, 2);
+        // 10 requests left for the next 10 seconds -> one per second, burst of two
+        governor.update(10, 10, 10, 0);
+        assertTrue(governor.tryAcquire(NORMAL, 0));
+        assertTrue(governor.tryAcquire(NORMAL, 0));
+        assertFalse(governor.tryAcquire(NORMAL, 0));
+        assertFalse(governor.tryAcquire(NORMAL, 500));
+        assertTrue(governor.tryAcquire(NORMAL, 1100));
+        // high priority is not paced
+        assertTrue(governor.tryAcquire(HIGH, 1100));
+    }
+
+    @Test
+    public void testLowPriority() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0.1, 0.5, 10);
+        // 100 left for the next 100 seconds
+        governor.update(100, 100, 100, 0);
+        // no burst for low priority requests
+        assertTrue(governor.tryAcquire(LOW, 0));
+        assertFalse(governor.tryAcquire(LOW, 0));
+        // but for normal ones
+        assertTrue(governor.tryAcquire(NORMAL, 0));
+        assertTrue(governor.tryAcquire(NORMAL, 0));
+
+        // only half of the quota may be used by low priority requests
+        governor.update(100, 51, 100, 50000);
+        assertTrue(governor.tryAcquire(LOW, 60000));
+        assertFalse(governor.tryAcquire(LOW, 80000));
+        assertTrue(governor.tryAcquire(NORMAL, 80000));
+    }
+
+    @Test
+    public void testReset() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0, 10);
+        governor.update(10, 0, 10, 0);
+        assertFalse(governor.tryAcquire(HIGH, 5000));
+        // after the reset, we don't know anything anymore and let requests pass
+        assertTrue(governor.tryAcquire(NORMAL, 10000));
+        // until we hear from the server again
+        governor.update(10, 10, 10, 10000);
+        assertEquals(10, governor.getRemaining());
+    }
+
+    @Test
+    public void testExhaustedWithoutReset() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0, 10);
+        governor.update(10, 0, -1, 0);
+        assertFalse(governor.tryAcquire(HIGH, 0));
+        assertEquals(-1, governor.getResetTimeMillis());
+        // without a reset time, we only block for one window
+        assertFalse(governor.tryAcquire(HIGH, RateLimitGovernor.UNKNOWN_RESET_WINDOW_MILLIS - 1));
+        assertTrue(governor.tryAcquire(NORMAL, RateLimitGovernor.UNKNOWN_RESET_WINDOW_MILLIS));
+    }
+
+    @Test
+    public void testIgnoreMissingHeaders() {
+        final RateLimitGovernor governor = new RateLimitGovernor(0, 10);
+        governor.update(10, 5, 10, 0);
+        governor.update(-1, -1, -1, 0);
+        assertEquals(5, governor.getRemaining());
+        assertEquals(10, governor.getLimit());
+    }
+}
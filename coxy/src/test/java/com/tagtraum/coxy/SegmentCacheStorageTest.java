@@ -0,0 +1,214 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.*;
+
+/**
+ * SegmentCacheStorageTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class SegmentCacheStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentCacheStorage createStorage(final long segmentSize, final boolean mapped) throws IOException {
+        final FileSender fileSender = new FileSender(0, 0);
+        final SegmentCacheStorage storage = new SegmentCacheStorage(folder.getRoot(), new File(folder.getRoot(), ".coxy-segments"),
+                segmentSize, 100, mapped, 0.5, fileSender, new FileCacheStorage(fileSender));
+        storage.open();
+        return storage;
+    }
+
+    private static long store(final CacheStorage storage, final File file, final String content, final long lastModified) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        return storage.store(file, new ByteArrayInputStream(bytes), bytes.length, lastModified, null);
+    }
+
+    private static String send(final CacheStorage storage, final File file, final long position, final long length) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        storage.send(file, storage.readAttributes(file), out, position, length);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testStoreAndSend() throws IOException {
+        final SegmentCacheStorage storage = createStorage(1024, false);
+        final File file = new File(folder.getRoot(), "a/b/c.jpg");
+        assertNull(storage.readAttributes(file));
+        final ByteArrayOutputStream client = new ByteArrayOutputStream();
+        final byte[] content = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(10, storage.store(file, new ByteArrayInputStream(content), content.length, 1000L, client));
+        assertArrayEquals(content, client.toByteArray());
+        final BasicFileAttributes attributes = storage.readAttributes(file);
+        assertEquals(10, attributes.size());
+        assertEquals(1000L, attributes.lastModifiedTime().toMillis());
+        assertTrue(attributes.isRegularFile());
+        assertEquals("0123456789", send(storage, file, 0, 10));
+        assertEquals("345", send(storage, file, 3, 3));
+        assertArrayEquals(content, storage.read(file, attributes));
+        // not a file of its own
+        assertFalse(file.exists());
+        storage.close();
+    }
+
+    @Test
+    public void testIncomplete() throws IOException {
+        final SegmentCacheStorage storage = createStorage(1024, false);
+        final File file = new File(folder.getRoot(), "a.jpg");
+        try {
+            storage.store(file, new ByteArrayInputStream(new byte[5]), 10, 1000L, null);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            storage.store(file, new ByteArrayInputStream(new byte[15]), 10, 1000L, null);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertNull(storage.readAttributes(file));
+        storage.close();
+    }
+
+    @Test
+    public void testLarge() throws IOException {
+        final SegmentCacheStorage storage = createStorage(1024, false);
+        final File file = new File(folder.getRoot(), "a/large.jpg");
+        final byte[] content = new byte[200];
+        storage.store(file, new ByteArrayInputStream(content), content.length, 1000L, null);
+        assertTrue(file.exists());
+        assertEquals(200, storage.readAttributes(file).size());
+        assertEquals(0, storage.size());
+        // replaced by a small one
+        store(storage, file, "small", 2000L);
+        assertFalse(file.exists());
+        assertEquals("small", send(storage, file, 0, 5));
+        assertTrue(storage.delete(file));
+        assertFalse(storage.delete(file));
+        assertNull(storage.readAttributes(file));
+        storage.close();
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        final SegmentCacheStorage storage = createStorage(100, false);
+        final File a = new File(folder.getRoot(), "a.jpg");
+        final File b = new File(folder.getRoot(), "b.jpg");
+        final File c = new File(folder.getRoot(), "c.jpg");
+        store(storage, a, "aaaaaaaaaa", 1000L);
+        store(storage, b, "bbbbbbbbbb", 1000L);
+        store(storage, c, "cccccccccc", 1000L);
+        store(storage, a, "AAAAAAAAAA", 2000L);
+        storage.delete(b);
+        storage.setLastModified(c, 3000L);
+        assertTrue(storage.getSegments() > 1);
+        storage.close();
+
+        // simulate a crash in the middle of writing a record
+        final File lastSegment = new File(folder.getRoot(), ".coxy-segments/segment-00000" + storage.getSegments() + ".dat");
+        final long length = lastSegment.length();
+        try (final RandomAccessFile raf = new RandomAccessFile(lastSegment, "rw")) {
+            raf.seek(length);
+            raf.write(new byte[]{1, 0, 0, 0});
+        }
+
+        final SegmentCacheStorage reopened = createStorage(100, false);
+        assertEquals(2, reopened.size());
+        assertEquals("AAAAAAAAAA", send(reopened, a, 0, 10));
+        assertEquals(2000L, reopened.readAttributes(a).lastModifiedTime().toMillis());
+        assertNull(reopened.readAttributes(b));
+        assertEquals(3000L, reopened.readAttributes(c).lastModifiedTime().toMillis());
+        assertEquals(length, lastSegment.length());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        final SegmentCacheStorage storage = createStorage(100, true);
+        final File[] files = new File[10];
+        for (int i=0; i<files.length; i++) {
+            files[i] = new File(folder.getRoot(), i + ".jpg");
+            store(storage, files[i], "content" + i, 1000L);
+        }
+        for (int i=0; i<files.length - 1; i++) {
+            storage.delete(files[i]);
+        }
+        storage.setLastModified(files[9], 2000L);
+        final int segments = storage.getSegments();
+        assertTrue(segments > 2);
+        storage.compact();
+        assertTrue(storage.getCompacted() > 0);
+        assertTrue(storage.getSegments() < segments);
+        assertEquals("content9", send(storage, files[9], 0, 8));
+        // deleted with the next run
+        storage.compact();
+        storage.close();
+        final File[] segmentFiles = new File(folder.getRoot(), ".coxy-segments").listFiles();
+        assertNotNull(segmentFiles);
+        assertTrue(segmentFiles.length < segments);
+
+        final SegmentCacheStorage reopened = createStorage(100, true);
+        assertEquals(1, reopened.size());
+        for (int i=0; i<files.length - 1; i++) {
+            assertNull(reopened.readAttributes(files[i]));
+        }
+        assertEquals("content9", send(reopened, files[9], 0, 8));
+        assertEquals(2000L, reopened.readAttributes(files[9]).lastModifiedTime().toMillis());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactWhileSending() throws IOException {
+        final SegmentCacheStorage storage = createStorage(100, false);
+        final File[] files = new File[10];
+        for (int i=0; i<files.length; i++) {
+            files[i] = new File(folder.getRoot(), i + ".jpg");
+            store(storage, files[i], "content" + i, 1000L);
+        }
+        final BasicFileAttributes attributes = storage.readAttributes(files[0]);
+        for (int i=1; i<files.length; i++) {
+            storage.delete(files[i]);
+        }
+        final File firstSegment = new File(folder.getRoot(), ".coxy-segments/segment-000001.dat");
+        assertTrue(firstSegment.exists());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(final byte[] b, final int off, final int len) {
+                try {
+                    // compact and delete the segment we are sending from
+                    storage.compact();
+                    storage.compact();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                assertTrue(firstSegment.exists());
+                super.write(b, off, len);
+            }
+        };
+        storage.send(files[0], attributes, out, 0, 8);
+        assertEquals("content0", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertFalse(firstSegment.exists());
+        assertEquals("content0", send(storage, files[0], 0, 8));
+        storage.close();
+    }
+}
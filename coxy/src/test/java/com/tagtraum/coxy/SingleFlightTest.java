@@ -0,0 +1,65 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * SingleFlightTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testLeaderAndFollower() throws InterruptedException {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final SingleFlight<String, String>.Flight leader = singleFlight.join("a");
+        final SingleFlight<String, String>.Flight follower = singleFlight.join("a");
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+        assertEquals(1, singleFlight.size());
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                leader.land("done");
+            }
+        };
+        thread.start();
+        assertEquals("done", follower.await(5, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void testFollowerTimeout() throws InterruptedException {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final SingleFlight<String, String>.Flight leader = singleFlight.join("a");
+        final SingleFlight<String, String>.Flight follower = singleFlight.join("a");
+        assertNull(follower.await(10, TimeUnit.MILLISECONDS));
+        leader.land("done");
+    }
+
+    @Test
+    public void testNewFlightAfterLanding() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        singleFlight.join("a").land(null);
+        assertTrue(singleFlight.join("a").isLeader());
+        assertTrue(singleFlight.join("b").isLeader());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFollowerMayNotLand() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        singleFlight.join("a");
+        singleFlight.join("a").land("oops");
+    }
+}
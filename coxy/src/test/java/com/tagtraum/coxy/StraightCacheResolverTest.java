@@ -10,6 +10,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -36,5 +37,35 @@ public class StraightCacheResolverTest {
         assertEquals(new File("/images/R-150-1370212405-8548.jpeg"), resolvedFile);
     }
 
+    @Test
+    public void testSameAsSplit() throws IOException {
+        final File cacheBase = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+        final StraightCacheResolver resolver = new StraightCacheResolver();
+        resolver.setCacheBase(cacheBase);
+        final String[] tokens = {"/", "-", ".", ".", "R", "1", "jpeg", "jpg", "images/"};
+        final Random random = new Random(0);
+        for (int i=0; i<100000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(10);
+            for (int j=0; j<length; j++) {
+                sb.append(tokens[random.nextInt(tokens.length)]);
+            }
+            final String path = sb.toString();
+            if (path.contains("..") || !path.contains("images/")) continue;
+            assertEquals(path, resolveWithSplit(cacheBase, path), resolver.resolve(path));
+        }
+    }
+
+    /**
+     * The way paths used to be resolved.
+     */
+    private static File resolveWithSplit(final File cacheBase, final String path) throws IOException {
+        String noSignaturePath = path.substring(path.indexOf("images/"));
+        if (noSignaturePath.split("\\.").length == 3) {
+            noSignaturePath = noSignaturePath.substring(0, noSignaturePath.lastIndexOf('.'));
+        }
+        return new File(cacheBase, noSignaturePath).getCanonicalFile();
+    }
+
 
 }
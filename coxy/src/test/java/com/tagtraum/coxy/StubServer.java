@@ -0,0 +1,159 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server for tests. Supports persistent connections.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class StubServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Starts a server on a random local port.
+     *
+     * @param handler request handler
+     * @throws IOException if the server cannot be started
+     */
+    public StubServer(final Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptor = new Thread("StubServer") {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        final Thread worker = new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                        worker.setDaemon(true);
+                        worker.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Base URL of this server, e.g. {@code http://127.0.0.1:12345}.
+     *
+     * @return base URL without trailing slash
+     */
+    public String getBase() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Number of requests received so far.
+     *
+     * @return requests
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Number of connections accepted so far.
+     *
+     * @return connections
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve(final Socket socket) {
+        try (final Socket s = socket) {
+            final InputStream in = new BufferedInputStream(s.getInputStream());
+            final OutputStream out = s.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null && !requestLine.isEmpty()) {
+                final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    final int colon = line.indexOf(':');
+                    if (colon > 0) headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+                requests.incrementAndGet();
+                final String[] parts = requestLine.split(" ");
+                final Response response = new Response();
+                handler.handle(parts[0], parts[1], headers, response);
+                final StringBuilder sb = new StringBuilder();
+                sb.append("HTTP/1.1 ").append(response.status).append(' ').append(response.message).append("\r\n");
+                for (final Map.Entry<String, String> header : response.headers.entrySet()) {
+                    sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+                final boolean head = "HEAD".equals(parts[0]);
+                sb.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+                out.write(sb.toString().getBytes("ISO-8859-1"));
+                if (!head) out.write(response.body);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // connection closed
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            if (b != '\r') line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * Handles requests.
+     */
+    public interface Handler {
+        void handle(String method, String path, Map<String, String> requestHeaders, Response response) throws IOException;
+    }
+
+    /**
+     * Response to fill in.
+     */
+    public static class Response {
+        public int status = 200;
+        public String message = "OK";
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public byte[] body = new byte[0];
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * =================================================
+ * Copyright 2026 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.coxy;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * TeeWriterTest.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TeeWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCopy() throws IOException {
+        final byte[] data = createData(100000);
+        final File target = new File(folder.getRoot(), "test.jpeg");
+        final ByteArrayOutputStream client = new ByteArrayOutputStream();
+        final long count = TeeWriter.copy(new ByteArrayInputStream(data), data.length, target, 1000000000000L, client);
+
+        assertEquals(data.length, count);
+        assertArrayEquals(data, client.toByteArray());
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(1000000000000L, target.lastModified());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testPermissions() throws IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        // what the umask gives us
+        final File reference = new File(folder.getRoot(), "reference");
+        Files.newOutputStream(reference.toPath()).close();
+        final byte[] data = createData(1000);
+        final File target = new File(folder.getRoot(), "test.jpeg");
+        TeeWriter.copy(new ByteArrayInputStream(data), data.length, target, System.currentTimeMillis(), null);
+        final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(target.toPath());
+        assertEquals(Files.getPosixFilePermissions(reference.toPath()), permissions);
+        assertTrue(permissions.contains(PosixFilePermission.OWNER_READ));
+    }
+
+    @Test
+    public void testBrokenClient() throws IOException {
+        final byte[] data = createData(100000);
+        final File target = new File(folder.getRoot(), "test.jpeg");
+        final OutputStream client = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("Client went away");
+            }
+        };
+        TeeWriter.copy(new ByteArrayInputStream(data), data.length, target, System.currentTimeMillis(), client);
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testBrokenInput() throws IOException {
+        final File target = new File(folder.getRoot(), "test.jpeg");
+        final InputStream in = new InputStream() {
+            private int count;
+            @Override
+            public int read() throws IOException {
+                if (count++ > 10000) throw new IOException("Connection reset");
+                return 1;
+            }
+        };
+        try {
+            TeeWriter.copy(in, -1, target, System.currentTimeMillis(), new ByteArrayOutputStream());
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(target.exists());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testIncompleteInput() throws IOException {
+        final byte[] data = createData(1000);
+        final File target = new File(folder.getRoot(), "test.jpeg");
+        try {
+            TeeWriter.copy(new ByteArrayInputStream(data), 2000, target, System.currentTimeMillis(), null);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(target.exists());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private static byte[] createData(final int length) {
+        final byte[] data = new byte[length];
+        for (int i=0; i<data.length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}